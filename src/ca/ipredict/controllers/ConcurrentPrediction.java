@@ -0,0 +1,201 @@
+package ca.ipredict.controllers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import ca.ipredict.database.DatabaseHelper;
+import ca.ipredict.database.Item;
+import ca.ipredict.database.Sequence;
+import ca.ipredict.predictor.Predictor;
+import ca.ipredict.predictor.CPT.CPT.CPTPredictor;
+import ca.ipredict.predictor.CPT.CPTPlus.CPTPlusPredictor;
+import ca.ipredict.predictor.DG.DGPredictor;
+import ca.ipredict.predictor.LZ78.ALZ;
+import ca.ipredict.predictor.LZ78.LZ78Predictor;
+import ca.ipredict.predictor.Markov.MarkovAllKPredictor;
+import ca.ipredict.predictor.Markov.MarkovFirstOrderPredictor;
+import ca.ipredict.predictor.TDAG.TDAGPredictor;
+import ca.ipredict.predictor.profile.Profile;
+import ca.ipredict.predictor.profile.ProfileManager;
+
+/**
+ * This controller is a stress test of the concurrent predictions.
+ * Each predictor is trained once, then many threads share the same model to predict
+ * the same sequences over and over (in a different order per thread) while the profile is
+ * applied again in the background. Every concurrent prediction has to be identical to
+ * the prediction made by a single thread.
+ * Half of the threads predict with CPTPlusPredictor.predict(int[], int[]) instead of Predict(),
+ * so both paths share the model, and its cache of intersections when it is enabled.
+ *
+ * Arguments: data directory, dataset name (default BMS), number of threads (default number of cores)
+ * and number of rounds per thread (default 20)
+ */
+public class ConcurrentPrediction {
+
+	public static void main(String...args) throws Exception {
+
+		if (args.length < 1) {
+			System.out.println("Missing required argument with data directory.");
+			System.exit(1);
+		}
+		String dataset = (args.length > 1) ? args[1] : "BMS";
+		int threadCount = (args.length > 2) ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+		int rounds = (args.length > 3) ? Integer.parseInt(args[3]) : 20;
+
+		//setting the experiment parameters and loading the dataset
+		ProfileManager.loadProfileByName(dataset);
+		DatabaseHelper database = new DatabaseHelper(args[0]);
+		database.loadDataset(dataset, 5000);
+		List<Sequence> sequences = database.getDatabase().getSequences();
+
+		//the first 80% of the sequences are used for training and the others to predict
+		int trainingSize = (int) (sequences.size() * 0.8);
+		List<Sequence> trainingSet = new ArrayList<Sequence>(sequences.subList(0, trainingSize));
+		final List<Sequence> targets = new ArrayList<Sequence>();
+		for(Sequence sequence : sequences.subList(trainingSize, sequences.size())) {
+			if(sequence.size() > Profile.paramInt("consequentSize")) {
+				targets.add(sequence.getLastItems(Profile.paramInt("windowSize"), Profile.paramInt("consequentSize")));
+			}
+		}
+		
+		//the same targets as item values, for CPTPlusPredictor.predict(int[], int[])
+		final List<int[]> contexts = new ArrayList<int[]>(targets.size());
+		for(Sequence target : targets) {
+			int[] context = new int[target.size()];
+			for(int i = 0; i < context.length; i++) {
+				context[i] = target.get(i).val;
+			}
+			contexts.add(context);
+		}
+
+		//Loading predictors
+		List<Predictor> predictors = new ArrayList<Predictor>();
+		predictors.add(new DGPredictor("DG", "lookahead:4"));
+		predictors.add(new TDAGPredictor());
+		predictors.add(new CPTPlusPredictor("CPT+", "CCF:true CBS:true"));
+		predictors.add(new CPTPlusPredictor("CPT+cache", "CCF:true CBS:true compressedII:true intersectionCache:4000000"));
+		predictors.add(new CPTPredictor());
+		predictors.add(new MarkovFirstOrderPredictor());
+		predictors.add(new MarkovAllKPredictor());
+		predictors.add(new LZ78Predictor());
+		predictors.add(new ALZ());
+
+		boolean success = true;
+		ExecutorService executor = Executors.newFixedThreadPool(threadCount + 1);
+		try {
+			for(final Predictor predictor : predictors) {
+
+				predictor.Train(trainingSet);
+
+				//reference predictions, made by a single thread
+				final List<String> expected = new ArrayList<String>(targets.size());
+				for(Sequence target : targets) {
+					expected.add(describe(predictor.Predict(target)));
+				}
+
+				//every thread predicts all the targets, the same target objects are shared by all the threads
+				final AtomicLong mismatches = new AtomicLong();
+				final AtomicLong predictions = new AtomicLong();
+				List<Future<?>> tasks = new ArrayList<Future<?>>();
+				long start = System.nanoTime();
+				for(int t = 0; t < threadCount; t++) {
+					final Random random = new Random(t);
+					final boolean primitive = (predictor instanceof CPTPlusPredictor) && (t % 2 == 1);
+					tasks.add(executor.submit(new Runnable() {
+						public void run() {
+							List<Integer> order = new ArrayList<Integer>(targets.size());
+							for(int i = 0; i < targets.size(); i++) {
+								order.add(i);
+							}
+							int[] out = new int[1];
+							for(int round = 0; round < rounds; round++) {
+								Collections.shuffle(order, random);
+								for(int i : order) {
+									String predicted;
+									if(primitive) {
+										int count = ((CPTPlusPredictor) predictor).predict(contexts.get(i), out);
+										predicted = describe(out, count);
+									}
+									else {
+										predicted = describe(predictor.Predict(targets.get(i)));
+									}
+									if(predicted.equals(expected.get(i)) == false) {
+										mismatches.incrementAndGet();
+									}
+									predictions.incrementAndGet();
+								}
+							}
+						}
+					}));
+				}
+
+				//applying the profile again while the threads are predicting
+				final AtomicBoolean predicting = new AtomicBoolean(true);
+				Future<?> profileLoader = executor.submit(new Runnable() {
+					public void run() {
+						try {
+							while(predicting.get()) {
+								ProfileManager.loadProfileByName(dataset);
+								Thread.sleep(1);
+							}
+						} catch (InterruptedException e) {
+							e.printStackTrace();
+						}
+					}
+				});
+
+				for(Future<?> task : tasks) {
+					task.get();
+				}
+				predicting.set(false);
+				profileLoader.get();
+				long duration = System.nanoTime() - start;
+
+				System.out.println(predictor.getTAG() + "\t" + predictions.get() + " predictions by " + threadCount + " threads in " + (duration / 1000000) + " ms\t" + mismatches.get() + " mismatches");
+				if(predictor instanceof CPTPlusPredictor && ((CPTPlusPredictor) predictor).getIntersectionCache() != null) {
+					System.out.println("\tintersection cache: " + ((CPTPlusPredictor) predictor).getIntersectionCache());
+				}
+				success &= (mismatches.get() == 0);
+			}
+		}
+		finally {
+			executor.shutdownNow();
+			executor.awaitTermination(1, TimeUnit.MINUTES);
+		}
+
+		System.out.println(success ? "All the concurrent predictions are identical" : "Some concurrent predictions are different");
+		if(success == false) {
+			System.exit(1);
+		}
+	}
+
+	/**
+	 * Items of a predicted sequence as a string, some predictors can predict a null item
+	 */
+	private static String describe(Sequence sequence) {
+		StringBuilder output = new StringBuilder();
+		for(Item item : sequence.getItems()) {
+			output.append(item.val).append(' ');
+		}
+		return output.toString();
+	}
+
+	/**
+	 * Items predicted by CPTPlusPredictor.predict(int[], int[]), in the same format as describe(Sequence)
+	 */
+	private static String describe(int[] items, int count) {
+		StringBuilder output = new StringBuilder();
+		for(int i = 0; i < count; i++) {
+			output.append(items[i]).append(' ');
+		}
+		return output.toString();
+	}
+}
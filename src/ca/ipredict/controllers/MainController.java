@@ -4,10 +4,12 @@ import java.io.IOException;
 import java.util.Arrays;
 
 import ca.ipredict.helpers.StatsLogger;
+import ca.ipredict.predictor.CachedPredictor;
 import ca.ipredict.predictor.Evaluator;
 import ca.ipredict.predictor.CPT.CPT.CPTPredictor;
 import ca.ipredict.predictor.CPT.CPTPlus.CPTPlusPredictor;
 import ca.ipredict.predictor.DG.DGPredictor;
+import ca.ipredict.predictor.LZ78.ALZ;
 import ca.ipredict.predictor.LZ78.LZ78Predictor;
 import ca.ipredict.predictor.Markov.MarkovAllKPredictor;
 import ca.ipredict.predictor.Markov.MarkovFirstOrderPredictor;
@@ -58,10 +60,13 @@ public class MainController {
 			evaluator.addPredictor(new DGPredictor("DG", "lookahead:4"));
 			evaluator.addPredictor(new TDAGPredictor());
 			evaluator.addPredictor(new CPTPlusPredictor("CPT+",		"CCF:true CBS:true"));
+			evaluator.addPredictor(new CachedPredictor("CPT+$", new CPTPlusPredictor("CPT+", "CCF:true CBS:true")));
 			evaluator.addPredictor(new CPTPredictor());
 			evaluator.addPredictor(new MarkovFirstOrderPredictor());
 			evaluator.addPredictor(new MarkovAllKPredictor());
+			evaluator.addPredictor(new MarkovAllKPredictor("AKOM~", "memoryBudget:4000000"));
 			evaluator.addPredictor(new LZ78Predictor());
+			evaluator.addPredictor(new ALZ());
 			
 			//Start the experiment
 			StatsLogger results = evaluator.Start(Evaluator.KFOLD, 14 , true, true, true);
@@ -0,0 +1,86 @@
+package ca.ipredict.controllers;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import ca.ipredict.database.DatabaseHelper;
+import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.LatencyStats;
+import ca.ipredict.predictor.Predictor;
+import ca.ipredict.predictor.CPT.CPTPlus.CPTPlusPredictor;
+import ca.ipredict.predictor.DG.DGPredictor;
+import ca.ipredict.predictor.Markov.MarkovAllKPredictor;
+import ca.ipredict.predictor.profile.Profile;
+import ca.ipredict.predictor.profile.ProfileManager;
+
+/**
+ * This controller demonstrates how to predict a batch of sequences with all the cores
+ * (see Predictor.predictBatch()). It compares the time taken by a single thread calling
+ * Predict() for each sequence with the time taken by the batch and it outputs the
+ * latency of the predictions of the batch.
+ *
+ * Arguments: data directory and dataset name (default BMS)
+ */
+public class MakeBatchPrediction {
+
+	public static void main(String...args) {
+
+		if (args.length < 1) {
+			System.out.println("Missing required argument with data directory.");
+			System.exit(1);
+		}
+		String dataset = (args.length > 1) ? args[1] : "BMS";
+
+		//setting the experiment parameters and loading the dataset
+		ProfileManager.loadProfileByName(dataset);
+		DatabaseHelper database = new DatabaseHelper(args[0]);
+		database.loadDataset(dataset, 10000);
+		List<Sequence> sequences = database.getDatabase().getSequences();
+
+		//the first 80% of the sequences are used for training and the others to predict
+		int trainingSize = (int) (sequences.size() * 0.8);
+		List<Sequence> trainingSet = new ArrayList<Sequence>(sequences.subList(0, trainingSize));
+		List<Sequence> targets = new ArrayList<Sequence>();
+		for(Sequence sequence : sequences.subList(trainingSize, sequences.size())) {
+			if(sequence.size() > Profile.paramInt("consequentSize")) {
+				targets.add(sequence.getLastItems(Profile.paramInt("windowSize"), Profile.paramInt("consequentSize")));
+			}
+		}
+
+		//Loading predictors
+		List<Predictor> predictors = new ArrayList<Predictor>();
+		predictors.add(new CPTPlusPredictor("CPT+", "CCF:true CBS:true"));
+		predictors.add(new DGPredictor("DG", "lookahead:4"));
+		predictors.add(new MarkovAllKPredictor());
+
+		for(Predictor predictor : predictors) {
+
+			predictor.Train(trainingSet);
+
+			//one prediction at the time
+			long start = System.nanoTime();
+			List<Sequence> expected = new ArrayList<Sequence>(targets.size());
+			for(Sequence target : targets) {
+				expected.add(predictor.Predict(target));
+			}
+			long serialTime = System.nanoTime() - start;
+
+			//the whole batch at once
+			long[] latencies = new long[targets.size()];
+			start = System.nanoTime();
+			List<Sequence> predictions = predictor.predictBatch(targets, null, latencies);
+			long batchTime = System.nanoTime() - start;
+
+			//the batch has to give the same predictions in the same order
+			int mismatches = 0;
+			for(int i = 0; i < targets.size(); i++) {
+				if(expected.get(i).getItems().equals(predictions.get(i).getItems()) == false) {
+					mismatches++;
+				}
+			}
+
+			System.out.println(predictor.getTAG() + "\tserial: " + (serialTime / 1000000) + " ms\tbatch: " + (batchTime / 1000000) + " ms\t" + mismatches + " mismatches");
+			System.out.println("\t" + new LatencyStats(latencies));
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package ca.ipredict.controllers;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.function.Supplier;
+
+import ca.ipredict.database.DatabaseHelper;
+import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.LatencyStats;
+import ca.ipredict.predictor.Predictor;
+import ca.ipredict.predictor.CPT.CPT.CPTPredictor;
+import ca.ipredict.predictor.CPT.CPTPlus.CPTPlusPredictor;
+import ca.ipredict.predictor.DG.DGPredictor;
+import ca.ipredict.predictor.LZ78.LZ78Predictor;
+import ca.ipredict.predictor.Markov.MarkovAllKPredictor;
+import ca.ipredict.predictor.Markov.MarkovFirstOrderPredictor;
+import ca.ipredict.predictor.TDAG.TDAGPredictor;
+import ca.ipredict.predictor.profile.Profile;
+import ca.ipredict.predictor.profile.ProfileManager;
+
+/**
+ * This controller benchmarks the training and the predictions of every predictor
+ * on the bundled datasets, at several sizes.
+ *
+ * For each dataset, size and predictor, it measures:
+ *  - the training time and throughput (sequences per second) over MEASUREMENT_ITERATIONS trainings of a new predictor,
+ *  - the latency percentiles of single predictions (see LatencyStats) over MEASUREMENT_ITERATIONS passes on the targets,
+ *  - the bytes allocated per training and per prediction by the benchmarking thread.
+ * Each measurement is preceded by WARMUP_ITERATIONS runs that are not measured, so that the code is compiled.
+ * The first 80% of the sequences are used for training and the last items of the others are predicted.
+ *
+ * The results of a predictor depend on the ones that ran before it in the same JVM (JIT profile, heap),
+ * run a single predictor at a time to compare two versions of the code.
+ *
+ * Arguments: data directory, then optionally the datasets (default BMS,SIGN), the sizes (default 1000,5000,20000)
+ * and the predictors (default all of them), each as a comma separated list
+ */
+public class PredictorBenchmark {
+
+	private static final int WARMUP_ITERATIONS = 3;
+	private static final int MEASUREMENT_ITERATIONS = 5;
+
+	/**
+	 * Receives the predictions so that they cannot be optimized away
+	 */
+	private static volatile int sink;
+
+	public static void main(String...args) {
+
+		if (args.length < 1) {
+			System.out.println("Missing required argument with data directory.");
+			System.exit(1);
+		}
+		List<String> datasets = Arrays.asList(((args.length > 1) ? args[1] : "BMS,SIGN").split(","));
+		String[] sizes = ((args.length > 2) ? args[2] : "1000,5000,20000").split(",");
+
+		//the predictors are created for each training, so that each one starts empty
+		Map<String, Supplier<Predictor>> predictors = new LinkedHashMap<String, Supplier<Predictor>>();
+		predictors.put("CPT", () -> new CPTPredictor());
+		predictors.put("CPT+", () -> new CPTPlusPredictor("CPT+", "CCF:true CBS:true"));
+		predictors.put("DG", () -> new DGPredictor("DG", "lookahead:4"));
+		predictors.put("TDAG", () -> new TDAGPredictor());
+		predictors.put("Mark1", () -> new MarkovFirstOrderPredictor());
+		predictors.put("AKOM", () -> new MarkovAllKPredictor());
+		predictors.put("LZ78", () -> new LZ78Predictor());
+		if(args.length > 3) {
+			predictors.keySet().retainAll(Arrays.asList(args[3].split(",")));
+		}
+
+		for(String dataset : datasets) {
+			int previousSize = -1;
+			for(String size : sizes) {
+
+				//setting the experiment parameters and loading the dataset
+				ProfileManager.loadProfileByName(dataset);
+				DatabaseHelper database = new DatabaseHelper(args[0]);
+				database.loadDataset(dataset, Integer.parseInt(size));
+				List<Sequence> sequences = database.getDatabase().getSequences();
+
+				//the dataset is smaller than the requested size and it has already been benchmarked whole
+				if(sequences.size() == previousSize) {
+					continue;
+				}
+				previousSize = sequences.size();
+
+				int trainingSize = (int) (sequences.size() * 0.8);
+				List<Sequence> trainingSet = new ArrayList<Sequence>(sequences.subList(0, trainingSize));
+				List<Sequence> targets = new ArrayList<Sequence>();
+				for(Sequence sequence : sequences.subList(trainingSize, sequences.size())) {
+					if(sequence.size() > Profile.paramInt("consequentSize")) {
+						targets.add(sequence.getLastItems(Profile.paramInt("windowSize"), Profile.paramInt("consequentSize")));
+					}
+				}
+
+				System.out.println(dataset + ": " + sequences.size() + " sequences, " + trainingSet.size() + " for training and " + targets.size() + " targets");
+				for(Entry<String, Supplier<Predictor>> predictor : predictors.entrySet()) {
+					benchmark(predictor.getKey(), predictor.getValue(), trainingSet, targets);
+				}
+				System.out.println();
+			}
+		}
+	}
+
+	/**
+	 * Benchmark the training and the predictions of a predictor
+	 */
+	private static void benchmark(String name, Supplier<Predictor> factory, List<Sequence> trainingSet, List<Sequence> targets) {
+
+		DecimalFormat format = new DecimalFormat("0.0");
+
+		//Training
+		Predictor predictor = null;
+		long[] trainingTimes = new long[MEASUREMENT_ITERATIONS];
+		long trainingBytes = 0;
+		for(int i = -WARMUP_ITERATIONS; i < MEASUREMENT_ITERATIONS; i++) {
+			predictor = factory.get();
+			long bytes = allocatedBytes();
+			long start = System.nanoTime();
+			predictor.Train(trainingSet);
+			long time = System.nanoTime() - start;
+			if(i >= 0) {
+				trainingTimes[i] = time;
+				trainingBytes += allocatedBytes() - bytes;
+			}
+		}
+		double meanTime = mean(trainingTimes);
+		double throughput = trainingSet.size() / (meanTime / 1e9);
+		System.out.println(name + "\ttrain: " + format.format(meanTime / 1e6) + " ms (sd " + format.format(standardDeviation(trainingTimes, meanTime) / 1e6)
+				+ "), " + format.format(throughput) + " sequences/s, " + format.format(trainingBytes / (double) MEASUREMENT_ITERATIONS / (1 << 20)) + " MB allocated per training");
+
+		//Predictions, with the last trained model
+		long[] latencies = new long[targets.size() * MEASUREMENT_ITERATIONS];
+		long predictionBytes = 0;
+		for(int i = -WARMUP_ITERATIONS; i < MEASUREMENT_ITERATIONS; i++) {
+			long bytes = allocatedBytes();
+			for(int j = 0; j < targets.size(); j++) {
+				long start = System.nanoTime();
+				Sequence prediction = predictor.Predict(targets.get(j));
+				long latency = System.nanoTime() - start;
+				sink += prediction.size();
+				if(i >= 0) {
+					latencies[i * targets.size() + j] = latency;
+				}
+			}
+			if(i >= 0) {
+				predictionBytes += allocatedBytes() - bytes;
+			}
+		}
+		System.out.println("\tpredict: " + new LatencyStats(latencies) + ", " + format.format(predictionBytes / (double) Math.max(latencies.length, 1)) + " bytes allocated per prediction");
+	}
+
+	/**
+	 * Number of bytes allocated by the current thread since it started, or 0 if the JVM cannot measure it
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if(threads instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) threads).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return 0;
+	}
+
+	private static double mean(long[] values) {
+		double total = 0;
+		for(long value : values) {
+			total += value;
+		}
+		return total / values.length;
+	}
+
+	private static double standardDeviation(long[] values, double mean) {
+		double total = 0;
+		for(long value : values) {
+			total += (value - mean) * (value - mean);
+		}
+		return Math.sqrt(total / values.length);
+	}
+}
@@ -0,0 +1,55 @@
+package ca.ipredict.controllers;
+
+import ca.ipredict.helpers.RoaringBitmap;
+
+/**
+ * This controller checks RoaringBitmap.intersects() against and() for each pair of container types
+ * (array, bitmap and run), with containers whose last value is 65535.
+ * It prints the pairs that disagree and exits with 1 if there is any.
+ */
+public class RoaringBitmapCheck {
+
+	public static void main(String...args) {
+
+		RoaringBitmap[] bitmaps = new RoaringBitmap[6];
+		for(int b = 0; b < bitmaps.length; b++) {
+			bitmaps[b] = new RoaringBitmap();
+		}
+
+		//array containers
+		bitmaps[0].add(65535);
+		bitmaps[1].add(3);
+		bitmaps[1].add(65534);
+
+		//bitmap containers, with the odd and the even values
+		for(int x = 0; x < 65536; x += 2) {
+			bitmaps[2].add(x + 1);
+			bitmaps[3].add(x);
+		}
+
+		//run containers
+		for(int x = 60000; x < 65536; x++) {
+			bitmaps[4].add(x);
+		}
+		bitmaps[4].runOptimize();
+		bitmaps[5].add(65534);
+		bitmaps[5].runOptimize();
+
+		int errors = 0;
+		RoaringBitmap intersection = new RoaringBitmap();
+		for(RoaringBitmap a : bitmaps) {
+			for(RoaringBitmap b : bitmaps) {
+				intersection.and(a, b);
+				if(a.intersects(b) == intersection.isEmpty()) {
+					System.out.println("intersects() failed for " + a.cardinality() + " and " + b.cardinality() + " values");
+					errors++;
+				}
+			}
+		}
+		System.out.println(errors + " errors");
+
+		if(errors > 0) {
+			System.exit(1);
+		}
+	}
+}
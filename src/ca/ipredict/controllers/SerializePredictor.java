@@ -1,20 +1,21 @@
 package ca.ipredict.controllers;
 
-import java.io.FileInputStream;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
+import ca.ipredict.predictor.ModelSnapshot;
 import ca.ipredict.predictor.Predictor;
 import ca.ipredict.predictor.DG.DGPredictor;
 import ca.ipredict.predictor.Markov.MarkovAllKPredictor;
 import ca.ipredict.predictor.profile.DefaultProfile;
 
+/**
+ * This controller demonstrates how to save a trained model to disk and load it back
+ * with the binary snapshot format (see ModelSnapshot)
+ */
 public class SerializePredictor {
 
 	/**
@@ -23,26 +24,18 @@ public class SerializePredictor {
 	 * @throws IOException
 	 */
 	public static void save(String filepath, Predictor model) throws IOException {
-		
-		ObjectOutputStream stream = new ObjectOutputStream(new FileOutputStream(filepath));
-		stream.writeObject(model);
-		stream.close();
+		ModelSnapshot.save(filepath, model);
 	}
 	
 	/**
-	 * Loads the model from disk
+	 * Loads the model from disk, the file is memory mapped
 	 * @return the model
 	 */
-	public static Predictor load(String filepath) throws IOException, ClassNotFoundException {
-		
-		ObjectInputStream stream = new ObjectInputStream(new FileInputStream(filepath));
-		Predictor model = (Predictor) stream.readObject();
-		stream.close();
-		
-		return model;
+	public static Predictor load(String filepath) throws IOException {
+		return ModelSnapshot.load(filepath);
 	}
 	
-	public static void main(String...args) throws IOException, ClassNotFoundException {
+	public static void main(String...args) throws IOException {
 		
 
 		//initializing the CPT Plus predictor 
@@ -63,7 +56,7 @@ public class SerializePredictor {
 		akom.Train(trainingSet);
 		
 		//save the model to disk
-		save("/home/ted/akom.ser", akom);
+		save("/home/ted/akom.model", akom);
 		
 		//for testing purposes
 		//at this point the model is saved on disk and can be reloaded from
@@ -71,7 +64,7 @@ public class SerializePredictor {
 		akom = null;
 		
 		//load the model from disk
-		akom = (MarkovAllKPredictor) load("/home/ted/akom.ser");
+		akom = (MarkovAllKPredictor) load("/home/ted/akom.model");
 		
 		//predicting a sequence
 		Sequence predicted = akom.Predict(Sequence.fromString(5, "1 4 3 2"));
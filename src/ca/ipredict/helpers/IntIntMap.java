@@ -0,0 +1,207 @@
+package ca.ipredict.helpers;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from int keys to int values.
+ *
+ * It is used in place of a HashMap<Integer, Integer> when the boxing of
+ * the keys and values would dominate the memory usage or the allocation rate.
+ * Lookups do not allocate.
+ */
+public class IntIntMap implements Serializable {
+
+	private static final long serialVersionUID = 2541086813404255381L;
+
+	private int[] keys;
+	private int[] values;
+	private boolean[] used;
+
+	/**
+	 * Number of keys in the map
+	 */
+	private int size;
+
+	/**
+	 * capacity - 1, the capacity is always a power of two
+	 */
+	private int mask;
+
+	public IntIntMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize Number of keys the map should hold without resizing
+	 */
+	public IntIntMap(int expectedSize) {
+		int capacity = 16;
+		while(capacity * 3 < expectedSize * 4) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new int[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Spreads the bits of the key so that consecutive keys do not cluster
+	 */
+	private int slotOf(int key) {
+		int h = key * 0x9E3779B9;
+		return (h ^ (h >>> 16)) & mask;
+	}
+
+	/**
+	 * Return the slot of the given key or the free slot where it should be inserted
+	 */
+	private int find(int key) {
+		int slot = slotOf(key);
+		while(used[slot] && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Return the value associated with the key or [defaultValue] if the key is not in the map
+	 */
+	public int get(int key, int defaultValue) {
+		int slot = find(key);
+		return used[slot] ? values[slot] : defaultValue;
+	}
+
+	public boolean containsKey(int key) {
+		return used[find(key)];
+	}
+
+	/**
+	 * Associate the value to the key, replacing any previous value
+	 */
+	public void put(int key, int value) {
+		int slot = find(key);
+		if(used[slot] == false) {
+			used[slot] = true;
+			keys[slot] = key;
+			size++;
+			if(size * 4 > keys.length * 3) {
+				values[slot] = value;
+				rehash(keys.length << 1);
+				return;
+			}
+		}
+		values[slot] = value;
+	}
+
+	/**
+	 * Add [delta] to the value of the key, a missing key is considered to have a value of zero
+	 * @return the new value
+	 */
+	public int addTo(int key, int delta) {
+		int slot = find(key);
+		if(used[slot]) {
+			values[slot] += delta;
+			return values[slot];
+		}
+		put(key, delta);
+		return delta;
+	}
+
+	/**
+	 * Remove the key from the map
+	 * @return true if the key was in the map
+	 */
+	public boolean remove(int key) {
+		int slot = find(key);
+		if(used[slot] == false) {
+			return false;
+		}
+
+		//backward shift deletion, keeps the probe sequences intact without tombstones
+		int hole = slot;
+		int cur = (hole + 1) & mask;
+		while(used[cur]) {
+			int home = slotOf(keys[cur]);
+			//moving the entry in the hole if its home slot is not between the hole and its slot
+			if(((cur - home) & mask) >= ((cur - hole) & mask)) {
+				keys[hole] = keys[cur];
+				values[hole] = values[cur];
+				hole = cur;
+			}
+			cur = (cur + 1) & mask;
+		}
+		used[hole] = false;
+		size--;
+		return true;
+	}
+
+	public void clear() {
+		Arrays.fill(used, false);
+		size = 0;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of slots, used to iterate over the map with isUsed(), keyAt() and valueAt()
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	public boolean isUsed(int slot) {
+		return used[slot];
+	}
+
+	public int keyAt(int slot) {
+		return keys[slot];
+	}
+
+	public int valueAt(int slot) {
+		return values[slot];
+	}
+
+	/**
+	 * Return the keys of the map in no particular order
+	 */
+	public int[] keys() {
+		int[] result = new int[size];
+		int pos = 0;
+		for(int slot = 0; slot < keys.length; slot++) {
+			if(used[slot]) {
+				result[pos++] = keys[slot];
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Approximate size in bytes of the map (keys, values and flags)
+	 */
+	public long memoryUsage() {
+		return (long) keys.length * 9;
+	}
+
+	private void rehash(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(capacity);
+		for(int slot = 0; slot < oldKeys.length; slot++) {
+			if(oldUsed[slot]) {
+				int newSlot = find(oldKeys[slot]);
+				used[newSlot] = true;
+				keys[newSlot] = oldKeys[slot];
+				values[newSlot] = oldValues[slot];
+			}
+		}
+	}
+}
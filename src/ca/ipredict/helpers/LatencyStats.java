@@ -0,0 +1,58 @@
+package ca.ipredict.helpers;
+
+import java.text.DecimalFormat;
+import java.util.Arrays;
+
+/**
+ * Summary of the latencies of a batch of predictions (see Predictor.predictBatch())
+ * All the values are in microseconds.
+ */
+public class LatencyStats {
+
+	public final int count;
+	public final double mean;
+	public final double min;
+	public final double p50;
+	public final double p90;
+	public final double p99;
+	public final double max;
+
+	/**
+	 * @param latencies Duration of each prediction in nanoseconds, it is not modified
+	 */
+	public LatencyStats(long[] latencies) {
+		long[] sorted = latencies.clone();
+		Arrays.sort(sorted);
+
+		count = sorted.length;
+		long total = 0;
+		for(long latency : sorted) {
+			total += latency;
+		}
+		mean = (count > 0) ? (total / 1000d) / count : 0;
+		min = percentile(sorted, 0);
+		p50 = percentile(sorted, 0.50);
+		p90 = percentile(sorted, 0.90);
+		p99 = percentile(sorted, 0.99);
+		max = percentile(sorted, 1);
+	}
+
+	/**
+	 * Nearest rank percentile of sorted latencies, in microseconds
+	 */
+	private static double percentile(long[] sorted, double ratio) {
+		if(sorted.length == 0) {
+			return 0;
+		}
+		int rank = (int) Math.ceil(ratio * sorted.length) - 1;
+		rank = Math.min(Math.max(rank, 0), sorted.length - 1);
+		return sorted[rank] / 1000d;
+	}
+
+	public String toString() {
+		DecimalFormat format = new DecimalFormat("0.0");
+		return count + " predictions, latency (us): mean " + format.format(mean) + ", min " + format.format(min)
+				+ ", p50 " + format.format(p50) + ", p90 " + format.format(p90) + ", p99 " + format.format(p99)
+				+ ", max " + format.format(max);
+	}
+}
@@ -0,0 +1,121 @@
+package ca.ipredict.helpers;
+
+import java.io.Serializable;
+
+/**
+ * Open addressing hash map from long keys to int values.
+ *
+ * It is used in place of a HashMap<Long, Integer>, for example with two ints packed in each key.
+ * Lookups do not allocate.
+ */
+public class LongIntMap implements Serializable {
+
+	private static final long serialVersionUID = -2718359044619372214L;
+
+	private long[] keys;
+	private int[] values;
+	private boolean[] used;
+
+	/**
+	 * Number of keys in the map
+	 */
+	private int size;
+
+	/**
+	 * capacity - 1, the capacity is always a power of two
+	 */
+	private int mask;
+
+	public LongIntMap() {
+		this(16);
+	}
+
+	/**
+	 * @param expectedSize Number of keys the map should hold without resizing
+	 */
+	public LongIntMap(int expectedSize) {
+		int capacity = 16;
+		while(capacity * 3L < expectedSize * 4L) {
+			capacity <<= 1;
+		}
+		allocate(capacity);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		values = new int[capacity];
+		used = new boolean[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Spreads the bits of the key so that consecutive keys do not cluster
+	 */
+	private int slotOf(long key) {
+		long h = key * 0x9E3779B97F4A7C15L;
+		return (int) (h >>> 32) & mask;
+	}
+
+	/**
+	 * Return the slot of the given key or the free slot where it should be inserted
+	 */
+	private int find(long key) {
+		int slot = slotOf(key);
+		while(used[slot] && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	/**
+	 * Return the value associated with the key or [defaultValue] if the key is not in the map
+	 */
+	public int get(long key, int defaultValue) {
+		int slot = find(key);
+		return used[slot] ? values[slot] : defaultValue;
+	}
+
+	/**
+	 * Associate the value to the key, replacing any previous value
+	 */
+	public void put(long key, int value) {
+		int slot = find(key);
+		if(used[slot] == false) {
+			used[slot] = true;
+			keys[slot] = key;
+			size++;
+			if(size * 4L > keys.length * 3L) {
+				values[slot] = value;
+				rehash(keys.length << 1);
+				return;
+			}
+		}
+		values[slot] = value;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Approximate size in bytes of the map (keys, values and flags)
+	 */
+	public long memoryUsage() {
+		return (long) keys.length * 13;
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[] oldValues = values;
+		boolean[] oldUsed = used;
+		allocate(capacity);
+		for(int slot = 0; slot < oldKeys.length; slot++) {
+			if(oldUsed[slot]) {
+				int newSlot = find(oldKeys[slot]);
+				used[newSlot] = true;
+				keys[newSlot] = oldKeys[slot];
+				values[newSlot] = oldValues[slot];
+			}
+		}
+	}
+}
@@ -0,0 +1,989 @@
+package ca.ipredict.helpers;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * Compressed bitmap of non-negative integers in the style of Roaring bitmaps.
+ *
+ * The integers are partitioned by their 16 most significant bits, each partition is stored
+ * in a container chosen for its density:
+ *  - an array container (sorted values) when the partition has at most 4096 values,
+ *  - a bitmap container (65536 bits) when it has more,
+ *  - a run container (sorted intervals) after runOptimize(), when it is the smallest of the three.
+ *
+ * The in-place operations (and(), copy()) reuse the containers they release, so a bitmap
+ * used as a working buffer for intersections stops allocating once it is warmed up.
+ */
+public class RoaringBitmap {
+
+	/**
+	 * Max number of values of an array container
+	 */
+	static final int ARRAY_MAX_SIZE = 4096;
+
+	/**
+	 * 16 most significant bits of each container, sorted
+	 */
+	private char[] keys;
+	private Container[] containers;
+	private int size; //number of containers
+
+	private int cardinality;
+
+	/**
+	 * Containers released by the in-place operations, reused by the next ones
+	 */
+	private Container[] spares;
+	private int spareCount;
+
+	public RoaringBitmap() {
+		keys = new char[4];
+		containers = new Container[4];
+		spares = new Container[4];
+		size = 0;
+		cardinality = 0;
+		spareCount = 0;
+	}
+
+	/**
+	 * Set the bit of the given value
+	 */
+	public void add(int x) {
+		char key = (char) (x >>> 16);
+		char low = (char) x;
+
+		//fast path for values added in increasing order
+		int i = (size > 0 && keys[size - 1] == key) ? size - 1 : indexOf(key);
+		if(i < 0) {
+			i = -i - 1;
+			insertContainer(i, key, new ArrayContainer(4));
+		}
+
+		Container container = containers[i];
+		int before = container.cardinality();
+		containers[i] = container.add(low);
+		cardinality += containers[i].cardinality() - before;
+	}
+
+	/**
+	 * Clear the bit of the given value
+	 */
+	public void remove(int x) {
+		int i = indexOf((char) (x >>> 16));
+		if(i < 0) {
+			return;
+		}
+
+		Container container = containers[i];
+		int before = container.cardinality();
+		containers[i] = container.remove((char) x);
+		cardinality += containers[i].cardinality() - before;
+
+		if(containers[i].cardinality() == 0) {
+			removeContainer(i);
+		}
+	}
+
+	public boolean contains(int x) {
+		int i = indexOf((char) (x >>> 16));
+		return i >= 0 && containers[i].contains((char) x);
+	}
+
+	public int cardinality() {
+		return cardinality;
+	}
+
+	public boolean isEmpty() {
+		return cardinality == 0;
+	}
+
+	/**
+	 * Return the first value that is greater or equal to [from], or -1 if there is none
+	 */
+	public int nextSetBit(int from) {
+		if(from < 0) {
+			from = 0;
+		}
+
+		int i = indexOf((char) (from >>> 16));
+		if(i >= 0) {
+			int low = containers[i].next(from & 0xFFFF);
+			if(low >= 0) {
+				return (keys[i] << 16) | low;
+			}
+			i++;
+		}
+		else {
+			i = -i - 1;
+		}
+
+		//first value of the next non-empty container
+		for(; i < size; i++) {
+			int low = containers[i].next(0);
+			if(low >= 0) {
+				return (keys[i] << 16) | low;
+			}
+		}
+
+		return -1;
+	}
+
+	/**
+	 * Keep only the values that are also in [other]
+	 */
+	public void and(RoaringBitmap other) {
+
+		int kept = 0;
+		int j = 0;
+		cardinality = 0;
+		for(int i = 0; i < size; i++) {
+
+			//looking for the container with the same key in other
+			while(j < other.size && other.keys[j] < keys[i]) {
+				j++;
+			}
+
+			Container container = containers[i];
+			if(j < other.size && other.keys[j] == keys[i]) {
+				container = container.and(other.containers[j]);
+			}
+			else {
+				release(container);
+				container = null;
+			}
+
+			if(container != null && container.cardinality() > 0) {
+				keys[kept] = keys[i];
+				containers[kept] = container;
+				cardinality += container.cardinality();
+				kept++;
+			}
+			else if(container != null) {
+				release(container);
+			}
+		}
+
+		Arrays.fill(containers, kept, size, null);
+		size = kept;
+	}
+
+	/**
+	 * Return true if this bitmap and [other] have a common value, without building their intersection
+	 */
+	public boolean intersects(RoaringBitmap other) {
+
+		int j = 0;
+		for(int i = 0; i < size; i++) {
+
+			while(j < other.size && other.keys[j] < keys[i]) {
+				j++;
+			}
+			if(j == other.size) {
+				return false;
+			}
+			if(other.keys[j] != keys[i]) {
+				continue;
+			}
+
+			if(containers[i].intersects(other.containers[j])) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Replace the content of this bitmap by the values that are both in [a] and [b]
+	 * Only the containers of [a] that have a match in [b] are copied.
+	 */
+	public void and(RoaringBitmap a, RoaringBitmap b) {
+
+		clear();
+
+		int j = 0;
+		for(int i = 0; i < a.size; i++) {
+
+			while(j < b.size && b.keys[j] < a.keys[i]) {
+				j++;
+			}
+			if(j == b.size) {
+				break;
+			}
+			if(b.keys[j] != a.keys[i]) {
+				continue;
+			}
+
+			Container container = a.containers[i].copyInto(spareFor(a.containers[i]));
+			container = container.and(b.containers[j]);
+			if(container.cardinality() > 0) {
+				appendContainer(a.keys[i], container);
+				cardinality += container.cardinality();
+			}
+			else {
+				release(container);
+			}
+		}
+	}
+
+	/**
+	 * Replace the content of this bitmap by the content of [other]
+	 */
+	public void copy(RoaringBitmap other) {
+
+		clear();
+
+		for(int i = 0; i < other.size; i++) {
+			Container container = other.containers[i].copyInto(spareFor(other.containers[i]));
+			appendContainer(other.keys[i], container);
+		}
+		cardinality = other.cardinality;
+	}
+
+	/**
+	 * Remove all the values, the containers are kept for reuse
+	 */
+	public void clear() {
+		for(int i = 0; i < size; i++) {
+			release(containers[i]);
+			containers[i] = null;
+		}
+		size = 0;
+		cardinality = 0;
+	}
+
+	/**
+	 * Convert the containers to run containers when it makes them smaller
+	 * To be called once a bitmap is done being built.
+	 */
+	public void runOptimize() {
+		for(int i = 0; i < size; i++) {
+			containers[i] = containers[i].runOptimize();
+		}
+	}
+
+	/**
+	 * Size in bytes of the bitmap: 2 bytes per key plus the size of each container
+	 */
+	public long memoryUsage() {
+		long bytes = 2L * size;
+		for(int i = 0; i < size; i++) {
+			bytes += containers[i].memoryUsage();
+		}
+		return bytes;
+	}
+
+	/**
+	 * Write the containers in a model snapshot, each one keeps its type (see ModelSnapshot)
+	 */
+	public void write(SnapshotWriter out) throws IOException {
+		out.writeChars(keys, size);
+		for(int i = 0; i < size; i++) {
+			if(containers[i] instanceof ArrayContainer) {
+				ArrayContainer container = (ArrayContainer) containers[i];
+				out.writeInt(0);
+				out.writeChars(container.content, container.cardinality);
+			}
+			else if(containers[i] instanceof BitmapContainer) {
+				out.writeInt(1);
+				out.writeLongs(((BitmapContainer) containers[i]).words, 1024);
+			}
+			else {
+				RunContainer container = (RunContainer) containers[i];
+				out.writeInt(2);
+				out.writeChars(container.runs, 2 * container.runCount);
+			}
+		}
+	}
+
+	/**
+	 * Read a bitmap written by write()
+	 */
+	public static RoaringBitmap read(SnapshotReader in) throws IOException {
+		RoaringBitmap bitmap = new RoaringBitmap();
+		char[] keys = in.readChars();
+		for(char key : keys) {
+			Container container;
+			int type = in.readInt();
+			if(type == 0) {
+				char[] content = in.readChars();
+				ArrayContainer array = new ArrayContainer(Math.max(content.length, 4));
+				System.arraycopy(content, 0, array.content, 0, content.length);
+				array.cardinality = content.length;
+				container = array;
+			}
+			else if(type == 1) {
+				BitmapContainer bits = new BitmapContainer();
+				bits.words = in.readLongs();
+				for(long word : bits.words) {
+					bits.cardinality += Long.bitCount(word);
+				}
+				container = bits;
+			}
+			else {
+				char[] runs = in.readChars();
+				RunContainer run = new RunContainer(runs.length / 2);
+				for(int i = 0; i < runs.length; i += 2) {
+					run.appendRun(runs[i], runs[i] + runs[i + 1]);
+				}
+				container = run;
+			}
+			bitmap.appendContainer(key, container);
+			bitmap.cardinality += container.cardinality();
+		}
+		return bitmap;
+	}
+
+	@Override
+	public RoaringBitmap clone() {
+		RoaringBitmap copy = new RoaringBitmap();
+		copy.copy(this);
+		return copy;
+	}
+
+	public String toString() {
+		StringBuilder output = new StringBuilder("{");
+		for(int x = nextSetBit(0); x >= 0; x = nextSetBit(x + 1)) {
+			if(output.length() > 1) {
+				output.append(", ");
+			}
+			output.append(x);
+		}
+		return output.append("}").toString();
+	}
+
+	/**
+	 * Binary search of a key
+	 * @return the index of the key or (-(insertion point) - 1)
+	 */
+	private int indexOf(char key) {
+		int low = 0;
+		int high = size - 1;
+		while(low <= high) {
+			int middle = (low + high) >>> 1;
+			if(keys[middle] < key) {
+				low = middle + 1;
+			}
+			else if(keys[middle] > key) {
+				high = middle - 1;
+			}
+			else {
+				return middle;
+			}
+		}
+		return -(low + 1);
+	}
+
+	private void insertContainer(int i, char key, Container container) {
+		if(size == keys.length) {
+			keys = Arrays.copyOf(keys, size * 2);
+			containers = Arrays.copyOf(containers, size * 2);
+		}
+		System.arraycopy(keys, i, keys, i + 1, size - i);
+		System.arraycopy(containers, i, containers, i + 1, size - i);
+		keys[i] = key;
+		containers[i] = container;
+		size++;
+	}
+
+	private void appendContainer(char key, Container container) {
+		insertContainer(size, key, container);
+	}
+
+	private void removeContainer(int i) {
+		System.arraycopy(keys, i + 1, keys, i, size - i - 1);
+		System.arraycopy(containers, i + 1, containers, i, size - i - 1);
+		containers[--size] = null;
+	}
+
+	private void release(Container container) {
+		if(container instanceof RunContainer) {
+			return; //run containers are never reused
+		}
+		if(spareCount == spares.length) {
+			spares = Arrays.copyOf(spares, spareCount * 2);
+		}
+		spares[spareCount++] = container;
+	}
+
+	/**
+	 * Take a released container that can receive a copy of [source], or null if there is none
+	 */
+	private Container spareFor(Container source) {
+		boolean bitmap = source.copyAsBitmap();
+		for(int i = spareCount - 1; i >= 0; i--) {
+			Container spare = spares[i];
+			boolean fits = bitmap ? (spare instanceof BitmapContainer)
+					: (spare instanceof ArrayContainer && ((ArrayContainer) spare).content.length >= source.cardinality());
+			if(fits) {
+				spares[i] = spares[--spareCount];
+				spares[spareCount] = null;
+				return spare;
+			}
+		}
+		return null;
+	}
+
+
+	/**
+	 * Set of 16 bits values
+	 */
+	static abstract class Container {
+
+		abstract int cardinality();
+
+		/**
+		 * @return the container holding the result, this one or a converted one
+		 */
+		abstract Container add(char x);
+
+		/**
+		 * @return the container holding the result, this one or a converted one
+		 */
+		abstract Container remove(char x);
+
+		abstract boolean contains(char x);
+
+		/**
+		 * Return the first value greater or equal to [from] or -1
+		 */
+		abstract int next(int from);
+
+		/**
+		 * In-place intersection
+		 * @return the container holding the result, this one or a converted one
+		 */
+		abstract Container and(Container other);
+
+		/**
+		 * True if this container and [other] have a common value
+		 */
+		abstract boolean intersects(Container other);
+
+		/**
+		 * Copy this container in [spare] if it is not null, or in a new container.
+		 * Run containers are copied as array or bitmap containers.
+		 */
+		abstract Container copyInto(Container spare);
+
+		/**
+		 * True if copyInto() produces a bitmap container
+		 */
+		abstract boolean copyAsBitmap();
+
+		abstract long memoryUsage();
+
+		/**
+		 * Number of runs of consecutive values
+		 */
+		abstract int numberOfRuns();
+
+		Container runOptimize() {
+			int runs = numberOfRuns();
+			if(RunContainer.sizeOf(runs) < memoryUsage()) {
+				return RunContainer.fromContainer(this, runs);
+			}
+			return this;
+		}
+	}
+
+
+	/**
+	 * Sorted array of values
+	 */
+	static class ArrayContainer extends Container {
+
+		char[] content;
+		int cardinality;
+
+		ArrayContainer(int capacity) {
+			content = new char[capacity];
+			cardinality = 0;
+		}
+
+		int cardinality() {
+			return cardinality;
+		}
+
+		private int indexOf(char x) {
+			return Arrays.binarySearch(content, 0, cardinality, x);
+		}
+
+		Container add(char x) {
+			//fast path for values added in increasing order
+			if(cardinality == 0 || content[cardinality - 1] < x) {
+				if(cardinality == ARRAY_MAX_SIZE) {
+					return toBitmap().add(x);
+				}
+				if(cardinality == content.length) {
+					content = Arrays.copyOf(content, Math.min(ARRAY_MAX_SIZE, cardinality * 2));
+				}
+				content[cardinality++] = x;
+				return this;
+			}
+
+			int i = indexOf(x);
+			if(i >= 0) {
+				return this;
+			}
+			if(cardinality == ARRAY_MAX_SIZE) {
+				return toBitmap().add(x);
+			}
+			i = -i - 1;
+			if(cardinality == content.length) {
+				content = Arrays.copyOf(content, Math.min(ARRAY_MAX_SIZE, cardinality * 2));
+			}
+			System.arraycopy(content, i, content, i + 1, cardinality - i);
+			content[i] = x;
+			cardinality++;
+			return this;
+		}
+
+		Container remove(char x) {
+			int i = indexOf(x);
+			if(i >= 0) {
+				System.arraycopy(content, i + 1, content, i, cardinality - i - 1);
+				cardinality--;
+			}
+			return this;
+		}
+
+		boolean contains(char x) {
+			return indexOf(x) >= 0;
+		}
+
+		int next(int from) {
+			if(cardinality == 0 || content[cardinality - 1] < from) {
+				return -1;
+			}
+			int i = Arrays.binarySearch(content, 0, cardinality, (char) from);
+			return content[(i >= 0) ? i : -i - 1];
+		}
+
+		Container and(Container other) {
+			int kept = 0;
+			if(other instanceof ArrayContainer) {
+				//merging the two sorted arrays
+				ArrayContainer array = (ArrayContainer) other;
+				int j = 0;
+				for(int i = 0; i < cardinality && j < array.cardinality; ) {
+					if(content[i] < array.content[j]) {
+						i++;
+					}
+					else if(content[i] > array.content[j]) {
+						j++;
+					}
+					else {
+						content[kept++] = content[i];
+						i++;
+						j++;
+					}
+				}
+			}
+			else {
+				for(int i = 0; i < cardinality; i++) {
+					if(other.contains(content[i])) {
+						content[kept++] = content[i];
+					}
+				}
+			}
+			cardinality = kept;
+			return this;
+		}
+
+		boolean intersects(Container other) {
+			if(other instanceof ArrayContainer) {
+				//merging the two sorted arrays up to the first common value
+				ArrayContainer array = (ArrayContainer) other;
+				int i = 0;
+				int j = 0;
+				while(i < cardinality && j < array.cardinality) {
+					if(content[i] < array.content[j]) {
+						i++;
+					}
+					else if(content[i] > array.content[j]) {
+						j++;
+					}
+					else {
+						return true;
+					}
+				}
+				return false;
+			}
+			if(other instanceof RunContainer) {
+				return other.intersects(this);
+			}
+			for(int i = 0; i < cardinality; i++) {
+				if(other.contains(content[i])) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		Container copyInto(Container spare) {
+			ArrayContainer copy = (spare != null) ? (ArrayContainer) spare : new ArrayContainer(Math.max(cardinality, 4));
+			System.arraycopy(content, 0, copy.content, 0, cardinality);
+			copy.cardinality = cardinality;
+			return copy;
+		}
+
+		boolean copyAsBitmap() {
+			return false;
+		}
+
+		long memoryUsage() {
+			return 2L * cardinality;
+		}
+
+		int numberOfRuns() {
+			int runs = 0;
+			for(int i = 0; i < cardinality; i++) {
+				if(i == 0 || content[i] != content[i - 1] + 1) {
+					runs++;
+				}
+			}
+			return runs;
+		}
+
+		BitmapContainer toBitmap() {
+			BitmapContainer bitmap = new BitmapContainer();
+			for(int i = 0; i < cardinality; i++) {
+				bitmap.add(content[i]);
+			}
+			return bitmap;
+		}
+	}
+
+
+	/**
+	 * Bitmap of 65536 bits
+	 */
+	static class BitmapContainer extends Container {
+
+		long[] words;
+		int cardinality;
+
+		BitmapContainer() {
+			words = new long[1024];
+			cardinality = 0;
+		}
+
+		int cardinality() {
+			return cardinality;
+		}
+
+		Container add(char x) {
+			long before = words[x >>> 6];
+			long after = before | (1L << x);
+			if(before != after) {
+				words[x >>> 6] = after;
+				cardinality++;
+			}
+			return this;
+		}
+
+		Container remove(char x) {
+			long before = words[x >>> 6];
+			long after = before & ~(1L << x);
+			if(before != after) {
+				words[x >>> 6] = after;
+				cardinality--;
+			}
+			//going back to an array when it is sparse enough
+			return (cardinality <= ARRAY_MAX_SIZE) ? toArray(null) : this;
+		}
+
+		boolean contains(char x) {
+			return (words[x >>> 6] & (1L << x)) != 0;
+		}
+
+		int next(int from) {
+			int w = from >>> 6;
+			long word = words[w] & (-1L << from);
+			while(true) {
+				if(word != 0) {
+					return (w << 6) + Long.numberOfTrailingZeros(word);
+				}
+				if(++w == words.length) {
+					return -1;
+				}
+				word = words[w];
+			}
+		}
+
+		Container and(Container other) {
+			if(other instanceof BitmapContainer) {
+				long[] otherWords = ((BitmapContainer) other).words;
+				cardinality = 0;
+				for(int w = 0; w < words.length; w++) {
+					words[w] &= otherWords[w];
+					cardinality += Long.bitCount(words[w]);
+				}
+			}
+			else if(other instanceof ArrayContainer) {
+				//keeping the bits of the array values, word by word
+				ArrayContainer array = (ArrayContainer) other;
+				cardinality = 0;
+				int w = 0; //next word to process
+				int i = 0;
+				while(i < array.cardinality) {
+					int target = array.content[i] >>> 6;
+
+					//clearing the words without array values
+					while(w < target) {
+						words[w++] = 0L;
+					}
+
+					long mask = 0L;
+					while(i < array.cardinality && (array.content[i] >>> 6) == target) {
+						mask |= 1L << array.content[i];
+						i++;
+					}
+					words[target] &= mask;
+					cardinality += Long.bitCount(words[target]);
+					w = target + 1;
+				}
+				while(w < words.length) {
+					words[w++] = 0L;
+				}
+			}
+			else {
+				//clearing the bits between the runs
+				RunContainer runs = (RunContainer) other;
+				int previousEnd = 0;
+				for(int r = 0; r < runs.runCount; r++) {
+					clearRange(previousEnd, runs.start(r));
+					previousEnd = runs.start(r) + runs.length(r) + 1;
+				}
+				clearRange(previousEnd, 1 << 16);
+				cardinality = 0;
+				for(long word : words) {
+					cardinality += Long.bitCount(word);
+				}
+			}
+			return this;
+		}
+
+		boolean intersects(Container other) {
+			if(other instanceof BitmapContainer) {
+				long[] otherWords = ((BitmapContainer) other).words;
+				for(int w = 0; w < words.length; w++) {
+					if((words[w] & otherWords[w]) != 0) {
+						return true;
+					}
+				}
+				return false;
+			}
+			return other.intersects(this);
+		}
+
+		/**
+		 * Clear the bits in [from, to[
+		 */
+		private void clearRange(int from, int to) {
+			for(int x = from; x < to; ) {
+				int w = x >>> 6;
+				int end = Math.min(to, (w + 1) << 6);
+				long mask = (end - x == 64) ? -1L : (((1L << (end - x)) - 1) << x);
+				words[w] &= ~mask;
+				x = end;
+			}
+		}
+
+		Container copyInto(Container spare) {
+			BitmapContainer copy = (spare != null) ? (BitmapContainer) spare : new BitmapContainer();
+			System.arraycopy(words, 0, copy.words, 0, words.length);
+			copy.cardinality = cardinality;
+			return copy;
+		}
+
+		boolean copyAsBitmap() {
+			return true;
+		}
+
+		long memoryUsage() {
+			return 8L * words.length;
+		}
+
+		int numberOfRuns() {
+			int runs = 0;
+			for(int w = 0; w < words.length; w++) {
+				long word = words[w];
+				long nextWord = (w + 1 < words.length) ? words[w + 1] : 0L;
+				//a run ends where a set bit is followed by an unset bit
+				runs += Long.bitCount(word & ~((word >>> 1) | (nextWord << 63)));
+			}
+			return runs;
+		}
+
+		ArrayContainer toArray(ArrayContainer spare) {
+			ArrayContainer array = (spare != null) ? spare : new ArrayContainer(Math.max(cardinality, 4));
+			array.cardinality = 0;
+			for(int x = next(0); x >= 0; x = (x == 0xFFFF) ? -1 : next(x + 1)) {
+				array.content[array.cardinality++] = (char) x;
+			}
+			return array;
+		}
+	}
+
+
+	/**
+	 * Sorted list of runs of consecutive values, stored as (start, length - 1) pairs
+	 */
+	static class RunContainer extends Container {
+
+		char[] runs;
+		int runCount;
+		int cardinality;
+
+		RunContainer(int runCount) {
+			runs = new char[2 * runCount];
+			this.runCount = 0;
+			cardinality = 0;
+		}
+
+		static long sizeOf(int runCount) {
+			return 2 + 4L * runCount;
+		}
+
+		static RunContainer fromContainer(Container container, int runCount) {
+			RunContainer result = new RunContainer(runCount);
+			int start = -1;
+			int previous = -2;
+			for(int x = container.next(0); x >= 0; x = (x == 0xFFFF) ? -1 : container.next(x + 1)) {
+				if(x != previous + 1) {
+					if(start >= 0) {
+						result.appendRun(start, previous);
+					}
+					start = x;
+				}
+				previous = x;
+			}
+			if(start >= 0) {
+				result.appendRun(start, previous);
+			}
+			return result;
+		}
+
+		private void appendRun(int first, int last) {
+			runs[2 * runCount] = (char) first;
+			runs[2 * runCount + 1] = (char) (last - first);
+			runCount++;
+			cardinality += last - first + 1;
+		}
+
+		int start(int r) {
+			return runs[2 * r];
+		}
+
+		int length(int r) {
+			return runs[2 * r + 1];
+		}
+
+		int cardinality() {
+			return cardinality;
+		}
+
+		/**
+		 * Index of the last run starting at or before x, -1 if there is none
+		 */
+		private int runBefore(int x) {
+			int low = 0;
+			int high = runCount - 1;
+			while(low <= high) {
+				int middle = (low + high) >>> 1;
+				if(start(middle) <= x) {
+					low = middle + 1;
+				}
+				else {
+					high = middle - 1;
+				}
+			}
+			return high;
+		}
+
+		boolean contains(char x) {
+			int r = runBefore(x);
+			return r >= 0 && x <= start(r) + length(r);
+		}
+
+		int next(int from) {
+			int r = runBefore(from);
+			if(r >= 0 && from <= start(r) + length(r)) {
+				return from;
+			}
+			return (r + 1 < runCount) ? start(r + 1) : -1;
+		}
+
+		/**
+		 * Run containers are read-only, modifying one converts it
+		 */
+		private Container toMutable() {
+			return copyInto(null);
+		}
+
+		Container add(char x) {
+			return contains(x) ? this : toMutable().add(x);
+		}
+
+		Container remove(char x) {
+			return contains(x) ? toMutable().remove(x) : this;
+		}
+
+		Container and(Container other) {
+			return toMutable().and(other);
+		}
+
+		boolean intersects(Container other) {
+			//looking for a value of the other container in each run
+			for(int r = 0; r < runCount; r++) {
+				int x = other.next(start(r));
+				if(x >= 0 && x <= start(r) + length(r)) {
+					return true;
+				}
+			}
+			return false;
+		}
+
+		Container copyInto(Container spare) {
+			if(copyAsBitmap()) {
+				BitmapContainer bitmap = (spare != null) ? (BitmapContainer) spare : new BitmapContainer();
+				Arrays.fill(bitmap.words, 0L);
+				bitmap.cardinality = 0;
+				for(int r = 0; r < runCount; r++) {
+					for(int x = start(r); x <= start(r) + length(r); x++) {
+						bitmap.words[x >>> 6] |= 1L << x;
+					}
+				}
+				bitmap.cardinality = cardinality;
+				return bitmap;
+			}
+
+			ArrayContainer array = (spare != null) ? (ArrayContainer) spare : new ArrayContainer(Math.max(cardinality, 4));
+			array.cardinality = 0;
+			for(int r = 0; r < runCount; r++) {
+				for(int x = start(r); x <= start(r) + length(r); x++) {
+					array.content[array.cardinality++] = (char) x;
+				}
+			}
+			return array;
+		}
+
+		boolean copyAsBitmap() {
+			return cardinality > ARRAY_MAX_SIZE;
+		}
+
+		long memoryUsage() {
+			return sizeOf(runCount);
+		}
+
+		int numberOfRuns() {
+			return runCount;
+		}
+
+		Container runOptimize() {
+			return this;
+		}
+	}
+}
@@ -0,0 +1,185 @@
+package ca.ipredict.helpers;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary reader of the model snapshots written by SnapshotWriter
+ *
+ * The file is memory mapped (FileChannel.map) instead of being read through a stream: the pages come from the
+ * page cache, so they are shared by all the processes loading the same model, and the arrays are copied in bulk
+ * from the mapping. Files larger than 2 GB are mapped by windows of WINDOW_SIZE bytes.
+ */
+public class SnapshotReader implements Closeable {
+
+	/**
+	 * Max size in bytes of a mapped window
+	 */
+	private static final long WINDOW_SIZE = 1L << 30;
+
+	private FileChannel channel;
+	private long fileSize;
+
+	/**
+	 * Current window and its position in the file
+	 */
+	private MappedByteBuffer buffer;
+	private long windowStart;
+
+	/**
+	 * @param filepath Snapshot to read
+	 */
+	public SnapshotReader(String filepath) throws IOException {
+		channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.READ);
+		fileSize = channel.size();
+		map(0);
+	}
+
+	public int readInt() throws IOException {
+		require(4);
+		return buffer.getInt();
+	}
+
+	public long readLong() throws IOException {
+		require(8);
+		return buffer.getLong();
+	}
+
+	public float readFloat() throws IOException {
+		require(4);
+		return buffer.getFloat();
+	}
+
+	public double readDouble() throws IOException {
+		require(8);
+		return buffer.getDouble();
+	}
+
+	public boolean readBoolean() throws IOException {
+		require(1);
+		return buffer.get() != 0;
+	}
+
+	/**
+	 * Read a string written by writeString(), it can be null
+	 */
+	public String readString() throws IOException {
+		int length = readInt();
+		if(length < 0) {
+			return null;
+		}
+		byte[] bytes = new byte[length];
+		for(int i = 0; i < length; ) {
+			require(1);
+			int count = Math.min(length - i, buffer.remaining());
+			buffer.get(bytes, i, count);
+			i += count;
+		}
+		return new String(bytes, StandardCharsets.UTF_8);
+	}
+
+	public int[] readInts() throws IOException {
+		int[] values = new int[readLength()];
+		for(int i = 0; i < values.length; ) {
+			require(4);
+			int count = Math.min(values.length - i, buffer.remaining() / 4);
+			buffer.asIntBuffer().get(values, i, count);
+			buffer.position(buffer.position() + count * 4);
+			i += count;
+		}
+		return values;
+	}
+
+	/**
+	 * Map an array written by writeInts() instead of copying it on the heap.
+	 * The values are read from the page cache through the returned buffer, which stays valid after the reader is closed.
+	 */
+	public IntBuffer mapInts() throws IOException {
+		int length = readLength();
+		long position = windowStart + buffer.position();
+		long bytes = 4L * length;
+		if(fileSize - position < bytes) {
+			throw new EOFException("Unexpected end of snapshot");
+		}
+		IntBuffer values = channel.map(FileChannel.MapMode.READ_ONLY, position, bytes).order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+		//skipping the array
+		if(buffer.remaining() >= bytes) {
+			buffer.position(buffer.position() + (int) bytes);
+		}
+		else {
+			map(position + bytes);
+		}
+		return values;
+	}
+
+	public long[] readLongs() throws IOException {
+		long[] values = new long[readLength()];
+		for(int i = 0; i < values.length; ) {
+			require(8);
+			int count = Math.min(values.length - i, buffer.remaining() / 8);
+			buffer.asLongBuffer().get(values, i, count);
+			buffer.position(buffer.position() + count * 8);
+			i += count;
+		}
+		return values;
+	}
+
+	public char[] readChars() throws IOException {
+		char[] values = new char[readLength()];
+		for(int i = 0; i < values.length; ) {
+			require(2);
+			int count = Math.min(values.length - i, buffer.remaining() / 2);
+			buffer.asCharBuffer().get(values, i, count);
+			buffer.position(buffer.position() + count * 2);
+			i += count;
+		}
+		return values;
+	}
+
+	/**
+	 * Read the length of an array, a negative one means that the file is corrupted
+	 */
+	private int readLength() throws IOException {
+		int length = readInt();
+		if(length < 0) {
+			throw new IOException("Invalid array length in snapshot: " + length);
+		}
+		return length;
+	}
+
+	/**
+	 * Map the next window if the current one has less than [bytes] bytes left
+	 */
+	private void require(int bytes) throws IOException {
+		if(buffer.remaining() < bytes) {
+			long position = windowStart + buffer.position();
+			if(fileSize - position < bytes) {
+				throw new EOFException("Unexpected end of snapshot");
+			}
+			map(position);
+		}
+	}
+
+	private void map(long position) throws IOException {
+		windowStart = position;
+		buffer = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(WINDOW_SIZE, fileSize - position));
+		buffer.order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Close the file, the mapping is released once it is garbage collected
+	 */
+	@Override
+	public void close() throws IOException {
+		channel.close();
+	}
+}
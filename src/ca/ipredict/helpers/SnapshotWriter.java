@@ -0,0 +1,159 @@
+package ca.ipredict.helpers;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.IntBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.nio.channels.FileChannel;
+
+/**
+ * Binary writer of the model snapshots (see ModelSnapshot and SnapshotReader)
+ *
+ * The values are written in little endian through a direct buffer, the arrays are prefixed by their length.
+ * The arrays are copied in bulk, so writing a model costs about the same as copying its arrays.
+ */
+public class SnapshotWriter implements Closeable {
+
+	/**
+	 * Size in bytes of the write buffer
+	 */
+	private static final int BUFFER_SIZE = 1 << 20;
+
+	private FileChannel channel;
+	private ByteBuffer buffer;
+
+	/**
+	 * @param filepath File to create or to overwrite
+	 */
+	public SnapshotWriter(String filepath) throws IOException {
+		channel = FileChannel.open(Paths.get(filepath), StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+		buffer = ByteBuffer.allocateDirect(BUFFER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	public void writeInt(int value) throws IOException {
+		reserve(4);
+		buffer.putInt(value);
+	}
+
+	public void writeLong(long value) throws IOException {
+		reserve(8);
+		buffer.putLong(value);
+	}
+
+	public void writeFloat(float value) throws IOException {
+		reserve(4);
+		buffer.putFloat(value);
+	}
+
+	public void writeDouble(double value) throws IOException {
+		reserve(8);
+		buffer.putDouble(value);
+	}
+
+	public void writeBoolean(boolean value) throws IOException {
+		reserve(1);
+		buffer.put((byte) (value ? 1 : 0));
+	}
+
+	/**
+	 * Write a string in UTF-8, null is allowed
+	 */
+	public void writeString(String value) throws IOException {
+		if(value == null) {
+			writeInt(-1);
+			return;
+		}
+		byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+		writeInt(bytes.length);
+		for(int i = 0; i < bytes.length; ) {
+			reserve(1);
+			int count = Math.min(bytes.length - i, buffer.remaining());
+			buffer.put(bytes, i, count);
+			i += count;
+		}
+	}
+
+	/**
+	 * Write the [length] first values of an array
+	 */
+	public void writeInts(int[] values, int length) throws IOException {
+		writeInt(length);
+		for(int i = 0; i < length; ) {
+			reserve(4);
+			int count = Math.min(length - i, buffer.remaining() / 4);
+			buffer.asIntBuffer().put(values, i, count);
+			buffer.position(buffer.position() + count * 4);
+			i += count;
+		}
+	}
+
+	public void writeInts(int[] values) throws IOException {
+		writeInts(values, values.length);
+	}
+
+	/**
+	 * Write all the values of a buffer, from index 0 to its limit, as an array that can be read by readInts() or mapInts()
+	 */
+	public void writeInts(IntBuffer values) throws IOException {
+		IntBuffer source = values.duplicate();
+		source.position(0);
+		writeInt(source.limit());
+		while(source.hasRemaining()) {
+			reserve(4);
+			IntBuffer chunk = source.slice();
+			chunk.limit(Math.min(chunk.remaining(), buffer.remaining() / 4));
+			buffer.asIntBuffer().put(chunk);
+			buffer.position(buffer.position() + chunk.limit() * 4);
+			source.position(source.position() + chunk.limit());
+		}
+	}
+
+	public void writeLongs(long[] values, int length) throws IOException {
+		writeInt(length);
+		for(int i = 0; i < length; ) {
+			reserve(8);
+			int count = Math.min(length - i, buffer.remaining() / 8);
+			buffer.asLongBuffer().put(values, i, count);
+			buffer.position(buffer.position() + count * 8);
+			i += count;
+		}
+	}
+
+	public void writeChars(char[] values, int length) throws IOException {
+		writeInt(length);
+		for(int i = 0; i < length; ) {
+			reserve(2);
+			int count = Math.min(length - i, buffer.remaining() / 2);
+			buffer.asCharBuffer().put(values, i, count);
+			buffer.position(buffer.position() + count * 2);
+			i += count;
+		}
+	}
+
+	/**
+	 * Flush the buffer if it has less than [bytes] bytes left
+	 */
+	private void reserve(int bytes) throws IOException {
+		if(buffer.remaining() < bytes) {
+			flush();
+		}
+	}
+
+	private void flush() throws IOException {
+		buffer.flip();
+		while(buffer.hasRemaining()) {
+			channel.write(buffer);
+		}
+		buffer.clear();
+	}
+
+	@Override
+	public void close() throws IOException {
+		flush();
+		channel.close();
+	}
+}
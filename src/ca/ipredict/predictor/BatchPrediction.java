@@ -0,0 +1,82 @@
+package ca.ipredict.predictor;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fan-out of a batch of predictions over a ForkJoinPool (see Predictor.predictBatch())
+ * The batch is split in ranges of items until a range is small enough to be predicted by a single task.
+ * Each item is predicted exactly once and its result is written at its own index, so the results keep the order of the batch.
+ */
+public class BatchPrediction extends RecursiveAction {
+
+	private static final long serialVersionUID = 2961853711024398553L;
+
+	/**
+	 * Prediction of a single item of the batch
+	 */
+	public interface Job {
+		void predict(int index);
+	}
+
+	private final Job job;
+	private final int from;
+	private final int to;
+	private final int rangeSize;
+
+	/**
+	 * Receives the duration of the prediction of each item (in nanoseconds), can be null
+	 */
+	private final long[] latencies;
+
+	private BatchPrediction(Job job, int from, int to, int rangeSize, long[] latencies) {
+		this.job = job;
+		this.from = from;
+		this.to = to;
+		this.rangeSize = rangeSize;
+		this.latencies = latencies;
+	}
+
+	/**
+	 * Predict the items [0, size[ of a batch and wait for all the predictions
+	 * @param size Number of items in the batch
+	 * @param pool Pool running the predictions, the common pool if null
+	 * @param latencies Receives the duration of each prediction in nanoseconds, null to not measure them
+	 * @param job Prediction of one item
+	 */
+	public static void run(int size, ForkJoinPool pool, long[] latencies, Job job) {
+		if(size == 0) {
+			return;
+		}
+		if(pool == null) {
+			pool = ForkJoinPool.commonPool();
+		}
+
+		//about 8 ranges per worker to balance the uneven prediction times
+		int rangeSize = Math.max(1, size / (pool.getParallelism() * 8));
+		pool.invoke(new BatchPrediction(job, 0, size, rangeSize, latencies));
+	}
+
+	@Override
+	protected void compute() {
+
+		//splitting the range in two halves
+		if(to - from > rangeSize) {
+			int middle = (from + to) >>> 1;
+			invokeAll(new BatchPrediction(job, from, middle, rangeSize, latencies),
+					new BatchPrediction(job, middle, to, rangeSize, latencies));
+			return;
+		}
+
+		for(int i = from; i < to; i++) {
+			if(latencies != null) {
+				long start = System.nanoTime();
+				job.predict(i);
+				latencies[i] = System.nanoTime() - start;
+			}
+			else {
+				job.predict(i);
+			}
+		}
+	}
+}
@@ -1,7 +1,12 @@
 package ca.ipredict.predictor.CPT.CPT;
 
+import java.io.IOException;
 import java.util.BitSet;
 
+import ca.ipredict.helpers.RoaringBitmap;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
+
 /**
  * PHIL08
  * This class encapsulate the BitSet class and make sure
@@ -10,10 +15,14 @@ import java.util.BitSet;
  * There are two cases:
  *  - When we do a AND operation, the cardinality is recalculated.
  *  - When we set a it  during the "preload" phase, we do cardinality ++;.
+ *
+ * A bit vector can also be backed by a compressed RoaringBitmap instead of a BitSet
+ * (see the "compressedII" parameter). Bit vectors used together must use the same backing.
  */
 public class Bitvector {
 
 	BitSet bitset = new BitSet(); // the bitset
+	RoaringBitmap compressed; // the compressed bitmap, used instead of the bitset when not null
 	int cardinality;  // the cardinality
 
 	/**
@@ -24,6 +33,17 @@ public class Bitvector {
 		cardinality = 0;
 	}
 	
+	/**
+	 * @param compressed true to back this bit vector with a compressed bitmap
+	 */
+	Bitvector(boolean compressed) {
+		this();
+		if(compressed) {
+			this.bitset = null;
+			this.compressed = new RoaringBitmap();
+		}
+	}
+	
 	/**
 	 * Private constructor used by the clone() method.
 	 * @param bitset  a bitset to be cloned
@@ -39,7 +59,36 @@ public class Bitvector {
 	 * @param bitvector2 another bit vector
 	 */ 
 	public void and(Bitvector bitvector2) {
-		bitset.and(bitvector2.bitset);
+		if(compressed != null) {
+			compressed.and(bitvector2.compressed);
+		}
+		else {
+			bitset.and(bitvector2.bitset);
+		}
+		cardinality = -1;
+	}
+
+	/**
+	 * Replace the content of this bit vector by the AND of two other bit vectors
+	 * without cloning either of them. Works best when [bitvector1] is the smallest.
+	 */
+	public void and(Bitvector bitvector1, Bitvector bitvector2) {
+		if(bitvector1.compressed != null) {
+			if(compressed == null) {
+				compressed = new RoaringBitmap();
+				bitset = null;
+			}
+			compressed.and(bitvector1.compressed, bitvector2.compressed);
+		}
+		else {
+			if(bitset == null) {
+				bitset = new BitSet();
+				compressed = null;
+			}
+			bitset.clear();
+			bitset.or(bitvector1.bitset);
+			bitset.and(bitvector2.bitset);
+		}
 		cardinality = -1;
 	}
 
@@ -49,38 +98,101 @@ public class Bitvector {
 	 */
 	protected Object clone(){
 		try {
-			 return new Bitvector((BitSet)bitset.clone(), cardinality);
+			if(compressed != null) {
+				Bitvector copy = new Bitvector(true);
+				copy.compressed = compressed.clone();
+				copy.cardinality = cardinality;
+				return copy;
+			}
+			return new Bitvector((BitSet)bitset.clone(), cardinality);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		return null;
 	}
 	
+	/**
+	 * Number of bits of storage used by this bit vector, as BitSet.size()
+	 */
 	public int size() {
-		return bitset.size();
+		return (int) (memoryUsage() * 8);
 	}
 
 	public int nextSetBit(int i) {
-		return bitset.nextSetBit(i);
+		return (compressed != null) ? compressed.nextSetBit(i) : bitset.nextSetBit(i);
 	}
 
 	public int cardinality() {
 		// if the cardinality is unknown because of the AND operation
 		if(cardinality == -1){
 			// we recalculate it
-			cardinality = bitset.cardinality();
+			cardinality = (compressed != null) ? compressed.cardinality() : bitset.cardinality();
 		}
 		return cardinality;
 	}
 
 	// set a bit to 1 and increment the cardinality by 1
 	public void setBitAndIncrementCardinality(int i) {
-		bitset.set(i);
+		if(compressed != null) {
+			compressed.add(i);
+		}
+		else {
+			bitset.set(i);
+		}
 		cardinality++;
 	}
 	
+	/**
+	 * Compress the runs of consecutive bits, to be called once the bit vector is built
+	 */
+	public void optimize() {
+		if(compressed != null) {
+			compressed.runOptimize();
+		}
+	}
+	
+	/**
+	 * Write this bit vector in a model snapshot (see ModelSnapshot)
+	 */
+	public void write(SnapshotWriter out) throws IOException {
+		out.writeBoolean(compressed != null);
+		out.writeInt(cardinality);
+		if(compressed != null) {
+			compressed.write(out);
+		}
+		else {
+			//the capacity is kept since it is part of memoryUsage()
+			long[] words = bitset.toLongArray();
+			out.writeInt(bitset.size());
+			out.writeLongs(words, words.length);
+		}
+	}
+	
+	/**
+	 * Read a bit vector written by write()
+	 */
+	public static Bitvector read(SnapshotReader in) throws IOException {
+		Bitvector bitvector = new Bitvector(in.readBoolean());
+		bitvector.cardinality = in.readInt();
+		if(bitvector.compressed != null) {
+			bitvector.compressed = RoaringBitmap.read(in);
+		}
+		else {
+			bitvector.bitset = new BitSet(in.readInt());
+			bitvector.bitset.or(BitSet.valueOf(in.readLongs()));
+		}
+		return bitvector;
+	}
+	
+	/**
+	 * Size in bytes of the storage used by this bit vector
+	 */
+	public long memoryUsage() {
+		return (compressed != null) ? compressed.memoryUsage() : bitset.size() / 8;
+	}
+	
 	// FOR DEBUGGING
 	public String toString(){
-		return  bitset.toString() +  " cardinality : " + cardinality;
+		return  ((compressed != null) ? compressed.toString() : bitset.toString()) +  " cardinality : " + cardinality;
 	}
 }
\ No newline at end of file
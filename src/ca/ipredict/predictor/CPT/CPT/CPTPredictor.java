@@ -1,9 +1,11 @@
 package ca.ipredict.predictor.CPT.CPT;
 
-
+import java.io.IOException;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.IdentityHashMap;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
@@ -13,6 +15,8 @@ import java.util.Set;
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
 import ca.ipredict.helpers.MemoryLogger;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
 import ca.ipredict.predictor.Paramable;
 import ca.ipredict.predictor.Predictor;
 
@@ -32,6 +36,17 @@ public class CPTPredictor extends Predictor {
 	
 	public Paramable parameters;
 	
+	/**
+	 * Flag for the compressed Inverted Index (default value)
+	 */
+	private boolean compressedII = false;
+	
+	/**
+	 * Parameters of the predictions, read at the end of the training
+	 */
+	private int recursiveDividerMin;
+	private int recursiveDividerMax;
+	
 	public CPTPredictor() {
 		nodeNumber = 0;
 		Root = new PredictionTree();
@@ -52,33 +67,43 @@ public class CPTPredictor extends Predictor {
 	
 	/**
 	 * Finds all branches that contains this sequences
+	 * The bitsets are intersected from the smallest to the largest, without cloning any of them.
 	 * @param targetArray sequence to find in the tree.
-	 * @return List of sequence id ( can be transformed into leafs ) as a bitset
+	 * @return List of sequence id ( can be transformed into leafs ) as a bitset, 
+	 * it can be an entry of the inverted index so it must not be modified
 	 */
 	private Bitvector getMatchingSequences(Item[] targetArray) {
 		//find all sequences that have all the target's items
-		//for each item in the target sequence
-		Bitvector intersection = null;
+		//for each item in the target sequence, finding the two smallest bitsets
+		Bitvector smallest = null;
+		Bitvector second = null;
+		for(Item item : targetArray) {
+			Bitvector bitset = II.get(item.val);
+			if(bitset == null) {
+				continue;
+			}
+			if(smallest == null || bitset.cardinality() < smallest.cardinality()) {
+				second = smallest;
+				smallest = bitset;
+			}
+			else if(second == null || bitset.cardinality() < second.cardinality()) {
+				second = bitset;
+			}
+		}
 		
 		//if there is only one item in target,then no intersection needed
-		if(targetArray.length == 1){
-			intersection = II.get(targetArray[0].val);
-		}
+		Bitvector intersection = smallest;
+		
 		//Do the intersection of all the target's items bitsets
-		else { 
-			//for each item in the target
-			for(int i = 0 ; i < targetArray.length; i++) {
-				
+		if(second != null) {
+			intersection = new Bitvector();
+			intersection.and(smallest, second);
+			
+			//for each other item in the target, until the intersection is empty
+			for(int i = 0 ; i < targetArray.length && intersection.cardinality() > 0; i++) {
 				Bitvector bitset = II.get(targetArray[i].val);
-				if(bitset != null){
-					//if it's the first item, then no intersection needed
-					if(intersection == null){
-						intersection = (Bitvector) bitset.clone();
-					}
-					//the actual intersection
-					else {
-						intersection.and(bitset);
-					}
+				if(bitset != null && bitset != smallest && bitset != second) {
+					intersection.and(bitset);
 				}
 			}
 		}
@@ -254,27 +279,23 @@ public class CPTPredictor extends Predictor {
 		
 		//remove items that were never seen before from the Target sequence before LLCT try to make a prediction
 		//If set to false, those items will be still ignored later on (in updateCountTable())
-		Iterator<Item> iter = target.getItems().iterator();
-		while (iter.hasNext()) {
-			Item item = (Item) iter.next();
-			// if there is no bitset for that item (we have never seen it)
-			if(II.get(item.val) == null){
-				// then remove it from target.
-				iter.remove();  
+		//the target itself is not modified, only its array version
+		List<Item> seenItems = new ArrayList<Item>(target.size());
+		for(Item item : target.getItems()) {
+			// if there is a bitset for that item (we have seen it)
+			if(II.get(item.val) != null){
+				seenItems.add(item);
 			}
 		}
 		
 		//Convert the target sequence into an array for better performance
-		Item[] targetArray = new Item[target.size()];
-		for(int i=0; i < target.getItems().size(); i++){
-			targetArray[i] = target.get(i);
-		}
+		Item[] targetArray = seenItems.toArray(new Item[seenItems.size()]);
 		int initialTargetArraySize = targetArray.length; // save it to calculate the weight later...
 
 		Sequence prediction = new Sequence(-1);
 		int i = 0;
-		int minRecursion = parameters.paramInt("recursiveDividerMin");
-		int maxRecursion = (parameters.paramInt("recursiveDividerMax") > targetArray.length) ? targetArray.length : parameters.paramInt("recursiveDividerMax");
+		int minRecursion = recursiveDividerMin;
+		int maxRecursion = (recursiveDividerMax > targetArray.length) ? targetArray.length : recursiveDividerMax;
 		
 		for(i = minRecursion ; i < maxRecursion && prediction.size() == 0; i++) {
 			//Reset the CountTable and the hasSidVisited
@@ -353,6 +374,7 @@ public class CPTPredictor extends Predictor {
 		Root = new PredictionTree();
 		LT = new HashMap<Integer, PredictionTree>();
 		II = new HashMap<Integer, Bitvector>();
+		boolean compressed = parameters.paramBoolOrDefault("compressedII", compressedII);
 		
 		//Logging memory usage
 		MemoryLogger.addUpdate();
@@ -382,7 +404,7 @@ public class CPTPredictor extends Predictor {
 				
 				//if item is not in Inverted Index then we add it
 				if(II.containsKey(it.val) == false) {
-					Bitvector tmpBitset = new Bitvector();
+					Bitvector tmpBitset = new Bitvector(compressed);
 					II.put(it.val, tmpBitset);
 				}
 				//updating Inverted Index with seqId for this Item
@@ -417,14 +439,116 @@ public class CPTPredictor extends Predictor {
 	        if(pairs.getValue().cardinality() < minSup) {
 	        	it.remove();
 	        }
+	        else {
+	        	pairs.getValue().optimize();
+	        }
 	    }
 		
+		//the parameters used by the predictions are read once, so that predicting does not depend on the profile
+		recursiveDividerMin = parameters.paramInt("recursiveDividerMin");
+		recursiveDividerMax = parameters.paramInt("recursiveDividerMax");
+		
 		//Logging memory usage
 		MemoryLogger.addUpdate();
 		
+		modelChanged();
 		return true;
 	}
 	
+	/**
+	 * Write the trained model, the nodes of the prediction tree are written in depth first order
+	 * as three arrays (item, support and index of the parent) so that the children keep their order
+	 */
+	@Override
+	public void writeSnapshot(SnapshotWriter out) throws IOException {
+		
+		out.writeString(TAG);
+		parameters.write(out);
+		out.writeLong(nodeNumber);
+		out.writeInt(recursiveDividerMin);
+		out.writeInt(recursiveDividerMax);
+		
+		//numbering the nodes in depth first order, the root is the node 0
+		IdentityHashMap<PredictionTree, Integer> index = new IdentityHashMap<PredictionTree, Integer>();
+		List<PredictionTree> order = new ArrayList<PredictionTree>();
+		ArrayDeque<PredictionTree> stack = new ArrayDeque<PredictionTree>();
+		stack.push(Root);
+		while(stack.isEmpty() == false) {
+			PredictionTree node = stack.pop();
+			index.put(node, order.size());
+			order.add(node);
+			for(int i = node.getChildrenCount() - 1; i >= 0; i--) {
+				stack.push(node.getChildren().get(i));
+			}
+		}
+		
+		int[] items = new int[order.size()];
+		int[] supports = new int[order.size()];
+		int[] parents = new int[order.size()];
+		for(int i = 0; i < order.size(); i++) {
+			PredictionTree node = order.get(i);
+			items[i] = node.Item.val;
+			supports[i] = node.Support;
+			parents[i] = (node.Parent != null) ? index.get(node.Parent) : -1;
+		}
+		out.writeInts(items);
+		out.writeInts(supports);
+		out.writeInts(parents);
+		
+		//Lookup Table, as pairs of sequence id and node
+		int[] lookupTable = new int[LT.size() * 2];
+		int i = 0;
+		for(Entry<Integer, PredictionTree> entry : LT.entrySet()) {
+			lookupTable[i++] = entry.getKey();
+			lookupTable[i++] = index.get(entry.getValue());
+		}
+		out.writeInts(lookupTable);
+		
+		//Inverted Index
+		out.writeInt(II.size());
+		for(Entry<Integer, Bitvector> entry : II.entrySet()) {
+			out.writeInt(entry.getKey());
+			entry.getValue().write(out);
+		}
+	}
+	
+	@Override
+	public void readSnapshot(SnapshotReader in) throws IOException {
+		
+		TAG = in.readString();
+		parameters.read(in);
+		nodeNumber = in.readLong();
+		recursiveDividerMin = in.readInt();
+		recursiveDividerMax = in.readInt();
+		
+		//the parents come before their children, so each node can be added to its parent right away
+		int[] items = in.readInts();
+		int[] supports = in.readInts();
+		int[] parents = in.readInts();
+		PredictionTree[] nodes = new PredictionTree[items.length];
+		for(int i = 0; i < items.length; i++) {
+			nodes[i] = new PredictionTree(new Item(items[i]));
+			nodes[i].Support = supports[i];
+			if(parents[i] >= 0) {
+				nodes[parents[i]].addChild(nodes[i]);
+			}
+		}
+		Root = nodes[0];
+		
+		int[] lookupTable = in.readInts();
+		LT = new HashMap<Integer, PredictionTree>();
+		for(int i = 0; i < lookupTable.length; i += 2) {
+			LT.put(lookupTable[i], nodes[lookupTable[i + 1]]);
+		}
+		
+		int itemCount = in.readInt();
+		II = new HashMap<Integer, Bitvector>();
+		for(int i = 0; i < itemCount; i++) {
+			II.put(in.readInt(), Bitvector.read(in));
+		}
+		modelChanged();
+	}
+	
 	/**
 	 * Return the number of node in the prediction tree
 	 */
@@ -437,7 +561,10 @@ public class CPTPredictor extends Predictor {
 		
 		float sizePredictionTree = nodeNumber * 3 * 4; // each node uses 3 integers, one for value, one for parent link, and one on average for child
 		
-		float sizeInvertedIndex = (float) (II.size() * ( Math.ceil(LT.size() / 8) + 4));
+		float sizeInvertedIndex = II.size() * 4; //the key of each entry and the storage of its bitset
+		for(Bitvector bitset : II.values()) {
+			sizeInvertedIndex += bitset.memoryUsage();
+		}
 		
 		float sizeLookupTable = LT.size() * 2 * 4; //the key and the value of this hashmap are integer and pointer respectively (4 bytes)
 		
@@ -371,6 +371,7 @@ public class CPTPredictor_POC extends Predictor {
 		//Logging memory usage
 		MemoryLogger.addUpdate();
 		
+		modelChanged();
 		return true;
 	}
 	
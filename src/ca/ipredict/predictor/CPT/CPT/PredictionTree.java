@@ -33,6 +33,11 @@ public class PredictionTree {
 		Children.add(newChild);
 	}
 	
+	public void addChild(PredictionTree child) {
+		child.Parent = this;
+		Children.add(child);
+	}
+	
 	public Boolean hasChild(Item target) {
 		
 		for(PredictionTree child : Children) {
@@ -57,5 +62,9 @@ public class PredictionTree {
 	public int getChildrenCount() {
 		return Children.size();
 	}
+	
+	public List<PredictionTree> getChildren() {
+		return Children;
+	}
 
 }
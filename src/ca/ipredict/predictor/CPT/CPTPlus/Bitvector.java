@@ -1,19 +1,28 @@
 package ca.ipredict.predictor.CPT.CPTPlus;
 
+import java.io.IOException;
 import java.util.BitSet;
 
+import ca.ipredict.helpers.RoaringBitmap;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
+
 /**
  * PHIL08
  * This class encapsulate the BitSet class and make sure
  * that when we call cardinality, it is not calculated more than once.
- * 
+ *
  * There are two cases:
  *  - When we do a AND operation, the cardinality is recalculated.
  *  - When we set a it  during the "preload" phase, we do cardinality ++;.
+ *
+ * A bit vector can also be backed by a compressed RoaringBitmap instead of a BitSet
+ * (see the "compressedII" parameter). Bit vectors used together must use the same backing.
  */
 public class Bitvector {
 
 	BitSet bitset = new BitSet(); // the bitset
+	RoaringBitmap compressed; // the compressed bitmap, used instead of the bitset when not null
 	int cardinality;  // the cardinality
 
 	/**
@@ -23,7 +32,18 @@ public class Bitvector {
 		bitset = new BitSet();
 		cardinality = 0;
 	}
-	
+
+	/**
+	 * @param compressed true to back this bit vector with a compressed bitmap
+	 */
+	public Bitvector(boolean compressed) {
+		this();
+		if(compressed) {
+			this.bitset = null;
+			this.compressed = new RoaringBitmap();
+		}
+	}
+
 	/**
 	 * Private constructor used by the clone() method.
 	 * @param bitset  a bitset to be cloned
@@ -37,51 +57,246 @@ public class Bitvector {
 	/**
 	 * Performing the AND operation.
 	 * @param bitvector2 another bit vector
-	 */ 
+	 */
 	public void and(Bitvector bitvector2) {
-		bitset.and(bitvector2.bitset);
+		if(compressed != null) {
+			compressed.and(bitvector2.compressed);
+		}
+		else {
+			bitset.and(bitvector2.bitset);
+		}
+		cardinality = -1;
+	}
+
+	/**
+	 * Replace the content of this bit vector by the AND of two other bit vectors
+	 * without cloning either of them. Works best when [bitvector1] is the smallest.
+	 */
+	public void and(Bitvector bitvector1, Bitvector bitvector2) {
+		if(bitvector1.compressed != null) {
+			useCompressed();
+			compressed.and(bitvector1.compressed, bitvector2.compressed);
+		}
+		else {
+			useBitSet();
+			bitset.clear();
+			bitset.or(bitvector1.bitset);
+			bitset.and(bitvector2.bitset);
+		}
+		cardinality = -1;
+	}
+
+	/**
+	 * Return true if this bit vector and another one have a common bit, without building their AND
+	 */
+	public boolean intersects(Bitvector bitvector2) {
+		if(compressed != null) {
+			return compressed.intersects(bitvector2.compressed);
+		}
+		return bitset.intersects(bitvector2.bitset);
+	}
+
+	/**
+	 * Performing the OR operation.
+	 * @param bitvector2 another bit vector
+	 */
+	public void or(Bitvector bitvector2) {
+		if(compressed != null) {
+			for(int i = bitvector2.nextSetBit(0); i >= 0; i = bitvector2.nextSetBit(i + 1)) {
+				compressed.add(i);
+			}
+		}
+		else {
+			bitset.or(bitvector2.bitset);
+		}
 		cardinality = -1;
 	}
 
+	/**
+	 * Replace the content of this bit vector by the content of another one.
+	 * Unlike clone(), it reuses the storage of this bit vector.
+	 * @param bitvector2 another bit vector
+	 */
+	public void copy(Bitvector bitvector2) {
+		if(bitvector2.compressed != null) {
+			useCompressed();
+			compressed.copy(bitvector2.compressed);
+		}
+		else {
+			useBitSet();
+			bitset.clear();
+			bitset.or(bitvector2.bitset);
+		}
+		cardinality = bitvector2.cardinality;
+	}
+
+	/**
+	 * Switch this bit vector to a compressed backing if needed
+	 */
+	private void useCompressed() {
+		if(compressed == null) {
+			compressed = new RoaringBitmap();
+			bitset = null;
+		}
+	}
+
+	/**
+	 * Switch this bit vector to a BitSet backing if needed
+	 */
+	private void useBitSet() {
+		if(bitset == null) {
+			bitset = new BitSet();
+			compressed = null;
+		}
+	}
+
 	/**
 	 * Clone this bit vector.
 	 * @return a BitVector
 	 */
 	public Object clone(){
 		try {
-			 return new Bitvector((BitSet)bitset.clone(), cardinality);
+			if(compressed != null) {
+				Bitvector copy = new Bitvector(true);
+				copy.copy(this);
+				return copy;
+			}
+			return new Bitvector((BitSet)bitset.clone(), cardinality);
 		} catch (Exception e) {
 			e.printStackTrace();
 		}
 		return null;
 	}
-	
+
+	/**
+	 * Number of bits of storage used by this bit vector, as BitSet.size()
+	 */
 	public int size() {
-		return bitset.size();
+		return (int) (memoryUsage() * 8);
 	}
 
 	public int nextSetBit(int i) {
-		return bitset.nextSetBit(i);
+		return (compressed != null) ? compressed.nextSetBit(i) : bitset.nextSetBit(i);
 	}
 
 	public int cardinality() {
 		// if the cardinality is unknown because of the AND operation
 		if(cardinality == -1){
 			// we recalculate it
-			cardinality = bitset.cardinality();
+			cardinality = (compressed != null) ? compressed.cardinality() : bitset.cardinality();
 		}
 		return cardinality;
 	}
 
+	/**
+	 * Set a bit, the cardinality is kept up to date when it is known (see or())
+	 */
 	public void setBit(int i) {
-		if(bitset.get(i) == false) {
+		if(compressed != null) {
+			if(compressed.contains(i) == false) {
+				compressed.add(i);
+				if(cardinality >= 0) {
+					cardinality++;
+				}
+			}
+		}
+		else if(bitset.get(i) == false) {
 			bitset.set(i);
-			cardinality++;
+			if(cardinality >= 0) {
+				cardinality++;
+			}
+		}
+	}
+
+	/**
+	 * Clear a bit, the cardinality is kept up to date when it is known
+	 */
+	public void clearBit(int i) {
+		if(compressed != null) {
+			if(compressed.contains(i)) {
+				compressed.remove(i);
+				if(cardinality >= 0) {
+					cardinality--;
+				}
+			}
+		}
+		else if(bitset.get(i)) {
+			bitset.clear(i);
+			if(cardinality >= 0) {
+				cardinality--;
+			}
 		}
 	}
-	
+
+	/**
+	 * Move each bit i to i - offset, the bits lower than offset have to be cleared.
+	 * The storage is reallocated for the remaining bits.
+	 */
+	public void shift(int offset) {
+		if(compressed != null) {
+			RoaringBitmap shifted = new RoaringBitmap();
+			for(int i = compressed.nextSetBit(offset); i >= 0; i = compressed.nextSetBit(i + 1)) {
+				shifted.add(i - offset);
+			}
+			shifted.runOptimize();
+			compressed = shifted;
+		}
+		else {
+			bitset = bitset.get(offset, Math.max(offset, bitset.length()));
+		}
+	}
+
+	/**
+	 * Compress the runs of consecutive bits, to be called once the bit vector is built
+	 */
+	public void optimize() {
+		if(compressed != null) {
+			compressed.runOptimize();
+		}
+	}
+
+	/**
+	 * Write this bit vector in a model snapshot (see ModelSnapshot)
+	 */
+	public void write(SnapshotWriter out) throws IOException {
+		out.writeBoolean(compressed != null);
+		out.writeInt(cardinality);
+		if(compressed != null) {
+			compressed.write(out);
+		}
+		else {
+			//the capacity is kept since it is part of memoryUsage()
+			long[] words = bitset.toLongArray();
+			out.writeInt(bitset.size());
+			out.writeLongs(words, words.length);
+		}
+	}
+
+	/**
+	 * Read a bit vector written by write()
+	 */
+	public static Bitvector read(SnapshotReader in) throws IOException {
+		Bitvector bitvector = new Bitvector(in.readBoolean());
+		bitvector.cardinality = in.readInt();
+		if(bitvector.compressed != null) {
+			bitvector.compressed = RoaringBitmap.read(in);
+		}
+		else {
+			bitvector.bitset = new BitSet(in.readInt());
+			bitvector.bitset.or(BitSet.valueOf(in.readLongs()));
+		}
+		return bitvector;
+	}
+
+	/**
+	 * Size in bytes of the storage used by this bit vector
+	 */
+	public long memoryUsage() {
+		return (compressed != null) ? compressed.memoryUsage() : bitset.size() / 8;
+	}
+
 	// FOR DEBUGGING
 	public String toString(){
-		return  bitset.toString() +  " cardinality : " + cardinality;
+		return  ((compressed != null) ? compressed.toString() : bitset.toString()) +  " cardinality : " + cardinality;
 	}
-}
\ No newline at end of file
+}
@@ -2,6 +2,7 @@ package ca.ipredict.predictor.CPT.CPTPlus;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 
 import ca.ipredict.database.Item;
@@ -35,13 +36,14 @@ public class CPTHelper {
 		}
 		
 		List<Item> items = new ArrayList<Item>();
-		PredictionTree curNode = predictor.LT.get(id);
+		FlatPredictionTree tree = predictor.Tree;
+		int curNode = tree.getLeaf(id);
 		
 		//Reading the whole branch from bottom to top
-		items.add(curNode.Item);
-		while(curNode.Parent != null && curNode.Parent != predictor.Root) {
-			curNode = curNode.Parent;
-			items.add(curNode.Item);
+		items.add(new Item(tree.getSymbol(curNode)));
+		while(tree.getParent(curNode) != FlatPredictionTree.NONE && tree.getParent(curNode) != FlatPredictionTree.ROOT) {
+			curNode = tree.getParent(curNode);
+			items.add(new Item(tree.getSymbol(curNode)));
 		}
 		
 		//Reversing the sequence so that the leaf item is last and 
@@ -56,6 +58,30 @@ public class CPTHelper {
 	}
 	
 	
+	/**
+	 * Primitive version of getSequenceFromId(), it uses the structures built by CPTPlusPredictor.freeze()
+	 * The decoded branch is written at the end of [buffer] as dense items.
+	 * @param id Id of the sequence to extract
+	 * @param buffer Array of exactly CPTPlusPredictor.maxBranchLength items
+	 * @return the position of the first item of the branch, the branch is in buffer[start, buffer.length[
+	 */
+	public int getSequenceFromId(int id, int[] buffer) {
+		
+		int start = buffer.length;
+		FlatPredictionTree tree = predictor.Tree;
+		
+		//Reading the whole branch from bottom to top, decoding each node
+		//from the end of the buffer so that it does not need to be reversed
+		for(int curNode = tree.getLeaf(id); curNode != FlatPredictionTree.ROOT; curNode = tree.getParent(curNode)) {
+			int[] itemset = predictor.denseDict[tree.getSymbol(curNode)];
+			start -= itemset.length;
+			System.arraycopy(itemset, 0, buffer, start, itemset.length);
+		}
+		
+		return start;
+	}
+	
+	
 	/**
 	 * Extract the common prefix, if any, between two itemset. <br/>
 	 * Eg:  <br/>
@@ -124,27 +150,107 @@ public class CPTHelper {
 	
 	/**
 	 * Return a bit vector representing the set of similar sequence of the specified sequence
+	 * The bit vectors are intersected from the smallest to the largest, without cloning any of them.
 	 * @param sequence The sequence to used to find similar sequences
-	 * @param II The inverted index containing the bit vectors
-	 * @return The similar sequences as a bit vector, where each bit indicate whether a sequence is similar or not
+	 * @return The similar sequences as a bit vector, where each bit indicate whether a sequence is similar or not.
+	 * It can be an entry of the inverted index or a cached intersection, so it must not be modified.
 	 */
 	public Bitvector getSimilarSequencesIds(Item[] sequence) {
-		if(sequence.length == 0) {
+
+		//looking for the set of items in the cache of the predictor
+		IntersectionCache cache = predictor.cache;
+		IntersectionCache.Key key = null;
+		if(cache != null && sequence.length > 1) {
+			int[] items = new int[sequence.length];
+			int length = 0;
+			for(Item item : sequence) {
+				int dense = predictor.itemIndex.get(item.val, -1);
+				if(dense >= 0) {
+					items[length++] = dense;
+				}
+			}
+			if(length > 1) {
+				key = new IntersectionCache.Key().set(items, length);
+				Bitvector ids = cache.get(key);
+				if(ids != null) {
+					return ids;
+				}
+			}
+		}
+
+		//bit vectors of the items, sorted by increasing cardinality
+		List<Bitvector> vectors = new ArrayList<Bitvector>(sequence.length);
+		for(Item item : sequence) {
+			Bitvector vector = predictor.II.get(item.val);
+			if(vector != null) {
+				vectors.add(vector);
+			}
+		}
+		if(vectors.isEmpty()) {
 			return new Bitvector();
 		}
+		if(vectors.size() == 1) {
+			return vectors.get(0);
+		}
+		Collections.sort(vectors, new Comparator<Bitvector>() {
+			public int compare(Bitvector a, Bitvector b) {
+				return Integer.compare(a.cardinality(), b.cardinality());
+			}
+		});
 
 		//for each item in the sequence; do the intersection of their bitset
-		Bitvector intersection = null;
-		for(int i = 0 ; i < sequence.length ; i++) {
-			if(intersection == null) {
+		Bitvector intersection = new Bitvector();
+		intersection.and(vectors.get(0), vectors.get(1));
+		for(int i = 2 ; i < vectors.size() && intersection.cardinality() > 0 ; i++) {
+			intersection.and(vectors.get(i));
+		}
+		
+		if(key != null) {
+			cache.put(key, intersection);
+		}
+		return intersection;
+	}
+	
+	/**
+	 * Primitive version of getSimilarSequencesIds(), it uses the structures built by CPTPlusPredictor.freeze()
+	 * The two smallest bit vectors are intersected first, then the others until the intersection is empty.
+	 * @param sequence The dense items of the sequence
+	 * @param length Number of items to use from sequence
+	 * @param intersection Bit vector reused to store the result
+	 * @return intersection, the inverted index entry of the item when there is only one item 
+	 * (it must not be modified) or null if the sequence is empty
+	 */
+	public Bitvector getSimilarSequencesIds(int[] sequence, int length, Bitvector intersection) {
+		if(length == 0) {
+			return null;
+		}
+		if(length == 1) {
+			return predictor.denseII[sequence[0]];
+		}
 
-				intersection = (Bitvector) predictor.II.get(sequence[i].val).clone();
+		//finding the two smallest bit vectors
+		int smallest = 0;
+		int second = 1;
+		if(predictor.denseII[sequence[second]].cardinality() < predictor.denseII[sequence[smallest]].cardinality()) {
+			smallest = 1;
+			second = 0;
+		}
+		for(int i = 2; i < length; i++) {
+			int cardinality = predictor.denseII[sequence[i]].cardinality();
+			if(cardinality < predictor.denseII[sequence[smallest]].cardinality()) {
+				second = smallest;
+				smallest = i;
 			}
-			else {
-				Bitvector other = predictor.II.get(sequence[i].val);
-				if(other != null) {
-					intersection.and(predictor.II.get(sequence[i].val));
-				}
+			else if(cardinality < predictor.denseII[sequence[second]].cardinality()) {
+				second = i;
+			}
+		}
+
+		//for each item in the sequence; do the intersection of their bitset
+		intersection.and(predictor.denseII[sequence[smallest]], predictor.denseII[sequence[second]]);
+		for(int i = 0 ; i < length && intersection.cardinality() > 0 ; i++) {
+			if(i != smallest && i != second) {
+				intersection.and(predictor.denseII[sequence[i]]);
 			}
 		}
 		
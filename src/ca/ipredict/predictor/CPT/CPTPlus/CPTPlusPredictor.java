@@ -1,6 +1,9 @@
 package ca.ipredict.predictor.CPT.CPTPlus;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedList;
@@ -8,10 +11,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Map.Entry;
 import java.util.Queue;
+import java.util.concurrent.ForkJoinPool;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.IntIntMap;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
+import ca.ipredict.predictor.BatchPrediction;
 import ca.ipredict.predictor.Paramable;
 import ca.ipredict.predictor.Predictor;
 
@@ -24,15 +33,20 @@ import ca.ipredict.predictor.Predictor;
 public class CPTPlusPredictor extends Predictor {
 
 	/**
-	 * Prediction Tree
+	 * Prediction Tree, only used while training (see Tree)
 	 */
 	public PredictionTree Root;
 
 	/**
-	 * Lookup Table
+	 * Lookup Table, only used while training (see Tree)
 	 */
 	public Map<Integer, PredictionTree> LT;
 	
+	/**
+	 * Array based Prediction Tree and Lookup Table, built from Root and LT at the end of Train and extended by update()
+	 */
+	public FlatPredictionTree Tree;
+	
 	/**
 	 * Inverted Index
 	 */
@@ -55,6 +69,33 @@ public class CPTPlusPredictor extends Predictor {
 	 */
 	private boolean CBS = true;
 	
+	/**
+	 * Flag for the compressed Inverted Index (default value)
+	 */
+	private boolean compressedII = false;
+	
+	/**
+	 * Number of ranges of training sequences processed in parallel (default value)
+	 */
+	private int trainShards = 1;
+	
+	/**
+	 * Maximum number of sequences in the model, the oldest ones are evicted by update() (default value, 0 to keep them all)
+	 */
+	private int slidingWindow = 0;
+	
+	/**
+	 * Budget in bytes of the cache of intersections shared by the predictions (default value, 0 to disable it).
+	 * The cache is only used with a compressed Inverted Index (see compressedII): the AND of two BitSets
+	 * costs less than a lookup in the cache.
+	 */
+	private int intersectionCache = 0;
+	
+	/**
+	 * Id of the oldest sequence that has not been evicted
+	 */
+	protected int firstSequenceId;
+	
 	
 	public Encoder encoder;
 	
@@ -64,10 +105,33 @@ public class CPTPlusPredictor extends Predictor {
 	
 	private String TAG = "CPT+";
 	
+	/**
+	 * Primitive view of the model used by predict(int[], int[]), built by freeze() at the end of Train.
+	 * Items are remapped to dense ids that are ordered like the item values.
+	 */
+	protected IntIntMap itemIndex; //item value -> dense item
+	protected int[] denseItems; //dense item -> item value
+	protected Bitvector[] denseII; //dense item -> inverted index entry
+	protected int[][] denseDict; //encoder entry -> itemset as dense items
+	protected int maxBranchLength; //length of the longest decoded branch
+	protected double minPredictionRatio;
+	protected double noiseRatio;
+	
+	/**
+	 * Buffers reused by predict(int[], int[]), one set per thread so that a trained model can be shared
+	 */
+	private ThreadLocal<PredictionScratch> scratch;
+	
+	/**
+	 * Similar sequences of the item sets already intersected, shared by all the threads (see the "intersectionCache" parameter), null when disabled
+	 */
+	protected IntersectionCache cache;
+	
 	public CPTPlusPredictor() {
 		
 		Root = new PredictionTree();
 		LT = new HashMap<Integer, PredictionTree>();
+		Tree = new FlatPredictionTree(1, 1);
 		II = new HashMap<Integer, Bitvector>();
 		nodeNumber = 0;
 		
@@ -97,92 +161,380 @@ public class CPTPlusPredictor extends Predictor {
 	@Override
 	public Boolean Train(List<Sequence> trainingSequences) {
 		
-		Root = new PredictionTree();
-		LT = new HashMap<Integer, PredictionTree>();
-		II = new HashMap<Integer, Bitvector>();
+		//only the most recent sequences are kept with a sliding window
+		int window = parameters.paramIntOrDefault("slidingWindow", slidingWindow);
+		if(window > 0 && trainingSequences.size() > window) {
+			trainingSequences = trainingSequences.subList(trainingSequences.size() - window, trainingSequences.size());
+		}
+		firstSequenceId = 0;
+		
 		encoder = new Encoder();
 		((CPTHelper) helper).setEncoded(encoder);
-		nodeNumber = 0;
 		
-		int seqId = 0;
-		PredictionTree curNode;
+		boolean compressed = parameters.paramBoolOrDefault("compressedII", compressedII);
+		int shards = Math.max(1, Math.min(parameters.paramIntOrDefault("trainShards", trainShards), trainingSequences.size()));
 
 		
 		//CCF Strategy
 		//Identifying the frequent sequential itemsets
 		//setting up the encoder for future encoding tasks
-		FIF finder = new FIFRaw();
+		FIFRaw finder = new FIFRaw();
 		if(parameters.paramBoolOrDefault("CCF", CCF)) {
-			List<List<Item>> itemsets = finder.findFrequentItemsets(trainingSequences, parameters.paramInt("CCFmin"), parameters.paramInt("CCFmax"), parameters.paramInt("CCFsup"));
+			List<List<Item>> itemsets = finder.findFrequentItemsets(trainingSequences, parameters.paramInt("CCFmin"), parameters.paramInt("CCFmax"), parameters.paramInt("CCFsup"), shards);
 			
 			//filling the encoder with the frequent itemsets
 			for(List<Item> itemset : itemsets) {
 				encoder.addEntry(itemset);
 			}
 		}
+		encoder.markFrequentItemsets();
 		
-
-		//for each training sequence
-		for(Sequence seq : trainingSequences) {
+		TrainingShard model;
+		if(shards == 1) {
+			
+			model = new TrainingShard(encoder, compressed);
+			int seqId = 0;
+			
+			//for each training sequence
+			for(Sequence seq : trainingSequences) {
+				
+				//slicing the sequence if needed
+				if(parameters.paramInt("splitMethod") > 0) {
+					seq = helper.keepLastItems(seq, parameters.paramInt("splitLength"));
+				}
+	
+				//Generating the compressed version of this sequence
+				Sequence seqCompressed = new Sequence(seq);
+				seqCompressed = encoder.encode(seqCompressed);
+				
+				model.insert(seqId, seqCompressed);
+				seqId++; //increment sequence id number
+			}
+		}
+		else {
+			model = trainShards(trainingSequences, shards, compressed);
+		}
+		
+		Root = model.Root;
+		LT = model.LT;
+		II = model.II;
+		nodeNumber = model.nodeNumber;
+		
+		flatten(compressed);
+		
+		return true;
+	}
+	
+	
+	/**
+	 * Add sequences to the trained model without training it again.
+	 * The sequences are encoded with the current encoder (CCF does not look for new frequent itemsets)
+	 * and their branches are appended to the Prediction Tree, the Lookup Table and the Inverted Index.
+	 * CBS is deferred: the new branches are not collapsed until compact() is called.
+	 * The predictions are the same as if the model was trained with all the sequences at once.
+	 * With the "slidingWindow" parameter, the oldest sequences are then evicted (see evict()).
+	 * 
+	 * Like Train(), it must not be called while other threads are predicting with this model.
+	 * @param sequences New sequences, they get the sequence ids following the ones already in the model
+	 */
+	public void update(List<Sequence> sequences) {
+		
+		//nothing to update yet
+		if(encoder == null) {
+			Train(sequences);
+			return;
+		}
+		
+		encoder.unlock();
+		boolean compressed = parameters.paramBoolOrDefault("compressedII", compressedII);
+		int dictSize = encoder.Dict.size();
+		int itemCount = II.size();
+		int firstId = Tree.sequenceCount();
+		
+		//for each new sequence
+		int seqId = firstId;
+		for(Sequence seq : sequences) {
 			
 			//slicing the sequence if needed
 			if(parameters.paramInt("splitMethod") > 0) {
 				seq = helper.keepLastItems(seq, parameters.paramInt("splitLength"));
 			}
-
+			
 			//Generating the compressed version of this sequence
-			Sequence seqCompressed = new Sequence(seq);
-			seqCompressed = encoder.encode(seqCompressed);
+			Sequence seqCompressed = encoder.encode(new Sequence(seq));
 			
 			//resetting node pointer to root node
-			curNode = Root;
-
+			int curNode = FlatPredictionTree.ROOT;
+			
 			//for each item in the compressed sequence
 			for(Item itemCompressed : seqCompressed.getItems()) {
-						
-				//decoding the current item the encoded sequence
-				List<Item> itemset = encoder.getEntry(itemCompressed.val);
 				
 				//II update
-				for(Item item : itemset) {
-				
-					//adding the item in the Inverted Index if needed
-					if(II.containsKey(item.val) == false) {
-						Bitvector tmpBitset = new Bitvector();
-						II.put(item.val, tmpBitset);
+				for(Item item : encoder.getEntry(itemCompressed.val)) {
+					Bitvector bitvector = II.get(item.val);
+					if(bitvector == null) {
+						bitvector = new Bitvector(compressed);
+						II.put(item.val, bitvector);
 					}
-	
-					//updating Inverted Index with seqId for this Item
-					II.get(item.val).setBit(seqId);
+					bitvector.setBit(seqId);
 				}
 				
-				//if this itemCompressed is not a child of the current node, we add him
+				//adding this itemCompressed as a child of the current node if needed
+				int child = Tree.getChild(curNode, itemCompressed.val);
+				if(child == FlatPredictionTree.NONE) {
+					child = Tree.addChild(curNode, itemCompressed.val);
+					nodeNumber++;
+				}
+				curNode = child;
+			}
+			
+			//adding the sequence id in the Lookup Table
+			Tree.setLeaf(seqId, curNode);
+			seqId++;
+		}
+		
+		//the dense items have to be assigned again only if there are new items or new encoder entries
+		//(an evicted item can come back with its previous encoder entry, as long as it has not been reclaimed)
+		if(encoder.Dict.size() != dictSize || II.size() != itemCount) {
+			indexItems();
+		}
+		indexBranches(firstId);
+		
+		resetPredictions();
+		encoder.lock();
+		
+		//evicting the oldest sequences out of the window
+		int window = parameters.paramIntOrDefault("slidingWindow", slidingWindow);
+		if(window > 0 && Tree.sequenceCount() - firstSequenceId > window) {
+			evict(Tree.sequenceCount() - firstSequenceId - window);
+		}
+	}
+	
+	/**
+	 * Remove the oldest sequences from the model.
+	 * Their ids are cleared from the Inverted Index, the items without any sequence are removed, and the nodes
+	 * of their branches that are not shared with another sequence are removed from the Prediction Tree.
+	 * When at least half of the sequence ids are evicted, the remaining ones are renumbered from 0
+	 * so that the bit vectors and the Lookup Table stay proportional to the number of sequences in the model,
+	 * and the encoder entries that are not used anymore are removed (see reclaimEntries()).
+	 * 
+	 * Like Train(), it must not be called while other threads are predicting with this model.
+	 * @param count Number of sequences to remove
+	 */
+	public void evict(int count) {
+		
+		if(encoder == null) {
+			return;
+		}
+		count = Math.min(count, Tree.sequenceCount() - firstSequenceId);
+		
+		boolean removedItems = false;
+		for(int i = 0; i < count; i++) {
+			int seqId = firstSequenceId++;
+			
+			//clearing the sequence id in the Inverted Index
+			for(int node = Tree.getLeaf(seqId); node != FlatPredictionTree.ROOT; node = Tree.getParent(node)) {
+				for(Item item : encoder.getEntry(Tree.getSymbol(node))) {
+					Bitvector bitvector = II.get(item.val);
+					if(bitvector != null) {
+						bitvector.clearBit(seqId);
+						if(bitvector.cardinality() == 0) {
+							II.remove(item.val);
+							removedItems = true;
+						}
+					}
+				}
+			}
+			
+			//removing the nodes of its branch that are not used anymore
+			nodeNumber -= Tree.removeBranch(seqId);
+		}
+		
+		//renumbering the remaining sequences
+		if(firstSequenceId > 0 && firstSequenceId >= Tree.sequenceCount() - firstSequenceId) {
+			for(Bitvector bitvector : II.values()) {
+				bitvector.shift(firstSequenceId);
+			}
+			Tree.shiftSequenceIds(firstSequenceId);
+			firstSequenceId = 0;
+			
+			encoder.unlock();
+			removedItems |= reclaimEntries();
+			encoder.lock();
+		}
+		
+		//the dense items have to be assigned again if some items or some encoder entries were removed
+		if(removedItems) {
+			indexItems();
+		}
+		resetPredictions();
+	}
+	
+	/**
+	 * Remove the encoder entries that are neither frequent itemsets of CCF nor used by the branch of a sequence,
+	 * and give their new id to the symbols of the Prediction Tree. The entries of the items that left the model
+	 * and of the itemsets replaced by CBS are dropped, so the encoder holds at most one entry per node
+	 * of the Prediction Tree plus the frequent itemsets.
+	 * The encoder has to be unlocked, and the dense items have to be assigned again if it returns true.
+	 * @return true if some entries were removed
+	 */
+	protected boolean reclaimEntries() {
+		
+		boolean[] used = new boolean[encoder.Dict.size()];
+		for(int seqId = firstSequenceId; seqId < Tree.sequenceCount(); seqId++) {
+			for(int node = Tree.getLeaf(seqId); node != FlatPredictionTree.ROOT; node = Tree.getParent(node)) {
+				used[Tree.getSymbol(node)] = true;
+			}
+		}
+		
+		int[] ids = encoder.retain(used);
+		if(encoder.Dict.size() == ids.length) {
+			return false;
+		}
+		Tree.remapSymbols(ids);
+		return true;
+	}
+	
+	/**
+	 * Add a single sequence to the trained model (see update())
+	 */
+	public void observe(Sequence sequence) {
+		update(Collections.singletonList(sequence));
+	}
+	
+	/**
+	 * Rebuild the Prediction Tree from its branches to apply CBS to the branches added by update(),
+	 * and remove the encoder entries that are not used anymore (see reclaimEntries()).
+	 * The sequences keep their ids and their decoded items, so the predictions do not change.
+	 * Like Train(), it must not be called while other threads are predicting with this model.
+	 */
+	public void compact() {
+		
+		if(encoder == null) {
+			return;
+		}
+		
+		encoder.unlock();
+		Root = new PredictionTree();
+		LT = new HashMap<Integer, PredictionTree>();
+		nodeNumber = 0;
+		
+		//inserting the encoded branch of each sequence again
+		List<Integer> branch = new ArrayList<Integer>();
+		for(int seqId = firstSequenceId; seqId < Tree.sequenceCount(); seqId++) {
+			
+			//the branch is read from the leaf to the root
+			branch.clear();
+			for(int node = Tree.getLeaf(seqId); node != FlatPredictionTree.ROOT; node = Tree.getParent(node)) {
+				branch.add(Tree.getSymbol(node));
+			}
+			
+			PredictionTree curNode = Root;
+			for(int i = branch.size() - 1; i >= 0; i--) {
+				Item itemCompressed = new Item(branch.get(i));
 				if(curNode.hasChild(itemCompressed) == false) {
 					curNode.addChild(itemCompressed);
 					nodeNumber++;
-					curNode = curNode.getChild(itemCompressed);
-				}
-				//if this itemCompressed is already a child of the current node
-				else {
-					curNode = curNode.getChild(itemCompressed);
 				}
+				curNode = curNode.getChild(itemCompressed);
 			}
-
-			//adding the sequence id in the Lookup Table
-			LT.put(seqId, curNode); //adding <sequence id, last node in sequence>
-			seqId++; //increment sequence id number
+			LT.put(seqId, curNode);
 		}
 		
+		flatten(parameters.paramBoolOrDefault("compressedII", compressedII));
+	}
+	
+	/**
+	 * Apply CBS to the Prediction Tree, then replace the Prediction Tree and the Lookup Table
+	 * by their array based version, remove the unused encoder entries and freeze the model
+	 */
+	protected void flatten(boolean compressed) {
 
 		//Patch collapsing for added compression
 		if(parameters.paramBoolOrDefault("CBS", CBS)) {
 			pathCollapse();
 		}
 		
-		return true;
+		//Compressing the runs of sequence ids in the Inverted Index
+		if(compressed) {
+			for(Bitvector bitvector : II.values()) {
+				bitvector.optimize();
+			}
+		}
+		
+		//Replacing the Prediction Tree and the Lookup Table by their array based version
+		Tree = FlatPredictionTree.fromTree(Root, LT);
+		Root = null;
+		LT = null;
+		
+		reclaimEntries();
+		freeze();
 	}
 	
 	
+	/**
+	 * Build the Prediction Tree, the Lookup Table and the Inverted Index from [shards] ranges of 
+	 * training sequences in parallel. The model is identical to the one built from a single shard.
+	 * 
+	 * The sequences are split in itemsets in parallel, then they are encoded in order because the encoder gives 
+	 * an id to the unknown items in their order of appearance. Each shard inserts its range of sequences and the shards 
+	 * are merged in order.
+	 */
+	protected TrainingShard trainShards(List<Sequence> trainingSequences, int shards, boolean compressed) {
+		
+		int size = trainingSequences.size();
+		List<List<List<Item>>> splits = new ArrayList<List<List<Item>>>(Collections.nCopies(size, (List<List<Item>>) null));
+		List<Sequence> encoded = new ArrayList<Sequence>(Collections.nCopies(size, (Sequence) null));
+		
+		//splitting the sequences in itemsets
+		IntStream.range(0, shards).parallel().forEach(shard -> {
+			for(int seqId = shard * size / shards; seqId < (shard + 1) * size / shards; seqId++) {
+				
+				//slicing the sequence if needed
+				Sequence seq = trainingSequences.get(seqId);
+				if(parameters.paramInt("splitMethod") > 0) {
+					seq = helper.keepLastItems(seq, parameters.paramInt("splitLength"));
+				}
+				splits.set(seqId, encoder.split(seq));
+			}
+		});
+		
+		//encoding the sequences in order
+		for(int seqId = 0; seqId < size; seqId++) {
+			Sequence seq = trainingSequences.get(seqId);
+			encoded.set(seqId, encoder.encode(seq.getId(), splits.get(seqId)));
+			splits.set(seqId, null);
+		}
+		
+		//building the shards
+		List<TrainingShard> models = new ArrayList<TrainingShard>();
+		for(int shard = 0; shard < shards; shard++) {
+			models.add(new TrainingShard(encoder, compressed));
+		}
+		IntStream.range(0, shards).parallel().forEach(shard -> {
+			for(int seqId = shard * size / shards; seqId < (shard + 1) * size / shards; seqId++) {
+				models.get(shard).insert(seqId, encoded.get(seqId));
+			}
+		});
+		
+		//merging the shards in order
+		TrainingShard model = models.get(0);
+		for(int shard = 1; shard < shards; shard++) {
+			model.merge(models.get(shard), shard * size / shards, (shard + 1) * size / shards);
+		}
+		
+		return model;
+	}
+	
+	
+	/**
+	 * The unseen items are ignored by the predictions
+	 */
+	@Override
+	public Sequence normalize(Sequence target) {
+		return (encoder == null) ? target : helper.removeUnseenItems(target);
+	}
+	
 	@Override
 	public Sequence Predict(Sequence target) {
 		
@@ -200,6 +552,230 @@ public class CPTPlusPredictor extends Predictor {
 	}
 	
 	
+	/**
+	 * Predict the next items of a context given as item values.
+	 * This is the primitive version of Predict(): it gives the same prediction but it works on int arrays
+	 * and on buffers reused from one call to the next, so it barely allocates once warmed up.
+	 * @param context Items of the sequence to predict, unseen items are ignored
+	 * @param topK Maximum number of items to predict
+	 * @return The predicted items from the most to the least likely, empty if there is no prediction
+	 */
+	public int[] predict(int[] context, int topK) {
+		int[] out = new int[topK];
+		int count = predict(context, out);
+		return (count == topK) ? out : Arrays.copyOf(out, count);
+	}
+	
+	/**
+	 * Primitive version of predictBatch(), the predictions are spread over a ForkJoinPool
+	 * @param contexts Items of each sequence to predict, unseen items are ignored
+	 * @param topK Maximum number of items to predict per sequence
+	 * @param pool Pool running the predictions, the common pool if null
+	 * @param latencies Receives the duration of each prediction in nanoseconds (see LatencyStats), null to not measure them
+	 * @return The predicted items of each context (see predict(int[], int)), in the same order as the contexts
+	 */
+	public int[][] predictBatch(int[][] contexts, int topK, ForkJoinPool pool, long[] latencies) {
+		int[][] predictions = new int[contexts.length][];
+		BatchPrediction.run(contexts.length, pool, latencies, i -> predictions[i] = predict(contexts[i], topK));
+		return predictions;
+	}
+	
+	/**
+	 * Allocation free version of predict(int[], int)
+	 * @param context Items of the sequence to predict, unseen items are ignored
+	 * @param out Receives the predicted items, its length is the maximum number of items to predict
+	 * @return The number of items written in out
+	 */
+	public int predict(int[] context, int[] out) {
+		
+		if(itemIndex == null) {
+			return 0;
+		}
+		PredictionScratch s = getScratch();
+		s.ensureCapacity(context.length);
+		
+		//removing the unseen items and remapping the others to dense items
+		int[] target = s.target;
+		int length = 0;
+		for(int item : context) {
+			int dense = itemIndex.get(item, -1);
+			if(dense >= 0) {
+				target[length++] = dense;
+			}
+		}
+		if(length == 0) {
+			return 0;
+		}
+		
+		IntCountTable ct = predictionByActiveNoiseReduction(target, length, s);
+		int count = ct.getBest(out);
+		
+		//mapping the predicted items back to their values
+		for(int i = 0; i < count; i++) {
+			out[i] = denseItems[out[i]];
+		}
+		return count;
+	}
+	
+	/**
+	 * Return the buffers of the predictions of the current thread, created for the current model
+	 */
+	private PredictionScratch getScratch() {
+		PredictionScratch s = scratch.get();
+		if(s == null) {
+			s = new PredictionScratch(this);
+			scratch.set(s);
+		}
+		return s;
+	}
+	
+	/**
+	 * Primitive version of predictionByActiveNoiseReduction(Sequence)
+	 * @param target Dense items of the sequence to predict
+	 * @param length Number of items in target
+	 */
+	protected IntCountTable predictionByActiveNoiseReduction(int[] target, int length, PredictionScratch s) {
+		
+		//Queue setup, the queue also remembers every candidate to avoid work duplication
+		CandidateQueue queue = s.queue;
+		queue.clear();
+		queue.add(target, 0, length, true);
+		
+		//Setting parameters
+		int maxPredictionCount = 1 + (int) (length * minPredictionRatio);
+		int predictionCount = 0;
+		
+		//Initializing the count table
+		IntCountTable ct = s.countTable;
+		ct.reset();
+		ct.update(target, length, getSimilarSequencesIds(target, length, -1, s), length);
+		
+		//Initial prediction
+		if(ct.hasBest()) {
+			predictionCount++;
+		}
+		
+		//while the min prediction count is not reached and the target sequence is big enough
+		int seq;
+		while((seq = queue.poll()) >= 0 && predictionCount < maxPredictionCount) {
+			
+			//copying the sequence since the queue storage can move while adding candidates
+			int seqLength = queue.length(seq);
+			System.arraycopy(queue.items(), queue.offset(seq), s.parent, 0, seqLength);
+			
+			//get the noisy items for this level
+			int noiseCount = getNoise(s.parent, seqLength, noiseRatio, s.noises);
+			
+			//with several candidates, the ANDs of the items of the sequence are shared by their intersections (see LeaveOneOut)
+			boolean leaveOneOut = (noiseCount > 1);
+			if(leaveOneOut) {
+				s.leaveOneOut.prepare(s.parent, seqLength, denseII);
+			}
+			
+			//generating the candidates from the list of noisy items
+			for(int n = 0; n < noiseCount; n++) {
+				
+				//remove the first noise item appearance from the sequence
+				int noise = s.noises[n];
+				int candidateLength = 0;
+				int position = -1;
+				for(int i = 0; i < seqLength; i++) {
+					if(position < 0 && s.parent[i] == noise) {
+						position = i;
+					}
+					else {
+						s.candidate[candidateLength++] = s.parent[i];
+					}
+				}
+				
+				//an already known candidate cannot update the count table
+				if(queue.add(s.candidate, 0, candidateLength, candidateLength > 1) == false) {
+					continue;
+				}
+				
+				//update count table with this sequence
+				Bitvector ids = getSimilarSequencesIds(s.candidate, candidateLength, leaveOneOut ? position : -1, s);
+				int branches = ct.update(s.candidate, candidateLength, ids, length);
+				
+				//do a prediction if this CountTable update did something
+				if(branches > 0 && ct.hasBest()) {
+					predictionCount++;
+				}
+			}
+		}
+		
+		return ct;
+	}
+	
+	/**
+	 * Return the ids of the sequences similar to a candidate, from the cache when it is enabled
+	 * @param sequence Dense items of the candidate
+	 * @param length Number of items in sequence
+	 * @param position Position of the item removed from the sequence prepared in s.leaveOneOut, -1 to intersect the items of the candidate
+	 * @return the ids (they must not be modified) or null if the candidate is empty
+	 */
+	protected Bitvector getSimilarSequencesIds(int[] sequence, int length, int position, PredictionScratch s) {
+		
+		//a single item is its own inverted index entry
+		IntersectionCache cache = this.cache;
+		boolean cached = (cache != null && length > 1);
+		if(cached) {
+			Bitvector ids = cache.get(s.cacheKey.set(sequence, length));
+			if(ids != null) {
+				return ids;
+			}
+		}
+		
+		Bitvector ids = (position >= 0) ? s.leaveOneOut.without(position) : helper.getSimilarSequencesIds(sequence, length, s.intersection);
+		if(cached && ids != null) {
+			cache.put(s.cacheKey, ids);
+		}
+		return ids;
+	}
+	
+	/**
+	 * Primitive version of getNoise(Sequence, double)
+	 * @param target Dense items of the sequence
+	 * @param length Number of items in target
+	 * @param noises Receives the noisy items
+	 * @return The number of noisy items
+	 */
+	protected int getNoise(int[] target, int length, double noiseRatio, int[] noises) {
+		
+		//Converting the noiseRatio (relative to the noiseCount (absolute)
+		int noiseCount = (int) Math.floor(length * noiseRatio);
+		
+		//When the noise is <= 0, noiseCount is set to one
+		if(noiseCount <= 0) {
+			//Find the lowest supporting item
+			int minSup = Integer.MAX_VALUE;
+			for(int i = 0; i < length; i++) {
+				if(denseII[target[i]].cardinality() < minSup) {
+					minSup = denseII[target[i]].cardinality();
+					noises[0] = target[i];
+				}
+			}
+			return 1;
+		}
+		
+		//stable insertion sort of the items by decreasing support
+		//then keeping the last [noiseCount] items
+		for(int i = 0; i < length; i++) {
+			int item = target[i];
+			int support = denseII[item].cardinality();
+			int j = i - 1;
+			while(j >= 0 && denseII[noises[j]].cardinality() < support) {
+				noises[j + 1] = noises[j];
+				j--;
+			}
+			noises[j + 1] = item;
+		}
+		System.arraycopy(noises, length - noiseCount, noises, 0, noiseCount);
+		
+		return noiseCount;
+	}
+	
+	
 	protected CountTable predictionByActiveNoiseReduction(Sequence target) {
 		
 		//Queues setup
@@ -209,14 +785,15 @@ public class CPTPlusPredictor extends Predictor {
 		
 
 		//Setting parameters
-		int maxPredictionCount = 1 + (int) (target.size() * parameters.paramDouble("minPredictionRatio")); //minimum number of required prediction to ensure the best accuracy
+		int maxPredictionCount = 1 + (int) (target.size() * minPredictionRatio); //minimum number of required prediction to ensure the best accuracy
 		int predictionCount = 0; //current number of prediction done (one by default because of the CountTable being updated with the target initially) 
-		double noiseRatio = parameters.paramDouble("noiseRatio"); //Ratio of items to remove in a sequence per level (level = target.size)
+		double noiseRatio = this.noiseRatio; //Ratio of items to remove in a sequence per level (level = target.size)
 		int initialTargetSize = target.size();
 		
 		
-		//Initializing the count table
-		CountTable ct = new CountTable(helper);
+		//Initializing the count table, reused by the predictions of this thread
+		CountTable ct = getScratch().sequenceCountTable;
+		ct.reset();
 		ct.update(target.getItems().toArray(new Item[0]), target.size());
 		
 		//Initial prediction
@@ -392,6 +969,154 @@ public class CPTPlusPredictor extends Predictor {
 		nodeNumber -= nodeSaved;
 	}
 
+	/**
+	 * Build the primitive view of the model used by predict(int[], int[])
+	 * It has to be called once the tree, the inverted index and the encoder are final.
+	 */
+	protected void freeze() {
+		
+		indexItems();
+		maxBranchLength = 0;
+		indexBranches(0);
+		
+		//the parameters used by the predictions are read once, so that predicting does not depend on the profile
+		minPredictionRatio = parameters.paramDouble("minPredictionRatio");
+		noiseRatio = parameters.paramDouble("noiseRatio");
+		resetPredictions();
+		
+		//the model is now read only
+		encoder.lock();
+	}
+	
+	/**
+	 * Drop the buffers and the cached intersections of the predictions, they have to be rebuilt whenever the model changes.
+	 * The new version of the model is also published for the caches of predictions (see CachedPredictor).
+	 * The cache keeps its hits and misses as long as its budget does not change.
+	 */
+	protected void resetPredictions() {
+		scratch = new ThreadLocal<PredictionScratch>();
+		modelChanged();
+		
+		int capacity = parameters.paramIntOrDefault("intersectionCache", intersectionCache);
+		if(capacity <= 0 || parameters.paramBoolOrDefault("compressedII", compressedII) == false) {
+			cache = null;
+		}
+		else if(cache == null || cache.capacity() != capacity) {
+			cache = new IntersectionCache(capacity);
+		}
+		else {
+			cache.clear();
+		}
+	}
+	
+	/**
+	 * Return the cache of intersections shared by the predictions, null if it is disabled (see the "intersectionCache" and "compressedII" parameters)
+	 */
+	public IntersectionCache getIntersectionCache() {
+		return cache;
+	}
+	
+	/**
+	 * Assign the dense items and express the encoder entries with them
+	 */
+	protected void indexItems() {
+		
+		//dense items are assigned in increasing order of value
+		int[] values = new int[II.size()];
+		int i = 0;
+		for(Integer item : II.keySet()) {
+			values[i++] = item;
+		}
+		Arrays.sort(values);
+		
+		itemIndex = new IntIntMap(values.length);
+		denseItems = values;
+		denseII = new Bitvector[values.length];
+		for(int dense = 0; dense < values.length; dense++) {
+			itemIndex.put(values[dense], dense);
+			denseII[dense] = II.get(values[dense]);
+		}
+		
+		//encoder entries expressed as dense items
+		denseDict = new int[encoder.Dict.size()][];
+		for(int id = 0; id < denseDict.length; id++) {
+			List<Item> itemset = encoder.getEntry(id);
+			denseDict[id] = new int[itemset.size()];
+			for(int j = 0; j < itemset.size(); j++) {
+				denseDict[id][j] = itemIndex.get(itemset.get(j).val, -1);
+			}
+		}
+	}
+	
+	/**
+	 * Update the length of the longest decoded branch with the branches of the sequences from firstId
+	 */
+	protected void indexBranches(int firstId) {
+		for(int id = firstId; id < Tree.sequenceCount(); id++) {
+			int branchLength = 0;
+			for(int curNode = Tree.getLeaf(id); curNode != FlatPredictionTree.ROOT; curNode = Tree.getParent(curNode)) {
+				branchLength += denseDict[Tree.getSymbol(curNode)].length;
+			}
+			maxBranchLength = Math.max(maxBranchLength, branchLength);
+		}
+	}
+	
+	/**
+	 * Write the trained model: the encoder, the array based Prediction Tree and Lookup Table, the Inverted Index
+	 * and the parameters of the predictions. The primitive view is not written, it is rebuilt by readSnapshot().
+	 */
+	@Override
+	public void writeSnapshot(SnapshotWriter out) throws IOException {
+		
+		if(encoder == null) {
+			throw new RuntimeException(TAG + " has to be trained before being saved");
+		}
+		
+		out.writeString(TAG);
+		parameters.write(out);
+		out.writeLong(nodeNumber);
+		out.writeInt(firstSequenceId);
+		out.writeInt(maxBranchLength);
+		out.writeDouble(minPredictionRatio);
+		out.writeDouble(noiseRatio);
+		encoder.write(out);
+		Tree.write(out);
+		
+		out.writeInt(II.size());
+		for(Entry<Integer, Bitvector> entry : II.entrySet()) {
+			out.writeInt(entry.getKey());
+			entry.getValue().write(out);
+		}
+	}
+	
+	@Override
+	public void readSnapshot(SnapshotReader in) throws IOException {
+		
+		TAG = in.readString();
+		parameters.read(in);
+		nodeNumber = in.readLong();
+		firstSequenceId = in.readInt();
+		maxBranchLength = in.readInt();
+		minPredictionRatio = in.readDouble();
+		noiseRatio = in.readDouble();
+		encoder = Encoder.read(in);
+		helper.setEncoded(encoder);
+		Tree = FlatPredictionTree.read(in);
+		Root = null;
+		LT = null;
+		
+		int itemCount = in.readInt();
+		II = new HashMap<Integer, Bitvector>();
+		for(int i = 0; i < itemCount; i++) {
+			II.put(in.readInt(), Bitvector.read(in));
+		}
+		
+		//like freeze(), except that the parameters of the predictions come from the snapshot
+		indexItems();
+		resetPredictions();
+		encoder.lock();
+	}
+	
 	@Override
 	public long size() {
 		return nodeNumber;
@@ -400,12 +1125,15 @@ public class CPTPlusPredictor extends Predictor {
 	@Override
 	public float memoryUsage() {
 		
-		float sizePredictionTree = nodeNumber * 3 * 4; // each node uses 3 integers, one for value, one for parent link, and one on average for child
-		
-		float sizeInvertedIndex = (float) (II.size() * ( Math.ceil(LT.size() / 8) + 4));
+		//each entry of the Inverted Index uses one integer for the item and the storage of its bit vector
+		float sizeInvertedIndex = II.size() * 4;
+		for(Bitvector bitvector : II.values()) {
+			sizeInvertedIndex += bitvector.memoryUsage();
+		}
 		
-		float sizeLookupTable = LT.size() * 2 * 4; //the key and the value of this hashmap are integer and pointer respectively (4 bytes)
+		//each node uses 4 integers (value, parent, first child and next sibling) and each sequence one integer in the Lookup Table
+		float sizePredictionTreeAndLookupTable = Tree.memoryUsage();
 		
-		return sizePredictionTree + sizeInvertedIndex + sizeLookupTable;
+		return sizePredictionTreeAndLookupTable + sizeInvertedIndex;
 	}
 }
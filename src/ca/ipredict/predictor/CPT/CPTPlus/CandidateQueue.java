@@ -0,0 +1,153 @@
+package ca.ipredict.predictor.CPT.CPTPlus;
+
+import java.util.Arrays;
+
+/**
+ * FIFO of candidate sequences for the noise reduction of CPTPlusPredictor.predict(int[], int[]).
+ *
+ * It replaces the Queue<Sequence> and the HashSet<Sequence> of predictionByActiveNoiseReduction():
+ * candidates are stored side by side in a single int array and a candidate is only accepted once
+ * per prediction. The storage grows with the largest prediction and is reused afterward.
+ */
+public class CandidateQueue {
+
+	/**
+	 * Items of all the candidates, candidate c is in items[offsets[c], offsets[c] + lengths[c][
+	 */
+	private int[] items;
+	private int itemsEnd;
+	private int[] offsets;
+	private int[] lengths;
+	private int[] hashes;
+	private int count;
+
+	/**
+	 * Candidates waiting to be processed, in insertion order
+	 */
+	private int[] fifo;
+	private int head;
+	private int tail;
+
+	/**
+	 * Hash table of the candidates (candidate id + 1, 0 for an empty slot)
+	 */
+	private int[] table;
+
+	public CandidateQueue() {
+		items = new int[64];
+		offsets = new int[16];
+		lengths = new int[16];
+		hashes = new int[16];
+		fifo = new int[16];
+		table = new int[32];
+	}
+
+	/**
+	 * Remove all the candidates
+	 */
+	public void clear() {
+		Arrays.fill(table, 0);
+		itemsEnd = 0;
+		count = 0;
+		head = 0;
+		tail = 0;
+	}
+
+	/**
+	 * Add a candidate if it has never been added since the last clear()
+	 * @param source array containing the candidate
+	 * @param offset position of the candidate in source
+	 * @param length length of the candidate
+	 * @param enqueue true to make the candidate available to poll()
+	 * @return true if the candidate is new
+	 */
+	public boolean add(int[] source, int offset, int length, boolean enqueue) {
+
+		int hash = 1;
+		for(int i = offset; i < offset + length; i++) {
+			hash = 31 * hash + source[i];
+		}
+
+		//looking for the same candidate
+		int mask = table.length - 1;
+		int slot = (hash ^ (hash >>> 16)) & mask;
+		while(table[slot] != 0) {
+			int other = table[slot] - 1;
+			if(hashes[other] == hash && sameItems(other, source, offset, length)) {
+				return false;
+			}
+			slot = (slot + 1) & mask;
+		}
+
+		//storing the new candidate
+		if(count == offsets.length) {
+			offsets = Arrays.copyOf(offsets, count * 2);
+			lengths = Arrays.copyOf(lengths, count * 2);
+			hashes = Arrays.copyOf(hashes, count * 2);
+			fifo = Arrays.copyOf(fifo, count * 2);
+		}
+		if(itemsEnd + length > items.length) {
+			items = Arrays.copyOf(items, Math.max(items.length * 2, itemsEnd + length));
+		}
+		System.arraycopy(source, offset, items, itemsEnd, length);
+		offsets[count] = itemsEnd;
+		lengths[count] = length;
+		hashes[count] = hash;
+		itemsEnd += length;
+		table[slot] = count + 1;
+
+		if(enqueue) {
+			fifo[tail++] = count;
+		}
+		count++;
+
+		if(count * 2 > table.length) {
+			rehash();
+		}
+		return true;
+	}
+
+	/**
+	 * Return the next candidate to process or -1 if there is none
+	 */
+	public int poll() {
+		return (head < tail) ? fifo[head++] : -1;
+	}
+
+	public int[] items() {
+		return items;
+	}
+
+	public int offset(int candidate) {
+		return offsets[candidate];
+	}
+
+	public int length(int candidate) {
+		return lengths[candidate];
+	}
+
+	private boolean sameItems(int candidate, int[] source, int offset, int length) {
+		if(lengths[candidate] != length) {
+			return false;
+		}
+		int start = offsets[candidate];
+		for(int i = 0; i < length; i++) {
+			if(items[start + i] != source[offset + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private void rehash() {
+		table = new int[table.length * 2];
+		int mask = table.length - 1;
+		for(int c = 0; c < count; c++) {
+			int slot = (hashes[c] ^ (hashes[c] >>> 16)) & mask;
+			while(table[slot] != 0) {
+				slot = (slot + 1) & mask;
+			}
+			table[slot] = c + 1;
+		}
+	}
+}
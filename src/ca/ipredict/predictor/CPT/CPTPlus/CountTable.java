@@ -1,36 +1,56 @@
 package ca.ipredict.predictor.CPT.CPTPlus;
 
+import java.util.Arrays;
 import java.util.HashSet;
-import java.util.List;
-import java.util.Map.Entry;
-import java.util.TreeMap;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
-import ca.ipredict.helpers.ScoreDistribution;
 
 
 /**
  * Represents a CountTable for the CPT Predictor
+ *
+ * The items are remapped to the dense items of the predictor (see CPTPlusPredictor.freeze()),
+ * their scores are kept in a DenseScoreTable which keeps the best item up to date.
+ * A CountTable is sized for a given model and can be reused by the predictions of one thread (see reset()).
  */
 public class CountTable {
 
 	/**
 	 * Internal representation of the CountTable
 	 */
-	private TreeMap<Integer, Float> table;
-	private HashSet<Integer> branchVisited;
+	private DenseScoreTable table;
 	private CPTHelper helper;
+
+	/**
+	 * A branch is visited for the current prediction when its stamp equals visitStamp
+	 */
+	private int[] branchVisited;
+	private int visitStamp;
 	
 	/**
 	 * Basic controller
 	 */
 	public CountTable(CPTHelper helper) {
-		table = new TreeMap<Integer, Float>();
-		branchVisited = new HashSet<Integer>();
+		table = new DenseScoreTable(helper.predictor.denseItems.length);
+		branchVisited = new int[helper.predictor.Tree.sequenceCount()];
+		visitStamp = 1;
 		this.helper = helper;
 	}
 
+	/**
+	 * Empty this CountTable so that it can be used for a new prediction
+	 */
+	public void reset() {
+		table.reset();
+
+		visitStamp++;
+		if(visitStamp == Integer.MAX_VALUE) {
+			Arrays.fill(branchVisited, 0);
+			visitStamp = 1;
+		}
+	}
+
 	/**
 	 * Calculate the score for an item and push the score to the CountTable, 
 	 * if a key already exists then the given value is added to the old one
@@ -52,13 +72,7 @@ public class CountTable {
 		float curValue = (weightLevel * 1f) + (1f) + (weightDistance * 0.0001f);
 		
 		//Update the count table
-		Float oldVal = table.get(key);
-		if(oldVal == null) {
-			table.put(key, curValue);
-		}
-		else {
-			table.put(key, oldVal * curValue);
-		}		
+		table.push(helper.predictor.itemIndex.get(key, -1), curValue);
 	}
 
 	
@@ -77,10 +91,10 @@ public class CountTable {
 		//For each sequence similar of the given sequence
 		for(int id = ids.nextSetBit(0); id >= 0 ; id = ids.nextSetBit(id + 1)) {
 			
-			if(branchVisited.contains(id)) {
+			if(branchVisited[id] == visitStamp) {
 				continue;
 			}
-			branchVisited.add(id);
+			branchVisited[id] = visitStamp;
 			
 			//extracting the sequence from the PredictionTree
 			Item[] seq = helper.getSequenceFromId(id);
@@ -127,36 +141,22 @@ public class CountTable {
 	 * Return a sequence containing the highest scored items from
 	 * the counts table
 	 * @param count Number of items to put in the sequence
-	 * @param II The inverted index corresponding
 	 * @return The sequence containing the |count| best items sorted from the CountTable
 	 */
 	public Sequence getBestSequence(int count) {
 		
-		//Iterating through the CountTable to sort the items by score
-		ScoreDistribution<Integer> sd = new ScoreDistribution<Integer>();
-		for(Entry<Integer, Float> it : table.entrySet()) {
-			
-			//the following measure of confidence and lift are "simplified" but are exactly the same as in the literature.
-			//CONFIDENCE : |X -> Y|
-			//LIFT: CONFIDENCE(X -> Y) / (|Y|)
-			double confidence = it.getValue();
-//			double support = helper.predictor.II.get(it.getKey()).cardinality();
-//			double lift = it.getValue() * support;
-			
-			//Calculate score based on lift or confidence
-			double score =  confidence; //Use confidence or lift, depending on Parameter.firstVote
-						
-			sd.put(it.getKey(), score);
-		}
+		//the following measure of confidence is "simplified" but is exactly the same as in the literature.
+		//CONFIDENCE : |X -> Y|
 		
-		//Filling a sequence with the best |count| items
+		//Filling a sequence with the best |count| items, only the items tied with the best one are kept
 		Sequence seq = new Sequence(-1);
-		List<Integer> bestItems = sd.getBest(1.002);
-//		List<Integer> bestItems = sd.getBest(1.00001);
-		if(bestItems != null && bestItems.size() > 0) {
-			for(int i = 0; i < count && i < bestItems.size(); i++) {
-				seq.addItem(new Item(bestItems.get(i)));
+		int[] bestItems = new int[count];
+		int found = table.getBest(bestItems);
+		for(int i = 0; i < found; i++) {
+			if(table.getScore(bestItems[i]) < table.getScore(bestItems[0])) {
+				break;
 			}
+			seq.addItem(new Item(helper.predictor.denseItems[bestItems[i]]));
 		}
 
 		return seq;
@@ -0,0 +1,189 @@
+package ca.ipredict.predictor.CPT.CPTPlus;
+
+/**
+ * Scores of the dense items (see CPTPlusPredictor.freeze()) of a CountTable
+ *
+ * The scores are kept in a plain float array and only the touched entries are reset between two predictions.
+ * The scores only grow, so the highest score and the highest score below it are maintained on each push:
+ * the best item and its margin are read without looking at the other items.
+ */
+public class DenseScoreTable {
+
+	/**
+	 * Score of each dense item, 0 when the item has not been pushed
+	 */
+	private float[] scores;
+
+	/**
+	 * Dense items with a non-zero score, in order of first push
+	 */
+	private int[] touched;
+	private int touchedCount;
+
+	/**
+	 * Highest score, number of items with this score and the smallest of them
+	 */
+	private float bestScore;
+	private int bestCount;
+	private int bestItem;
+
+	/**
+	 * Highest score strictly below bestScore, 0 if there is none
+	 */
+	private float secondScore;
+
+	/**
+	 * @param itemCount Number of dense items
+	 */
+	public DenseScoreTable(int itemCount) {
+		scores = new float[itemCount];
+		touched = new int[itemCount];
+		reset();
+	}
+
+	/**
+	 * Reset all the scores to 0
+	 */
+	public void reset() {
+		for(int i = 0; i < touchedCount; i++) {
+			scores[touched[i]] = 0f;
+		}
+		touchedCount = 0;
+		bestScore = 0f;
+		bestCount = 0;
+		bestItem = -1;
+		secondScore = 0f;
+	}
+
+	/**
+	 * Push a value for an item: the first value of an item is its score, the next ones multiply it.
+	 * The values are above 1, so a score never decreases.
+	 */
+	public void push(int item, float value) {
+
+		float oldScore = scores[item];
+		float score;
+		if(oldScore == 0f) {
+			score = value;
+			touched[touchedCount++] = item;
+		}
+		else {
+			score = oldScore * value;
+		}
+		scores[item] = score;
+
+		//updating the best and second scores
+		if(score == oldScore) {
+			return;
+		}
+		if(score > bestScore) {
+			//the old best score remains the second one unless this item was the only one to have it
+			if(oldScore != bestScore || bestCount != 1) {
+				secondScore = bestScore;
+			}
+			bestScore = score;
+			bestCount = 1;
+			bestItem = item;
+		}
+		else if(score == bestScore) {
+			bestCount++;
+			bestItem = Math.min(bestItem, item);
+
+			//the old score of this item may have been the only second score
+			if(oldScore == secondScore) {
+				secondScore = findSecondScore();
+			}
+		}
+		else if(score > secondScore) {
+			secondScore = score;
+		}
+	}
+
+	/**
+	 * Find the highest score below the best one by looking at every touched item
+	 */
+	private float findSecondScore() {
+		float second = 0f;
+		for(int i = 0; i < touchedCount; i++) {
+			float score = scores[touched[i]];
+			if(score < bestScore && score > second) {
+				second = score;
+			}
+		}
+		return second;
+	}
+
+	public float getScore(int item) {
+		return scores[item];
+	}
+
+	/**
+	 * Smallest item with the highest score, -1 if no item has been pushed
+	 */
+	public int getBestItem() {
+		return bestItem;
+	}
+
+	/**
+	 * Ratio between the highest score and the highest score below it,
+	 * infinite with a single distinct score and 0 if no item has been pushed
+	 */
+	public double getMargin() {
+		if(touchedCount == 0) {
+			return 0d;
+		}
+		return (secondScore == 0f) ? Double.POSITIVE_INFINITY : ((double) bestScore / (double) secondScore);
+	}
+
+	/**
+	 * Return true if the highest score is clearly above the second highest score (same rule as ScoreDistribution.getBest(1.002))
+	 */
+	public boolean hasBest() {
+		return getMargin() >= 1.002;
+	}
+
+	/**
+	 * Write the best items in [out], from the highest score to the lowest,
+	 * ties are broken by the smallest item. Nothing is written if there is no best item (see hasBest()).
+	 * @return the number of items written in out
+	 */
+	public int getBest(int[] out) {
+
+		if(out.length == 0 || hasBest() == false) {
+			return 0;
+		}
+		if(out.length == 1) {
+			out[0] = bestItem;
+			return 1;
+		}
+
+		//partial selection of the best out.length items
+		int count = 0;
+		float lastScore = Float.POSITIVE_INFINITY;
+		int lastItem = -1;
+		while(count < out.length && count < touchedCount) {
+
+			float bestScore = -1f;
+			int bestItem = -1;
+			for(int i = 0; i < touchedCount; i++) {
+				int item = touched[i];
+				float score = scores[item];
+
+				//only considering the items ranked after the last selected one
+				if(score > lastScore || (score == lastScore && item <= lastItem)) {
+					continue;
+				}
+				if(score > bestScore || (score == bestScore && item < bestItem)) {
+					bestScore = score;
+					bestItem = item;
+				}
+			}
+
+			out[count++] = bestItem;
+			lastScore = bestScore;
+			lastItem = bestItem;
+		}
+
+		return count;
+	}
+}
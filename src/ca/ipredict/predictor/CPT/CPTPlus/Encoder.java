@@ -1,26 +1,85 @@
 package ca.ipredict.predictor.CPT.CPTPlus;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.LongIntMap;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
 
 /**
  * The encoder can compress sequences by replacing itemset by a single item
  * This class can do the conversion from a regular sequence to/from an encoded sequence
+ * 
+ * Once locked (at the end of the training), the dictionary can no longer grow and 
+ * the encoder can be read by several threads at once.
+ * 
+ * The entries with several items are also stored in a trie over the item values, so the longest entry 
+ * starting at a position of a sequence is found by walking the trie from this position (see split()).
+ * 
+ * The entries that are not used anymore can be removed by retain(), only the frequent itemsets 
+ * found by CCF are always kept.
  */
 public class Encoder {
 
+	private static final int TRIE_ROOT = 0;
 	
 	protected List<List<Item>> Dict;
 	protected HashMap<List<Item>, Integer> InvDict;
 	
+	/**
+	 * Trie of the entries with several items: a node is an id, the root is TRIE_ROOT, and the children of all 
+	 * the nodes are in a single map keyed by (node id, item value). The path of a node is an entry when its
+	 * trieEntries is the id of this entry, -1 otherwise.
+	 */
+	protected LongIntMap trieChildren;
+	protected int[] trieEntries;
+	protected int trieNodeCount;
+	
+	/**
+	 * Number of frequent itemsets, they are the first entries (see markFrequentItemsets())
+	 */
+	protected int frequentCount;
+	
+	/**
+	 * True when no entry can be added anymore
+	 */
+	protected boolean locked;
+	
 	public Encoder() {
 		Dict = new ArrayList<List<Item>>();
 		InvDict = new HashMap<List<Item>, Integer>();
+		clearTrie();
+		frequentCount = 0;
+		locked = false;
+	}
+	
+	private void clearTrie() {
+		trieChildren = new LongIntMap();
+		trieEntries = new int[16];
+		trieEntries[TRIE_ROOT] = -1;
+		trieNodeCount = 1;
+	}
+	
+	/**
+	 * Prevent any further change of the dictionary
+	 */
+	public void lock() {
+		locked = true;
+	}
+	
+	/**
+	 * Allow the dictionary to grow again (see CPTPlusPredictor.update())
+	 * The encoder must not be read by other threads until it is locked again.
+	 */
+	public void unlock() {
+		locked = false;
 	}
 	
 	/**
@@ -32,14 +91,88 @@ public class Encoder {
 		Integer id = getId(entry);
 		if(id == null) {
 			
+			if(locked) {
+				throw new RuntimeException("The encoder is locked, " + entry + " cannot be added");
+			}
 			Dict.add(entry);
 			id = Dict.size() - 1;
-			InvDict.put(entry, id);
+			index(entry, id);
 		}
 		
 		return id;
 	}
 	
+	/**
+	 * Mark the current entries as the frequent itemsets of CCF, they are kept by retain() even when they are not used.
+	 * It has to be called before encoding the first sequence.
+	 */
+	public void markFrequentItemsets() {
+		frequentCount = Dict.size();
+	}
+	
+	/**
+	 * Remove the entries that are neither frequent itemsets nor used, the other entries keep their order
+	 * and get consecutive ids
+	 * @param used Tells if each entry id is used
+	 * @return The new id of each entry id, -1 for the removed entries
+	 */
+	public int[] retain(boolean[] used) {
+		
+		if(locked) {
+			throw new RuntimeException("The encoder is locked, its entries cannot be removed");
+		}
+		
+		List<List<Item>> entries = Dict;
+		Dict = new ArrayList<List<Item>>();
+		InvDict = new HashMap<List<Item>, Integer>();
+		clearTrie();
+		
+		int[] ids = new int[entries.size()];
+		for(int id = 0; id < ids.length; id++) {
+			if(id < frequentCount || used[id]) {
+				Dict.add(entries.get(id));
+				ids[id] = Dict.size() - 1;
+				index(entries.get(id), ids[id]);
+			}
+			else {
+				ids[id] = -1;
+			}
+		}
+		
+		return ids;
+	}
+	
+	/**
+	 * Make an entry of the dictionary reachable from its itemset
+	 */
+	private void index(List<Item> entry, int id) {
+		InvDict.put(entry, id);
+		
+		//the single items are never looked up in the trie
+		if(entry.size() < 2) {
+			return;
+		}
+		int node = TRIE_ROOT;
+		for(Item item : entry) {
+			long key = trieKey(node, item.val);
+			int child = trieChildren.get(key, -1);
+			if(child < 0) {
+				if(trieNodeCount == trieEntries.length) {
+					trieEntries = Arrays.copyOf(trieEntries, trieNodeCount * 2);
+				}
+				child = trieNodeCount++;
+				trieEntries[child] = -1;
+				trieChildren.put(key, child);
+			}
+			node = child;
+		}
+		trieEntries[node] = id;
+	}
+	
+	private static long trieKey(int node, int item) {
+		return ((long) node << 32) | (item & 0xFFFFFFFFL);
+	}
+	
 	/**
 	 * Return the itemset with the given id
 	 */
@@ -66,6 +199,7 @@ public class Encoder {
 	/**
 	 * Encode a sequence by replacing sequential items with known itemsets.
 	 * It always try to use the longuest itemsets possible.
+	 * Unknown single items are added to the dictionary, so it can only be used before the encoder is locked.
 	 * @return A encoded hard copy of the original sequence
 	 */
 	public Sequence encode(Sequence seq) {
@@ -74,35 +208,61 @@ public class Encoder {
 			return seq ;
 		}
 		
-		Sequence encoded = new Sequence(seq.getId());
-		int seqSize = seq.getItems().size();
+		return encode(seq.getId(), split(seq));
+	}
+	
+	/**
+	 * Split a sequence in the itemsets that encode() replaces: the longuest known itemset
+	 * starting at each position or else a single item.
+	 * The dictionary is not modified, so a sequence can be split while other threads are splitting.
+	 * Only the single items can be unknown, so the dictionary entries added by encoding other sequences do not change the result. 
+	 * @return The itemsets in sequential order, the known itemsets are the entries of the dictionary so they must not be modified
+	 */
+	public List<List<Item>> split(Sequence seq) {
+		
+		List<List<Item>> itemsets = new ArrayList<List<Item>>();
+		List<Item> items = seq.getItems();
+		int seqSize = items.size();
 		
 		//For each items in the sequence
 		for(int i = 0; i < seqSize; i++) {
 			
-			//Finds the longuest itemset (taking everything from the current item to the end
-			//end removing one item at the time (from the end) until it finds a known itemset
-			LinkedList<Item> candidate = new LinkedList<Item>(seq.getItems().subList(i, seqSize));
-			Integer idFound = null;
-			while(idFound == null && candidate.size() > 0) {
-				
-				//if it found a known itemset
-				idFound = getId(candidate);
-				if(idFound != null) {		
-					encoded.addItem(new Item(idFound));
-					
-					i += candidate.size() - 1; 
-				}
-				//special case when the candidate list has only a single item left
-				else if(candidate.size() == 1) {
-					idFound = addEntry(candidate);
-					encoded.addItem(new Item(idFound));
-				}
-				//removing the last item
-				else {
-					candidate.removeLast();
+			//Finds the longuest itemset by walking the trie from the current item as far as the items match,
+			//the last entry met on the way is the longuest one
+			int entry = -1;
+			int node = TRIE_ROOT;
+			for(int j = i; j < seqSize && node >= 0; j++) {
+				node = trieChildren.get(trieKey(node, items.get(j).val), -1);
+				if(node >= 0 && trieEntries[node] >= 0) {
+					entry = trieEntries[node];
 				}
 			}
+			
+			//the itemset is either a known itemset or a single item
+			if(entry >= 0) {
+				itemsets.add(Dict.get(entry));
+				i += Dict.get(entry).size() - 1;
+			}
+			else {
+				List<Item> single = new ArrayList<Item>(1);
+				single.add(items.get(i));
+				itemsets.add(single);
+			}
+		}
+		
+		return itemsets;
+	}
+	
+	/**
+	 * Encode a sequence from the itemsets returned by split(), the unknown single items are added to the dictionary
+	 * @param id Id of the encoded sequence
+	 * @return A encoded sequence
+	 */
+	public Sequence encode(int id, List<List<Item>> itemsets) {
+		
+		Sequence encoded = new Sequence(id);
+		for(List<Item> itemset : itemsets) {
+			encoded.addItem(new Item(addEntry(itemset)));
 		}
 		
 		return encoded;
@@ -142,6 +302,55 @@ public class Encoder {
 		return decoded;
 	}
 
+	/**
+	 * Write the dictionary in a model snapshot (see ModelSnapshot)
+	 * The entries are stored as two arrays: their length and their items one after the other,
+	 * followed by the number of frequent itemsets.
+	 */
+	public void write(SnapshotWriter out) throws IOException {
+		
+		int[] lengths = new int[Dict.size()];
+		int total = 0;
+		for(int id = 0; id < lengths.length; id++) {
+			lengths[id] = Dict.get(id).size();
+			total += lengths[id];
+		}
+		
+		int[] items = new int[total];
+		int i = 0;
+		for(List<Item> entry : Dict) {
+			for(Item item : entry) {
+				items[i++] = item.val;
+			}
+		}
+		
+		out.writeInts(lengths);
+		out.writeInts(items);
+		out.writeInt(frequentCount);
+	}
+	
+	/**
+	 * Read a dictionary written by write(), the encoder is unlocked
+	 */
+	public static Encoder read(SnapshotReader in) throws IOException {
+		
+		Encoder encoder = new Encoder();
+		int[] lengths = in.readInts();
+		int[] items = in.readInts();
+		int i = 0;
+		for(int length : lengths) {
+			List<Item> entry = new ArrayList<Item>(length);
+			for(int j = 0; j < length; j++) {
+				entry.add(new Item(items[i++]));
+			}
+			encoder.Dict.add(entry);
+			encoder.index(entry, encoder.Dict.size() - 1);
+		}
+		encoder.frequentCount = in.readInt();
+		
+		return encoder;
+	}
+	
 	
 	public static void main(String...args) {
 		
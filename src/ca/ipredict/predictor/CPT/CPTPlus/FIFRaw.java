@@ -2,7 +2,11 @@ package ca.ipredict.predictor.CPT.CPTPlus;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.IntStream;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
@@ -48,17 +52,70 @@ public class FIFRaw implements FIF {
 	 * @param maxlength Maximum length for the itemsets
 	 */
 	public List<List<Item>> findFrequentItemsets(List<Sequence> seqs, int minLength, int maxlength, int minSup) {
+		return findFrequentItemsets(seqs, minLength, maxlength, minSup, 1);
+	}
+	
+	/**
+	 * Parallel version of findFrequentItemsets(), the sequences are split in [shards] ranges counted on separate cores.
+	 * The counts are merged in the order of the ranges so the itemsets are returned in the same order as with a single shard.
+	 * @param shards Number of ranges of sequences
+	 */
+	public List<List<Item>> findFrequentItemsets(List<Sequence> seqs, int minLength, int maxlength, int minSup, int shards) {
 		
 		itemFrequencies = new HashMap<Item, Integer>();
 
 		List<List<Item>> frequents = new ArrayList<List<Item>>();
-		HashMap<List<Item>, Integer> frequencies = new HashMap<List<Item>, Integer>();
+		
+		//the itemsets are kept in order of first occurrence, so the order of the frequent itemsets
+		//(and the ids given to them by the Encoder) does not depend on the number of shards
+		LinkedHashMap<List<Item>, Integer> frequencies = new LinkedHashMap<List<Item>, Integer>();
 		
 		if(maxlength <= 1 || minLength > maxlength) {
 			return frequents;
 		}
 		
 		//Calculating frequencies by iterating through each sequence
+		if(shards <= 1) {
+			count(seqs, minLength, maxlength, frequencies, itemFrequencies);
+		}
+		else {
+			
+			//each shard keeps its itemsets in order of first occurrence
+			List<Map<List<Item>, Integer>> shardFrequencies = new ArrayList<Map<List<Item>, Integer>>();
+			List<Map<Item, Integer>> shardItemFrequencies = new ArrayList<Map<Item, Integer>>();
+			for(int shard = 0; shard < shards; shard++) {
+				shardFrequencies.add(new LinkedHashMap<List<Item>, Integer>());
+				shardItemFrequencies.add(new LinkedHashMap<Item, Integer>());
+			}
+			IntStream.range(0, shards).parallel().forEach(shard -> {
+				List<Sequence> range = seqs.subList(shard * seqs.size() / shards, (shard + 1) * seqs.size() / shards);
+				count(range, minLength, maxlength, shardFrequencies.get(shard), shardItemFrequencies.get(shard));
+			});
+			
+			//merging the shards in order keeps the order of first occurrence in all the sequences
+			for(int shard = 0; shard < shards; shard++) {
+				for(Entry<List<Item>, Integer> entry : shardFrequencies.get(shard).entrySet()) {
+					frequencies.merge(entry.getKey(), entry.getValue(), Integer::sum);
+				}
+				for(Entry<Item, Integer> entry : shardItemFrequencies.get(shard).entrySet()) {
+					itemFrequencies.merge(entry.getKey(), entry.getValue(), Integer::sum);
+				}
+			}
+		}
+		
+		//Identifying the itemsets with a support high enough
+		frequencies.entrySet().stream().
+			filter(entry -> entry.getValue() >= minSup).
+			forEach(entry -> frequents.add(entry.getKey()));
+		
+		return frequents;
+	}
+	
+	/**
+	 * Count the frequencies of the itemsets of size in range [minLength, maxlength] and of the items of the given sequences
+	 */
+	private void count(List<Sequence> seqs, int minLength, int maxlength, Map<List<Item>, Integer> frequencies, Map<Item, Integer> itemFrequencies) {
+		
 		for(Sequence seq : seqs) {
 			
 			if(seq.size() >= minLength) {
@@ -95,13 +152,6 @@ public class FIFRaw implements FIF {
 				}
 			}
 		}
-		
-		//Identifying the itemsets with a support high enough
-		frequencies.entrySet().stream().
-			filter(entry -> entry.getValue() >= minSup).
-			forEach(entry -> frequents.add(entry.getKey()));
-		
-		return frequents;
 	}
 	
 	
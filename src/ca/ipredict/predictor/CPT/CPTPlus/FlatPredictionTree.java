@@ -0,0 +1,400 @@
+package ca.ipredict.predictor.CPT.CPTPlus;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
+
+/**
+ * Array based prediction tree for the CPT+ Predictor
+ *
+ * The nodes are stored in parallel int arrays (symbol, parent, first child and next sibling)
+ * instead of one PredictionTree object per node, and the Lookup Table maps each sequence id
+ * to the node index of its leaf. The root is always the node 0.
+ *
+ * A node has a theoretical size of 16 bytes (4 integers) and a sequence 4 bytes in the Lookup Table.
+ */
+public class FlatPredictionTree {
+
+	public static final int ROOT = 0;
+	public static final int NONE = -1;
+
+	/**
+	 * Encoded item of each node
+	 */
+	private int[] symbol;
+
+	/**
+	 * Parent of each node, NONE for the root
+	 */
+	private int[] parent;
+
+	/**
+	 * First child of each node and next sibling of each node, NONE if there is none
+	 */
+	private int[] firstChild;
+	private int[] nextSibling;
+
+	/**
+	 * Number of nodes, including the root
+	 */
+	private int nodeCount;
+
+	/**
+	 * Lookup Table, leaf node of each sequence id
+	 */
+	private int[] LT;
+	private int sequenceCount;
+
+	/**
+	 * Number of sequences whose branch goes through each node, only counted once a branch has been removed
+	 */
+	private int[] support;
+
+	/**
+	 * Removed nodes, chained by nextSibling and reused by addChild()
+	 */
+	private int freeNode;
+	private int freeCount;
+
+
+	public FlatPredictionTree(int nodeCapacity, int sequenceCapacity) {
+		nodeCapacity = Math.max(nodeCapacity, 1);
+		symbol = new int[nodeCapacity];
+		parent = new int[nodeCapacity];
+		firstChild = new int[nodeCapacity];
+		nextSibling = new int[nodeCapacity];
+		LT = new int[Math.max(sequenceCapacity, 1)];
+
+		//the root
+		symbol[ROOT] = -1;
+		parent[ROOT] = NONE;
+		firstChild[ROOT] = NONE;
+		nextSibling[ROOT] = NONE;
+		nodeCount = 1;
+		sequenceCount = 0;
+		freeNode = NONE;
+		freeCount = 0;
+	}
+
+	/**
+	 * Build the array based version of a PredictionTree and its Lookup Table.
+	 * The nodes are numbered in depth first order so that a branch is stored in a
+	 * contiguous range of the arrays as much as possible.
+	 */
+	public static FlatPredictionTree fromTree(PredictionTree root, Map<Integer, PredictionTree> LT) {
+
+		//numbering the nodes reachable from the root in depth first order
+		IdentityHashMap<PredictionTree, Integer> index = new IdentityHashMap<PredictionTree, Integer>();
+		ArrayDeque<PredictionTree> stack = new ArrayDeque<PredictionTree>();
+		ArrayList<PredictionTree> order = new ArrayList<PredictionTree>();
+		stack.push(root);
+		while(stack.isEmpty() == false) {
+			PredictionTree node = stack.pop();
+			index.put(node, order.size());
+			order.add(node);
+
+			//pushing in reverse order so that the first child is visited first
+			List<PredictionTree> children = node.getChildren();
+			for(int i = children.size() - 1; i >= 0; i--) {
+				stack.push(children.get(i));
+			}
+		}
+		
+		//path collapsing can detach nodes that are still referenced by the Lookup Table,
+		//they are kept (with their parents) but they are not children of any node
+		for(PredictionTree leaf : LT.values()) {
+			for(PredictionTree node = leaf; node != null && index.containsKey(node) == false; node = node.Parent) {
+				index.put(node, order.size());
+				order.add(node);
+			}
+		}
+
+		FlatPredictionTree tree = new FlatPredictionTree(order.size(), LT.size());
+		tree.nodeCount = order.size();
+		
+		//the links are reset first, since a node is linked to its siblings before it is visited
+		Arrays.fill(tree.firstChild, NONE);
+		Arrays.fill(tree.nextSibling, NONE);
+		for(int i = 0; i < order.size(); i++) {
+			PredictionTree node = order.get(i);
+			tree.symbol[i] = (i == ROOT) ? -1 : node.Item.val;
+			tree.parent[i] = (i == ROOT) ? NONE : index.get(node.Parent);
+
+			//linking the children in their original order
+			List<PredictionTree> children = node.getChildren();
+			int previous = NONE;
+			for(PredictionTree child : children) {
+				int c = index.get(child);
+				if(previous == NONE) {
+					tree.firstChild[i] = c;
+				}
+				else {
+					tree.nextSibling[previous] = c;
+				}
+				previous = c;
+			}
+		}
+
+		//Lookup Table
+		for(Entry<Integer, PredictionTree> entry : LT.entrySet()) {
+			tree.setLeaf(entry.getKey(), index.get(entry.getValue()));
+		}
+
+		return tree;
+	}
+
+	/**
+	 * Write the nodes and the Lookup Table in a model snapshot (see ModelSnapshot)
+	 */
+	public void write(SnapshotWriter out) throws IOException {
+		out.writeInts(symbol, nodeCount);
+		out.writeInts(parent, nodeCount);
+		out.writeInts(firstChild, nodeCount);
+		out.writeInts(nextSibling, nodeCount);
+		out.writeInts(LT, sequenceCount);
+		out.writeBoolean(support != null);
+		if(support != null) {
+			out.writeInts(support, nodeCount);
+		}
+		out.writeInt(freeNode);
+		out.writeInt(freeCount);
+	}
+
+	/**
+	 * Read a tree written by write(), the arrays are read in bulk and used as they are
+	 */
+	public static FlatPredictionTree read(SnapshotReader in) throws IOException {
+		FlatPredictionTree tree = new FlatPredictionTree(1, 1);
+		tree.symbol = in.readInts();
+		tree.parent = in.readInts();
+		tree.firstChild = in.readInts();
+		tree.nextSibling = in.readInts();
+		tree.nodeCount = tree.symbol.length;
+		int[] leaves = in.readInts();
+		tree.sequenceCount = leaves.length;
+		tree.LT = (leaves.length > 0) ? leaves : tree.LT;
+		if(in.readBoolean()) {
+			tree.support = in.readInts();
+		}
+		tree.freeNode = in.readInt();
+		tree.freeCount = in.readInt();
+		return tree;
+	}
+
+	/**
+	 * Add a child with the given symbol to a node
+	 * @return the index of the new node
+	 */
+	public int addChild(int node, int childSymbol) {
+
+		int child;
+		if(freeNode != NONE) {
+			//reusing a removed node
+			child = freeNode;
+			freeNode = nextSibling[child];
+			freeCount--;
+		}
+		else {
+			if(nodeCount == symbol.length) {
+				int capacity = nodeCount * 2;
+				symbol = Arrays.copyOf(symbol, capacity);
+				parent = Arrays.copyOf(parent, capacity);
+				firstChild = Arrays.copyOf(firstChild, capacity);
+				nextSibling = Arrays.copyOf(nextSibling, capacity);
+				if(support != null) {
+					support = Arrays.copyOf(support, capacity);
+				}
+			}
+			child = nodeCount++;
+		}
+		
+		symbol[child] = childSymbol;
+		parent[child] = node;
+		firstChild[child] = NONE;
+		nextSibling[child] = NONE;
+		if(support != null) {
+			support[child] = 0;
+		}
+
+		//appending the child after the last sibling to keep the insertion order
+		if(firstChild[node] == NONE) {
+			firstChild[node] = child;
+		}
+		else {
+			int last = firstChild[node];
+			while(nextSibling[last] != NONE) {
+				last = nextSibling[last];
+			}
+			nextSibling[last] = child;
+		}
+
+		return child;
+	}
+
+	/**
+	 * Return the child of the node with the given symbol or NONE
+	 */
+	public int getChild(int node, int childSymbol) {
+		for(int child = firstChild[node]; child != NONE; child = nextSibling[child]) {
+			if(symbol[child] == childSymbol) {
+				return child;
+			}
+		}
+		return NONE;
+	}
+
+	public int getSymbol(int node) {
+		return symbol[node];
+	}
+
+	public int getParent(int node) {
+		return parent[node];
+	}
+
+	public int getFirstChild(int node) {
+		return firstChild[node];
+	}
+
+	public int getNextSibling(int node) {
+		return nextSibling[node];
+	}
+
+	/**
+	 * Return the leaf node of the given sequence id
+	 */
+	public int getLeaf(int sequenceId) {
+		return LT[sequenceId];
+	}
+
+	/**
+	 * Register the leaf node of a sequence id in the Lookup Table
+	 */
+	public void setLeaf(int sequenceId, int node) {
+		if(sequenceId >= LT.length) {
+			int previous = LT.length;
+			LT = Arrays.copyOf(LT, Math.max(previous * 2, sequenceId + 1));
+			Arrays.fill(LT, previous, LT.length, ROOT);
+		}
+		LT[sequenceId] = node;
+		sequenceCount = Math.max(sequenceCount, sequenceId + 1);
+		
+		//the new branch supports all the nodes up to the root
+		if(support != null) {
+			for(; node != ROOT; node = parent[node]) {
+				support[node]++;
+			}
+		}
+	}
+
+	/**
+	 * Remove the branch of a sequence id from the Lookup Table, the nodes that are not used
+	 * by another sequence anymore are removed from the tree and reused by the next addChild()
+	 * @return the number of removed nodes
+	 */
+	public int removeBranch(int sequenceId) {
+
+		if(support == null) {
+			countSupport();
+		}
+		
+		int removed = 0;
+		int node = LT[sequenceId];
+		LT[sequenceId] = ROOT;
+		while(node != ROOT) {
+			int nodeParent = parent[node];
+			support[node]--;
+			
+			//the descendants of this node have already been removed by this loop
+			if(support[node] == 0) {
+				unlink(node);
+				nextSibling[node] = freeNode;
+				freeNode = node;
+				freeCount++;
+				removed++;
+			}
+			node = nodeParent;
+		}
+		
+		return removed;
+	}
+
+	/**
+	 * Count the support of each node from the branches of the Lookup Table
+	 */
+	private void countSupport() {
+		support = new int[symbol.length];
+		for(int sequenceId = 0; sequenceId < sequenceCount; sequenceId++) {
+			for(int node = LT[sequenceId]; node != ROOT; node = parent[node]) {
+				support[node]++;
+			}
+		}
+	}
+
+	/**
+	 * Remove a node from the children of its parent, if it is one of them (see fromTree())
+	 */
+	private void unlink(int node) {
+		int previous = NONE;
+		for(int child = firstChild[parent[node]]; child != NONE; child = nextSibling[child]) {
+			if(child == node) {
+				if(previous == NONE) {
+					firstChild[parent[node]] = nextSibling[node];
+				}
+				else {
+					nextSibling[previous] = nextSibling[node];
+				}
+				return;
+			}
+			previous = child;
+		}
+	}
+
+	/**
+	 * Move the leaf of each sequence id i to i - offset, the sequence ids lower than offset have to be removed
+	 */
+	public void shiftSequenceIds(int offset) {
+		sequenceCount -= offset;
+		System.arraycopy(LT, offset, LT, 0, sequenceCount);
+		Arrays.fill(LT, sequenceCount, sequenceCount + offset, ROOT);
+	}
+
+	/**
+	 * Replace the symbol of each node by its new id (see Encoder.retain()), the removed nodes keep their symbol
+	 */
+	public void remapSymbols(int[] ids) {
+		for(int node = ROOT + 1; node < nodeCount; node++) {
+			if(symbol[node] >= 0) {
+				symbol[node] = ids[symbol[node]];
+			}
+		}
+	}
+
+	/**
+	 * Number of sequence ids in the Lookup Table
+	 */
+	public int sequenceCount() {
+		return sequenceCount;
+	}
+
+	/**
+	 * Number of nodes, excluding the root and the removed nodes
+	 */
+	public int size() {
+		return nodeCount - 1 - freeCount;
+	}
+
+	/**
+	 * Theoretical size in bytes, 4 integers per node (5 once the support is counted) and one integer per sequence
+	 */
+	public float memoryUsage() {
+		return (nodeCount * 4 * ((support != null) ? 5 : 4)) + (sequenceCount * 4);
+	}
+}
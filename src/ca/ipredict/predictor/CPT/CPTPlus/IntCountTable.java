@@ -0,0 +1,155 @@
+package ca.ipredict.predictor.CPT.CPTPlus;
+
+import java.util.Arrays;
+
+/**
+ * Primitive counterpart of the CountTable, used by CPTPlusPredictor.predict(int[], int[]).
+ *
+ * Items are dense item ids (see CPTPlusPredictor.freeze()) so the scores are kept in a DenseScoreTable,
+ * which only resets the touched entries between two predictions and keeps the best item up to date.
+ * All the buffers are allocated once for a given model and reused by every prediction.
+ */
+public class IntCountTable {
+
+	private CPTHelper helper;
+
+	/**
+	 * Score of each dense item, with the best item and its margin
+	 */
+	private DenseScoreTable scores;
+
+	/**
+	 * A branch is visited for the current prediction when its stamp equals visitStamp
+	 */
+	private int[] branchVisited;
+	private int visitStamp;
+
+	/**
+	 * An item is in the "toAvoid" set of the current branch when its stamp equals avoidStamp
+	 */
+	private int[] toAvoid;
+	private int avoidStamp;
+
+	/**
+	 * Reused buffer for the branch extraction
+	 */
+	private int[] branch;
+
+	public IntCountTable(CPTPlusPredictor predictor) {
+		this.helper = predictor.helper;
+
+		int itemCount = predictor.denseItems.length;
+		scores = new DenseScoreTable(itemCount);
+		toAvoid = new int[itemCount];
+		branchVisited = new int[predictor.Tree.sequenceCount()];
+		branch = new int[predictor.maxBranchLength];
+
+		visitStamp = 1;
+		avoidStamp = 0;
+	}
+
+	/**
+	 * Empty this CountTable so that it can be used for a new prediction
+	 */
+	public void reset() {
+		scores.reset();
+
+		visitStamp++;
+		if(visitStamp == Integer.MAX_VALUE) {
+			Arrays.fill(branchVisited, 0);
+			visitStamp = 1;
+		}
+	}
+
+	/**
+	 * Same scoring as CountTable.push()
+	 */
+	private void push(int item, int numberOfSeqSameLength, int dist) {
+
+		float weightLevel = 1f /numberOfSeqSameLength;
+		float weightDistance = 1f / dist;
+		float curValue = (weightLevel * 1f) + (1f) + (weightDistance * 0.0001f);
+
+		scores.push(item, curValue);
+	}
+
+	/**
+	 * Update this CountTable with the first [length] dense items of [sequence] and their similar sequences, see CountTable.update()
+	 * @param initialSequenceSize The initial size of the sequence to predict (used for weighting)
+	 * @param ids Ids of the sequences similar to [sequence] (see CPTHelper.getSimilarSequencesIds()), null if there is none
+	 * @return the number of branches that updated the CountTable
+	 */
+	public int update(int[] sequence, int length, Bitvector ids, int initialSequenceSize) {
+
+		int branchesUsed = 0;
+		if(ids == null) {
+			return 0;
+		}
+		int cardinality = ids.cardinality();
+
+		//For each sequence similar of the given sequence
+		for(int id = ids.nextSetBit(0); id >= 0 ; id = ids.nextSetBit(id + 1)) {
+
+			if(branchVisited[id] == visitStamp) {
+				continue;
+			}
+			branchVisited[id] = visitStamp;
+
+			//extracting the sequence from the PredictionTree, it lies in branch[start, branch.length[
+			int start = helper.getSequenceFromId(id, branch);
+
+			//Generating a set of all the items from sequence
+			avoidStamp++;
+			if(avoidStamp == Integer.MAX_VALUE) {
+				Arrays.fill(toAvoid, 0);
+				avoidStamp = 1;
+			}
+			int toAvoidSize = 0;
+			for(int i = 0; i < length; i++) {
+				if(toAvoid[sequence[i]] != avoidStamp) {
+					toAvoid[sequence[i]] = avoidStamp;
+					toAvoidSize++;
+				}
+			}
+
+			//Updating this CountTable with the items that are in the branch after
+			//all the items from sequence have appeared at least once
+			int max = 99; //used to limit the number of items to push in the count table
+			int count = 1; //current number of items already pushed
+			for(int i = start; i < branch.length; i++) {
+				int item = branch[i];
+				if(toAvoidSize == 0 && count < max) {
+					push(item, cardinality, count);
+					count++;
+				}
+				else if(toAvoid[item] == avoidStamp) {
+					toAvoid[item] = 0;
+					toAvoidSize--;
+				}
+			}
+			//meaning that the count table has been really updated
+			if(count > 1 ) {
+				branchesUsed++;
+			}
+		}
+
+		return branchesUsed;
+	}
+
+	/**
+	 * Return true if this CountTable has a best item, i.e. the highest score is
+	 * clearly above the second highest score (same rule as CountTable.getBestSequence())
+	 */
+	public boolean hasBest() {
+		return scores.hasBest();
+	}
+
+	/**
+	 * Write the best dense items in [out], from the highest score to the lowest,
+	 * ties are broken by the smallest item. Nothing is written if there is no best item (see hasBest()).
+	 * @return the number of items written in out
+	 */
+	public int getBest(int[] out) {
+		return scores.getBest(out);
+	}
+}
@@ -0,0 +1,261 @@
+package ca.ipredict.predictor.CPT.CPTPlus;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded cache of the similar sequences of an item set (see CPTHelper.getSimilarSequencesIds()), shared by the predictions
+ *
+ * The intersection of the bit vectors only depends on the set of items, so an entry is keyed by its dense items
+ * sorted without duplicates (see Key). The entries are in a ConcurrentHashMap, so a hit takes no lock: it only sets
+ * the referenced flag of its entry. The entries are evicted with the CLOCK algorithm (second chance) once they hold more
+ * than the byte budget: put() takes the oldest entries in turn, clears the flag of the referenced ones and evicts the first
+ * one that was not referenced since its last turn. The cache can be shared by the threads predicting with the same model,
+ * it has to be cleared whenever the model changes.
+ */
+public class IntersectionCache {
+
+	/**
+	 * Estimated size in bytes of an entry without its items and its bit vector
+	 */
+	private static final int ENTRY_OVERHEAD = 64;
+
+	private final ConcurrentHashMap<Key, Entry> entries;
+	private final long capacity;
+
+	/**
+	 * Entries in the order of the clock hand, the next one to be considered for eviction first.
+	 * It is only used by put() and clear(), which lock it.
+	 */
+	private final ArrayDeque<Entry> clock;
+	private volatile long bytes;
+
+	private final LongAdder hits;
+	private final LongAdder misses;
+
+	/**
+	 * @param capacity Budget in bytes of the cached bit vectors and their keys
+	 */
+	public IntersectionCache(long capacity) {
+		this.capacity = capacity;
+		entries = new ConcurrentHashMap<Key, Entry>();
+		clock = new ArrayDeque<Entry>();
+		bytes = 0;
+		hits = new LongAdder();
+		misses = new LongAdder();
+	}
+
+	/**
+	 * Return the cached similar sequences of the item set of [key] or null, the result must not be modified
+	 */
+	public Bitvector get(Key key) {
+		Entry entry = entries.get(key);
+		if(entry == null) {
+			misses.increment();
+			return null;
+		}
+		//the flag is only written when it changes, so that the hits on an entry do not keep writing to it
+		if(entry.referenced == false) {
+			entry.referenced = true;
+		}
+		hits.increment();
+		return entry.ids;
+	}
+
+	/**
+	 * Cache a copy of the similar sequences of the item set of [key], [key] can be reused afterwards
+	 */
+	public void put(Key key, Bitvector ids) {
+
+		//the cardinality is computed before sharing the copy, so that reading it does not modify it
+		Bitvector copy = new Bitvector();
+		copy.copy(ids);
+		copy.cardinality();
+		Entry entry = new Entry(key.copy(), copy, ENTRY_OVERHEAD + 4 * key.length + copy.memoryUsage());
+		if(entry.bytes > capacity) {
+			return;
+		}
+
+		synchronized(clock) {
+			if(entries.putIfAbsent(entry.key, entry) != null) {
+				return;
+			}
+			clock.addLast(entry);
+			long total = bytes + entry.bytes;
+
+			//evicting the entries that were not referenced since the clock hand last passed them
+			while(total > capacity) {
+				Entry oldest = clock.pollFirst();
+				if(oldest.referenced) {
+					oldest.referenced = false;
+					clock.addLast(oldest);
+				}
+				else {
+					entries.remove(oldest.key);
+					total -= oldest.bytes;
+				}
+			}
+			bytes = total;
+		}
+	}
+
+	/**
+	 * Remove every entry, the hits and the misses are kept
+	 */
+	public void clear() {
+		synchronized(clock) {
+			entries.clear();
+			clock.clear();
+			bytes = 0;
+		}
+	}
+
+	public long capacity() {
+		return capacity;
+	}
+
+	public long getHits() {
+		return hits.sum();
+	}
+
+	public long getMisses() {
+		return misses.sum();
+	}
+
+	/**
+	 * Ratio of the lookups that found their entry, 0 without any lookup
+	 */
+	public double getHitRatio() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return (lookups == 0) ? 0d : (double) hits / lookups;
+	}
+
+	/**
+	 * Number of cached entries
+	 */
+	public int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Estimated size in bytes of the cached entries
+	 */
+	public long memoryUsage() {
+		return bytes;
+	}
+
+	@Override
+	public String toString() {
+		return String.format("%d entries, %d bytes, hit ratio %.3f (%d hits, %d misses)", size(), memoryUsage(), getHitRatio(), getHits(), getMisses());
+	}
+
+	private static class Entry {
+
+		final Key key;
+		final Bitvector ids;
+		final long bytes;
+
+		/**
+		 * Set by the hits, cleared when the clock hand passes the entry
+		 */
+		volatile boolean referenced;
+
+		Entry(Key key, Bitvector ids, long bytes) {
+			this.key = key;
+			this.ids = ids;
+			this.bytes = bytes;
+		}
+	}
+
+	/**
+	 * Set of dense items, sorted without duplicates.
+	 * A key can be reused for the lookups of one thread, the cache stores its own copy (see put()).
+	 */
+	public static class Key {
+
+		private int[] items;
+		private int length;
+		private int hash;
+
+		public Key() {
+			items = new int[16];
+		}
+
+		/**
+		 * Use the set of the first [length] dense items of [sequence]
+		 */
+		public Key set(int[] sequence, int length) {
+			if(items.length < length) {
+				items = new int[length];
+			}
+
+			//insertion sort, skipping the duplicates
+			this.length = 0;
+			for(int i = 0; i < length; i++) {
+				int item = sequence[i];
+				int j = this.length - 1;
+				while(j >= 0 && items[j] > item) {
+					j--;
+				}
+				if(j >= 0 && items[j] == item) {
+					continue;
+				}
+				System.arraycopy(items, j + 1, items, j + 2, this.length - j - 1);
+				items[j + 1] = item;
+				this.length++;
+			}
+
+			hash = 1;
+			for(int i = 0; i < this.length; i++) {
+				hash = 31 * hash + items[i];
+			}
+			//mixing the bits, so that close item sets are spread over the table
+			hash ^= (hash >>> 16);
+			hash *= 0x85ebca6b;
+			hash ^= (hash >>> 13);
+			hash *= 0xc2b2ae35;
+			hash ^= (hash >>> 16);
+			return this;
+		}
+
+		/**
+		 * Number of distinct items
+		 */
+		public int length() {
+			return length;
+		}
+
+		private Key copy() {
+			Key copy = new Key();
+			copy.items = Arrays.copyOf(items, length);
+			copy.length = length;
+			copy.hash = hash;
+			return copy;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(other instanceof Key == false) {
+				return false;
+			}
+			Key key = (Key) other;
+			if(key.hash != hash || key.length != length) {
+				return false;
+			}
+			for(int i = 0; i < length; i++) {
+				if(key.items[i] != items[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+}
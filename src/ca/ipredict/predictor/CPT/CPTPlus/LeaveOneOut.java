@@ -0,0 +1,157 @@
+package ca.ipredict.predictor.CPT.CPTPlus;
+
+/**
+ * Intersections of the bit vectors of a sequence without one of its items
+ *
+ * The noise reduction of CPT+ removes the items of a sequence one at a time, each candidate needs
+ * the AND of the bit vectors of every other item. The items are sorted by increasing cardinality and the ANDs of
+ * the prefixes of this order are shared by the candidates: the intersection without the item of rank r starts
+ * from prefix[r], then the items after it are added from the smallest until the intersection is empty.
+ * An empty prefix makes every candidate of a higher rank empty without any operation.
+ * The bit vectors are reused from one sequence to the next.
+ */
+public class LeaveOneOut {
+
+	private static final Bitvector EMPTY = new Bitvector();
+
+	/**
+	 * Bit vectors of the items of the sequence by increasing cardinality, position of each rank and rank of each position
+	 */
+	private Bitvector[] sorted;
+	private int[] positions;
+	private int[] ranks;
+
+	/**
+	 * prefix[i] is the AND of sorted[0, i[ for i in [1, prefixCount],
+	 * it can be an entry of the inverted index or EMPTY so it must not be modified
+	 */
+	private Bitvector[] prefix;
+	private int prefixCount;
+
+	/**
+	 * Storage of the prefixes that are computed
+	 */
+	private Bitvector[] prefixStorage;
+
+	private Bitvector result;
+	private int length;
+
+	public LeaveOneOut() {
+		ensureCapacity(16);
+		result = new Bitvector();
+	}
+
+	/**
+	 * Make sure that a sequence of the given length can be prepared
+	 */
+	public void ensureCapacity(int length) {
+		if(prefix == null || prefix.length < length + 1) {
+			sorted = new Bitvector[length];
+			positions = new int[length];
+			ranks = new int[length];
+			prefix = new Bitvector[length + 1];
+			prefixStorage = new Bitvector[length + 1];
+			for(int i = 0; i <= length; i++) {
+				prefixStorage[i] = new Bitvector();
+			}
+		}
+	}
+
+	/**
+	 * Start the candidates of a new sequence
+	 * @param sequence The dense items of the sequence
+	 * @param length Number of items to use from sequence
+	 * @param II Bit vector of each dense item
+	 */
+	public void prepare(int[] sequence, int length, Bitvector[] II) {
+		ensureCapacity(length);
+		this.length = length;
+
+		//stable insertion sort of the positions by increasing cardinality
+		for(int i = 0; i < length; i++) {
+			int cardinality = II[sequence[i]].cardinality();
+			int j = i - 1;
+			while(j >= 0 && sorted[j].cardinality() > cardinality) {
+				sorted[j + 1] = sorted[j];
+				positions[j + 1] = positions[j];
+				j--;
+			}
+			sorted[j + 1] = II[sequence[i]];
+			positions[j + 1] = i;
+		}
+		for(int rank = 0; rank < length; rank++) {
+			ranks[positions[rank]] = rank;
+		}
+		prefixCount = 0;
+	}
+
+	/**
+	 * Return the intersection of the bit vectors of the prepared sequence without the item at [position].
+	 * The result must not be modified, it is valid until the next call of prepare() or without().
+	 * @return the intersection or null if the sequence has no other item
+	 */
+	public Bitvector without(int position) {
+		if(length < 2) {
+			return null;
+		}
+		int rank = ranks[position];
+
+		//the items before this one in the order of cardinality
+		Bitvector before = (rank > 0) ? prefix(rank) : null;
+		if(before == EMPTY || rank == length - 1) {
+			return before;
+		}
+
+		//the items after this one, from the smallest, until the intersection is empty
+		int i = rank + 1;
+		if(before == null) {
+			before = sorted[i++];
+		}
+		if(i == length) {
+			return before;
+		}
+		Bitvector intersection = and(result, before, sorted[i++]);
+		while(i < length && intersection != EMPTY) {
+			if(intersection.intersects(sorted[i]) == false) {
+				return EMPTY;
+			}
+			intersection.and(sorted[i++]);
+		}
+		return intersection;
+	}
+
+	/**
+	 * Return prefix[end], computing the missing prefixes
+	 */
+	private Bitvector prefix(int end) {
+		if(prefixCount == 0) {
+			prefix[1] = sorted[0];
+			prefixCount = 1;
+		}
+		while(prefixCount < end) {
+			Bitvector last = prefix[prefixCount];
+			if(last != EMPTY) {
+				last = and(prefixStorage[prefixCount + 1], last, sorted[prefixCount]);
+			}
+			prefix[++prefixCount] = last;
+		}
+		return prefix[end];
+	}
+
+	/**
+	 * Store the AND of two bit vectors in [target], starting with the smallest one
+	 * @return target, or EMPTY if the AND is empty (nothing is stored then)
+	 */
+	private static Bitvector and(Bitvector target, Bitvector a, Bitvector b) {
+		if(a.intersects(b) == false) {
+			return EMPTY;
+		}
+		if(a.cardinality() <= b.cardinality()) {
+			target.and(a, b);
+		}
+		else {
+			target.and(b, a);
+		}
+		return target;
+	}
+}
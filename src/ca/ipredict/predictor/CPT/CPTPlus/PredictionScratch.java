@@ -0,0 +1,54 @@
+package ca.ipredict.predictor.CPT.CPTPlus;
+
+/**
+ * Reusable buffers of CPTPlusPredictor.predict(int[], int[]) and of CPTPlusPredictor.Predict()
+ * They are sized for a given trained model and grow with the longest context seen.
+ */
+public class PredictionScratch {
+
+	public IntCountTable countTable;
+	public CandidateQueue queue;
+	public LeaveOneOut leaveOneOut;
+
+	/**
+	 * CountTable of CPTPlusPredictor.Predict()
+	 */
+	public CountTable sequenceCountTable;
+
+	/**
+	 * Intersection of the bit vectors of a candidate and its key in the IntersectionCache
+	 */
+	public Bitvector intersection;
+	public IntersectionCache.Key cacheKey;
+
+	/**
+	 * Context as dense items, candidate under construction, its parent and its noisy items
+	 */
+	public int[] target;
+	public int[] candidate;
+	public int[] parent;
+	public int[] noises;
+
+	public PredictionScratch(CPTPlusPredictor predictor) {
+		countTable = new IntCountTable(predictor);
+		queue = new CandidateQueue();
+		leaveOneOut = new LeaveOneOut();
+		sequenceCountTable = new CountTable(predictor.helper);
+		intersection = new Bitvector();
+		cacheKey = new IntersectionCache.Key();
+		ensureCapacity(16);
+	}
+
+	/**
+	 * Make sure that the buffers can hold a context of the given length
+	 */
+	public void ensureCapacity(int length) {
+		if(target == null || target.length < length) {
+			target = new int[length];
+			candidate = new int[length];
+			parent = new int[length];
+			noises = new int[length];
+			leaveOneOut.ensureCapacity(length);
+		}
+	}
+}
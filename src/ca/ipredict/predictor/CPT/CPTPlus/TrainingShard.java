@@ -0,0 +1,146 @@
+package ca.ipredict.predictor.CPT.CPTPlus;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import ca.ipredict.database.Item;
+import ca.ipredict.database.Sequence;
+
+/**
+ * Prediction Tree, Lookup Table and Inverted Index of a range of training sequences
+ *
+ * CPTPlusPredictor.Train() builds a single shard with all the sequences, or several shards
+ * of consecutive sequence ids in parallel (see the "trainShards" parameter) that are then merged in order.
+ * Merging the shards in the order of their sequence ids gives the same tree (including the order of the children)
+ * as inserting all the sequences in a single shard.
+ */
+public class TrainingShard {
+
+	public PredictionTree Root;
+	public Map<Integer, PredictionTree> LT;
+	public Map<Integer, Bitvector> II;
+
+	/**
+	 * number of node in the prediction tree
+	 */
+	public long nodeNumber;
+
+	private Encoder encoder;
+	private boolean compressed;
+
+	/**
+	 * @param encoder Encoder of the sequences, it is only read
+	 * @param compressed True to use compressed bit vectors in the Inverted Index
+	 */
+	public TrainingShard(Encoder encoder, boolean compressed) {
+		this.encoder = encoder;
+		this.compressed = compressed;
+		Root = new PredictionTree();
+		LT = new HashMap<Integer, PredictionTree>();
+		II = new HashMap<Integer, Bitvector>();
+		nodeNumber = 0;
+	}
+
+	/**
+	 * Insert an encoded sequence in the Prediction Tree, the Lookup Table and the Inverted Index
+	 * @param seqId Id of the sequence
+	 * @param seqCompressed Encoded sequence
+	 */
+	public void insert(int seqId, Sequence seqCompressed) {
+
+		//resetting node pointer to root node
+		PredictionTree curNode = Root;
+
+		//for each item in the compressed sequence
+		for(Item itemCompressed : seqCompressed.getItems()) {
+
+			//decoding the current item the encoded sequence
+			List<Item> itemset = encoder.getEntry(itemCompressed.val);
+
+			//II update
+			for(Item item : itemset) {
+
+				//adding the item in the Inverted Index if needed
+				if(II.containsKey(item.val) == false) {
+					Bitvector tmpBitset = new Bitvector(compressed);
+					II.put(item.val, tmpBitset);
+				}
+
+				//updating Inverted Index with seqId for this Item
+				II.get(item.val).setBit(seqId);
+			}
+
+			//if this itemCompressed is not a child of the current node, we add him
+			if(curNode.hasChild(itemCompressed) == false) {
+				curNode.addChild(itemCompressed);
+				nodeNumber++;
+				curNode = curNode.getChild(itemCompressed);
+			}
+			//if this itemCompressed is already a child of the current node
+			else {
+				curNode = curNode.getChild(itemCompressed);
+			}
+		}
+
+		//adding the sequence id in the Lookup Table
+		LT.put(seqId, curNode); //adding <sequence id, last node in sequence>
+	}
+
+	/**
+	 * Merge a shard into this one, all its sequence ids have to be greater than the ones of this shard.
+	 * The nodes of the other shard are moved to this shard, so it cannot be used anymore.
+	 * @param other The shard to merge
+	 * @param firstId The first sequence id of the other shard
+	 * @param lastId The last sequence id (excluded) of the other shard
+	 */
+	public void merge(TrainingShard other, int firstId, int lastId) {
+
+		//nodes of the other tree that already exist in this tree
+		IdentityHashMap<PredictionTree, PredictionTree> merged = new IdentityHashMap<PredictionTree, PredictionTree>();
+
+		//pairs of nodes (this tree, other tree) to merge, starting with the roots
+		ArrayDeque<PredictionTree[]> stack = new ArrayDeque<PredictionTree[]>();
+		stack.push(new PredictionTree[] {Root, other.Root});
+		merged.put(other.Root, Root);
+		while(stack.isEmpty() == false) {
+			PredictionTree[] pair = stack.pop();
+			PredictionTree target = pair[0];
+
+			//the children of the other node are appended after the existing children of the node
+			//like they would be if their sequences were inserted after the sequences of this shard
+			for(PredictionTree child : pair[1].getChildren()) {
+				PredictionTree existing = target.getChild(child.Item);
+				if(existing == null) {
+					target.addChild(child);
+				}
+				else {
+					merged.put(child, existing);
+					stack.push(new PredictionTree[] {existing, child});
+				}
+			}
+		}
+		nodeNumber += other.nodeNumber - (merged.size() - 1);
+
+		//Lookup Table, the leaves of the merged nodes are replaced by the existing nodes
+		for(int seqId = firstId; seqId < lastId; seqId++) {
+			PredictionTree leaf = other.LT.get(seqId);
+			PredictionTree existing = merged.get(leaf);
+			LT.put(seqId, (existing != null) ? existing : leaf);
+		}
+
+		//Inverted Index
+		for(Entry<Integer, Bitvector> entry : other.II.entrySet()) {
+			Bitvector bitvector = II.get(entry.getKey());
+			if(bitvector == null) {
+				II.put(entry.getKey(), entry.getValue());
+			}
+			else {
+				bitvector.or(entry.getValue());
+			}
+		}
+	}
+}
@@ -0,0 +1,379 @@
+package ca.ipredict.predictor;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import ca.ipredict.database.Item;
+import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
+
+/**
+ * Cache of the predictions of another predictor
+ *
+ * A prediction is cached with the normalized context of its sequence: the last "cacheWindow" items of the sequence
+ * (all of them with 0), normalized by the predictor (see Predictor.normalize()), so the sequences that differ by items
+ * the predictor ignores share their entry. The values of the predicted items are stored in place of the Sequence.
+ *
+ * The entries are spread over segments by the hash of their context, each segment is a LinkedHashMap in access order
+ * that evicts its least recently used entries once it holds more than its share of the "cacheSize" budget (in bytes).
+ * With "cacheAdmission", a context is only cached on its second miss: a doorkeeper remembers the hashes of the contexts
+ * that missed once, so the contexts seen a single time do not evict the frequent ones.
+ * A segment is locked while it is used, so the cache can be shared by several threads like the predictor itself.
+ *
+ * The cache is emptied when the predictor is trained or read through this class, or when the version of its model changes
+ * (see Predictor.getModelVersion()), e.g. after an update().
+ */
+public class CachedPredictor extends Predictor {
+
+	private static final int SEGMENTS = 16;
+	private static final int SEGMENT_SHIFT = 28;
+
+	/**
+	 * Estimated size in bytes of an entry without its items
+	 */
+	private static final int ENTRY_OVERHEAD = 96;
+
+	/**
+	 * Number of bits of the doorkeeper of a segment, it is emptied once it has recorded a quarter of them
+	 */
+	private static final int DOORKEEPER_BITS = 1 << 15;
+
+	/**
+	 * Budget in bytes of the cached predictions (default value)
+	 */
+	private int cacheSize = 4000000;
+
+	/**
+	 * Number of items of the sequence used by the predictions, 0 for all of them (default value)
+	 */
+	private int cacheWindow = 0;
+
+	/**
+	 * Only cache a context on its second miss (default value)
+	 */
+	private boolean cacheAdmission = true;
+
+	private final Predictor predictor;
+
+	public Paramable parameters;
+
+	private Segment[] segments;
+	private int window;
+	private boolean admission;
+
+	/**
+	 * Version of the model of the cached predictions
+	 */
+	private volatile long version;
+
+	public CachedPredictor(Predictor predictor) {
+		this(predictor.getTAG(), predictor);
+	}
+
+	public CachedPredictor(String tag, Predictor predictor) {
+		TAG = tag;
+		this.predictor = predictor;
+		parameters = new Paramable();
+		version = predictor.getModelVersion();
+		reset();
+	}
+
+	public CachedPredictor(String tag, Predictor predictor, String params) {
+		this(tag, predictor);
+		parameters.setParameter(params);
+		reset();
+	}
+
+	/**
+	 * Empty the cache and read its parameters, the hits and the misses are kept
+	 */
+	private void reset() {
+
+		window = parameters.paramIntOrDefault("cacheWindow", cacheWindow);
+		admission = parameters.paramBoolOrDefault("cacheAdmission", cacheAdmission);
+		long capacity = parameters.paramIntOrDefault("cacheSize", cacheSize);
+
+		Segment[] previous = segments;
+		segments = new Segment[SEGMENTS];
+		for(int i = 0; i < SEGMENTS; i++) {
+			segments[i] = new Segment(capacity / SEGMENTS);
+			if(previous != null) {
+				segments[i].hits = previous[i].hits;
+				segments[i].misses = previous[i].misses;
+			}
+		}
+	}
+
+	/**
+	 * Return the predictor whose predictions are cached
+	 */
+	public Predictor getPredictor() {
+		return predictor;
+	}
+
+	@Override
+	public Boolean Train(List<Sequence> trainingSequences) {
+		Boolean trained = predictor.Train(trainingSequences);
+		version = predictor.getModelVersion();
+		reset();
+		return trained;
+	}
+
+	@Override
+	public Sequence normalize(Sequence target) {
+		if(window > 0 && target.size() > window) {
+			target = target.getLastItems(window, 0);
+		}
+		return predictor.normalize(target);
+	}
+
+	@Override
+	public Sequence Predict(Sequence target) {
+
+		//the model has changed since the predictions were cached
+		long modelVersion = predictor.getModelVersion();
+		if(modelVersion != version) {
+			synchronized(this) {
+				if(modelVersion != version) {
+					reset();
+					version = modelVersion;
+				}
+			}
+		}
+		Segment[] segments = this.segments;
+
+		if(window > 0 && target.size() > window) {
+			target = target.getLastItems(window, 0);
+		}
+		Context context = new Context(predictor.normalize(target));
+		Segment segment = segments[context.hash >>> SEGMENT_SHIFT];
+
+		Integer[] items;
+		synchronized(segment) {
+			items = segment.entries.get(context);
+			if(items != null) {
+				segment.hits++;
+			}
+			else {
+				segment.misses++;
+			}
+		}
+
+		if(items == null) {
+			Sequence predicted = predictor.Predict(target);
+			items = new Integer[predicted.size()];
+			for(int i = 0; i < items.length; i++) {
+				items[i] = predicted.get(i).val;
+			}
+			segment.put(context, items, admission);
+		}
+
+		Sequence predicted = new Sequence(-1);
+		for(Integer item : items) {
+			predicted.addItem(new Item(item));
+		}
+		return predicted;
+	}
+
+	@Override
+	public void writeSnapshot(SnapshotWriter out) throws IOException {
+		predictor.writeSnapshot(out);
+	}
+
+	@Override
+	public void readSnapshot(SnapshotReader in) throws IOException {
+		predictor.readSnapshot(in);
+		version = predictor.getModelVersion();
+		reset();
+	}
+
+	@Override
+	public String getErrorBounds() {
+		return predictor.getErrorBounds();
+	}
+
+	@Override
+	public long size() {
+		return predictor.size();
+	}
+
+	/**
+	 * Size of the model of the predictor, without the cached predictions (see getCacheMemoryUsage())
+	 */
+	@Override
+	public float memoryUsage() {
+		return predictor.memoryUsage();
+	}
+
+	public long getHits() {
+		long hits = 0;
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				hits += segment.hits;
+			}
+		}
+		return hits;
+	}
+
+	public long getMisses() {
+		long misses = 0;
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				misses += segment.misses;
+			}
+		}
+		return misses;
+	}
+
+	/**
+	 * Ratio of the predictions that were found in the cache, 0 without any prediction
+	 */
+	public double getHitRatio() {
+		long hits = getHits();
+		long lookups = hits + getMisses();
+		return (lookups == 0) ? 0d : (double) hits / lookups;
+	}
+
+	/**
+	 * Reset the hits and the misses, the cached predictions are kept
+	 */
+	public void resetStats() {
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				segment.hits = 0;
+				segment.misses = 0;
+			}
+		}
+	}
+
+	/**
+	 * Number of cached predictions
+	 */
+	public int getCacheCount() {
+		int count = 0;
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				count += segment.entries.size();
+			}
+		}
+		return count;
+	}
+
+	/**
+	 * Estimated size in bytes of the cached predictions
+	 */
+	public long getCacheMemoryUsage() {
+		long bytes = 0;
+		for(Segment segment : segments) {
+			synchronized(segment) {
+				bytes += segment.bytes;
+			}
+		}
+		return bytes;
+	}
+
+	/**
+	 * Describe the hit ratio and the content of the cache
+	 */
+	public String getCacheStats() {
+		return String.format("hit ratio %.3f (%d hits, %d misses), %d predictions in %d bytes",
+				getHitRatio(), getHits(), getMisses(), getCacheCount(), getCacheMemoryUsage());
+	}
+
+	private static class Segment {
+
+		final LinkedHashMap<Context, Integer[]> entries = new LinkedHashMap<Context, Integer[]>(16, 0.75f, true);
+		final long capacity;
+		long bytes;
+		long hits;
+		long misses;
+
+		//hashes of the contexts that missed once
+		final long[] doorkeeper = new long[DOORKEEPER_BITS / 64];
+		int doorkeeperCount;
+
+		Segment(long capacity) {
+			this.capacity = capacity;
+		}
+
+		/**
+		 * Cache the prediction of a context, with the admission policy only once the context has missed twice
+		 */
+		synchronized void put(Context context, Integer[] items, boolean admission) {
+
+			long bytes = ENTRY_OVERHEAD + 4 * (context.items.length + items.length);
+			if(bytes > capacity || entries.containsKey(context)) {
+				return;
+			}
+
+			//recording the first miss in the doorkeeper, it is emptied once a quarter of its bits are used
+			if(admission) {
+				int bit = context.hash & (DOORKEEPER_BITS - 1);
+				if((doorkeeper[bit >>> 6] & (1L << bit)) == 0) {
+					doorkeeper[bit >>> 6] |= (1L << bit);
+					if(++doorkeeperCount == DOORKEEPER_BITS / 4) {
+						Arrays.fill(doorkeeper, 0L);
+						doorkeeperCount = 0;
+					}
+					return;
+				}
+			}
+
+			entries.put(context, items);
+			this.bytes += bytes;
+
+			//evicting the least recently used entries
+			Iterator<Map.Entry<Context, Integer[]>> iterator = entries.entrySet().iterator();
+			while(this.bytes > capacity) {
+				Map.Entry<Context, Integer[]> eldest = iterator.next();
+				this.bytes -= ENTRY_OVERHEAD + 4 * (eldest.getKey().items.length + eldest.getValue().length);
+				iterator.remove();
+			}
+		}
+	}
+
+	/**
+	 * Items of a normalized sequence, with their hash
+	 */
+	private static class Context {
+
+		final int[] items;
+		final int hash;
+
+		Context(Sequence sequence) {
+			items = new int[sequence.size()];
+			int hash = 1;
+			for(int i = 0; i < items.length; i++) {
+				items[i] = sequence.get(i).val;
+				hash = 31 * hash + items[i];
+			}
+
+			//mixing the bits since the segment is given by the high bits
+			hash ^= (hash >>> 16);
+			hash *= 0x85ebca6b;
+			hash ^= (hash >>> 13);
+			hash *= 0xc2b2ae35;
+			hash ^= (hash >>> 16);
+			this.hash = hash;
+		}
+
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+
+		@Override
+		public boolean equals(Object other) {
+			if(other instanceof Context == false) {
+				return false;
+			}
+			Context context = (Context) other;
+			return context.hash == hash && Arrays.equals(context.items, items);
+		}
+	}
+}
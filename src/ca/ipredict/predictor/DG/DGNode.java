@@ -1,53 +1,146 @@
 package ca.ipredict.predictor.DG;
 
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
+
+import ca.ipredict.helpers.IntIntMap;
 
 /**
  * Represents a node in a DG
+ *
+ * While training, the outgoing arcs are kept in insertion order with an open addressing index from their destination.
+ * Once trained, freeze() sorts them by destination, drops the index and keeps the best arc with its confidence,
+ * so a prediction does not look at the arcs.
  */
 public class DGNode implements Serializable {
 
 	private static final long serialVersionUID = 7718487181871055891L;
-	
+
 	public int value; //value of this node
-	public List<DGArc> arcs; //list of outgoing arcs from this node
 	public int totalSupport;
 
 	public int numberOfArcs;
-	
+
+	//outgoing arcs from this node
+	private int[] destinations;
+	private int[] supports;
+	private IntIntMap arcIndex; //destination -> arc, null once frozen
+
+	/**
+	 * Destination of the arc with the highest support, the first created one on ties
+	 */
+	private int best;
+
+	/**
+	 * Support of the best arc relative to the support of this node
+	 */
+	private double confidence;
+
 	public DGNode(int value) {
 		this.value = value;
-		arcs = new ArrayList<DGArc>();
 		totalSupport = 0;
+		numberOfArcs = 0;
+		destinations = new int[2];
+		supports = new int[2];
+		arcIndex = new IntIntMap();
 	}
-	
+
+	/**
+	 * Create a frozen node (see freeze())
+	 * @param destinations Destinations of the arcs, sorted
+	 * @param supports Support of each arc
+	 * @param best Destination of the best arc
+	 */
+	public DGNode(int value, int totalSupport, int[] destinations, int[] supports, int best) {
+		this.value = value;
+		this.totalSupport = totalSupport;
+		this.destinations = destinations;
+		this.supports = supports;
+		this.best = best;
+		numberOfArcs = destinations.length;
+		int i = Arrays.binarySearch(destinations, best);
+		confidence = (i >= 0) ? ((double) supports[i]) / totalSupport : 0;
+	}
+
 	/**
 	 * Returns the number of transition for this state - not the support
 	 */
 	public int getArcCount() {
-		return arcs.size();
+		return numberOfArcs;
+	}
+
+	public int getDestination(int i) {
+		return destinations[i];
+	}
+
+	public int getSupport(int i) {
+		return supports[i];
 	}
-	
+
 	/**
 	 * Update or create an arc from this node to another one (target)
 	 * @param target node to link
 	 */
 	public void UpdOrAddArc(int target) {
-		
-		//Searching for an existing arc in the arc list
-		boolean isFound = false;
-		for(DGArc arc : arcs) {
-			if(arc.dest == target) {
-				arc.support++;
-				isFound = true;
-			}	
+
+		//Searching for an existing arc in the arc index
+		int arc = arcIndex.get(target, -1);
+		if(arc >= 0) {
+			supports[arc]++;
+			return;
 		}
-		
+
 		//if no matching arc, creates one
-		if(isFound == false) {
-			arcs.add(new DGArc(target));
+		if(numberOfArcs == destinations.length) {
+			destinations = Arrays.copyOf(destinations, numberOfArcs * 2);
+			supports = Arrays.copyOf(supports, numberOfArcs * 2);
+		}
+		destinations[numberOfArcs] = target;
+		supports[numberOfArcs] = 1;
+		arcIndex.put(target, numberOfArcs);
+		numberOfArcs++;
+	}
+
+	/**
+	 * End the training of this node: the best arc is found and the arcs are sorted by destination
+	 */
+	public void freeze() {
+
+		int bestArc = 0;
+		for(int i = 1; i < numberOfArcs; i++) {
+			if(supports[i] > supports[bestArc]) {
+				bestArc = i;
+			}
+		}
+		best = (numberOfArcs > 0) ? destinations[bestArc] : 0;
+		confidence = (numberOfArcs > 0) ? ((double) supports[bestArc]) / totalSupport : 0;
+
+		//sorting the arcs by destination, the destinations are distinct
+		long[] arcs = new long[numberOfArcs];
+		for(int i = 0; i < numberOfArcs; i++) {
+			arcs[i] = ((long) destinations[i] << 32) | (supports[i] & 0xFFFFFFFFL);
+		}
+		Arrays.sort(arcs);
+		destinations = new int[numberOfArcs];
+		supports = new int[numberOfArcs];
+		for(int i = 0; i < numberOfArcs; i++) {
+			destinations[i] = (int) (arcs[i] >> 32);
+			supports[i] = (int) arcs[i];
 		}
+		arcIndex = null;
+	}
+
+	/**
+	 * Destination of the arc with the highest support, 0 without arcs
+	 */
+	public int getBest() {
+		return best;
+	}
+
+	/**
+	 * Confidence of the best arc: its support relative to the support of this node
+	 */
+	public double getConfidence() {
+		return confidence;
 	}
 }
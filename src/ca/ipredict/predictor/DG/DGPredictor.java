@@ -1,12 +1,16 @@
 package ca.ipredict.predictor.DG;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.IntIntMap;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
 import ca.ipredict.predictor.Paramable;
 import ca.ipredict.predictor.Predictor;
 
@@ -19,7 +23,8 @@ public class DGPredictor extends Predictor implements Serializable {
 	
 	private static final long serialVersionUID = 4064645372814670495L;
 
-	private HashMap<Integer, DGNode> mDictionary; //link unique items to their node in a DG
+	private IntIntMap mDictionary; //link unique items to their node in a DG
+	private List<DGNode> nodes;
 	
 	public Paramable parameters;
 	
@@ -49,7 +54,8 @@ public class DGPredictor extends Predictor implements Serializable {
 		
 		int w = parameters.paramIntOrDefault("lookahead", lookahead); //Window size parameter
 		
-		mDictionary = new HashMap<Integer, DGNode>();
+		mDictionary = new IntIntMap();
+		nodes = new ArrayList<DGNode>();
 		
 		//For each sequence of the training set
 		for(Sequence seq : trainingSequences) {
@@ -59,10 +65,13 @@ public class DGPredictor extends Predictor implements Serializable {
 			for(int i = 0 ; i < (items.size() - 1); i++) {
 				
 				//Getting or creating the DGNode associated with this item
-				DGNode node = mDictionary.get(items.get(i).val);
-				if(node == null) {
-					node = new DGNode(items.get(i).val);
+				int id = mDictionary.get(items.get(i).val, -1);
+				if(id < 0) {
+					id = nodes.size();
+					nodes.add(new DGNode(items.get(i).val));
+					mDictionary.put(items.get(i).val, id);
 				}
+				DGNode node = nodes.get(id);
 				node.totalSupport++; //incrementing the absolute support of this node
 				
 				//Linking this node with the following w items in the sequence
@@ -70,14 +79,16 @@ public class DGPredictor extends Predictor implements Serializable {
 					
 					node.UpdOrAddArc(items.get(k).val);
 				}
-				
-				//Saving DGNode in the dictionary
-				mDictionary.put(items.get(i).val, node);
 			}
 			
 		}
 		
+		//the best arc of each node is known once all the sequences are seen
+		for(DGNode node : nodes) {
+			node.freeze();
+		}
 		
+		modelChanged();
 		return null;
 	}
 
@@ -93,7 +104,8 @@ public class DGPredictor extends Predictor implements Serializable {
 
 			//Getting the DGNode
 			Item lastItem = target.get(target.size() - (1 + offset)); 
-			node = mDictionary.get(lastItem.val);
+			int id = mDictionary.get(lastItem.val, -1);
+			node = (id >= 0) ? nodes.get(id) : null;
 		}
 		
 		//if no match, then return an empty sequence
@@ -102,20 +114,9 @@ public class DGPredictor extends Predictor implements Serializable {
 		}
 		
 		
-		//Getting the best item (the one with the highest score)
-		double max = 0;
-		int best = 0;
-		for(DGArc arc : node.arcs) {
-			
-			//Calculating the score for this arc
-			double score = ((double)arc.support) / node.totalSupport;
-			
-			//Testing against threshold and the max score
-			if(score >= threshold && score > max) {
-				max = score;
-				best = arc.dest;
-			}
-		}
+		//Getting the best item (the one with the highest score), precomputed by DGNode.freeze()
+		//and testing it against the threshold
+		int best = (node.getConfidence() >= threshold) ? node.getBest() : 0;
 		
 		if(best == 0) {
 			return new Sequence(-1); 
@@ -128,11 +129,81 @@ public class DGPredictor extends Predictor implements Serializable {
 		return predicted;
 	}
 
+	/**
+	 * Write the trained model, the nodes, their best arc and their arcs are written as arrays
+	 */
+	@Override
+	public void writeSnapshot(SnapshotWriter out) throws IOException {
+		
+		out.writeString(TAG);
+		parameters.write(out);
+		
+		int[] values = new int[nodes.size()];
+		int[] supports = new int[values.length];
+		int[] bests = new int[values.length];
+		int[] arcCounts = new int[values.length];
+		int arcTotal = 0;
+		int i = 0;
+		for(DGNode node : nodes) {
+			values[i] = node.value;
+			supports[i] = node.totalSupport;
+			bests[i] = node.getBest();
+			arcCounts[i] = node.getArcCount();
+			arcTotal += arcCounts[i];
+			i++;
+		}
+		
+		//the arcs of all the nodes one after the other
+		int[] destinations = new int[arcTotal];
+		int[] arcSupports = new int[arcTotal];
+		int j = 0;
+		for(DGNode node : nodes) {
+			for(int k = 0; k < node.getArcCount(); k++) {
+				destinations[j] = node.getDestination(k);
+				arcSupports[j] = node.getSupport(k);
+				j++;
+			}
+		}
+		
+		out.writeInts(values);
+		out.writeInts(supports);
+		out.writeInts(bests);
+		out.writeInts(arcCounts);
+		out.writeInts(destinations);
+		out.writeInts(arcSupports);
+	}
+	
+	@Override
+	public void readSnapshot(SnapshotReader in) throws IOException {
+		
+		TAG = in.readString();
+		parameters.read(in);
+		
+		int[] values = in.readInts();
+		int[] supports = in.readInts();
+		int[] bests = in.readInts();
+		int[] arcCounts = in.readInts();
+		int[] destinations = in.readInts();
+		int[] arcSupports = in.readInts();
+		
+		mDictionary = new IntIntMap(values.length);
+		nodes = new ArrayList<DGNode>(values.length);
+		int j = 0;
+		for(int i = 0; i < values.length; i++) {
+			int[] nodeDestinations = Arrays.copyOfRange(destinations, j, j + arcCounts[i]);
+			int[] nodeSupports = Arrays.copyOfRange(arcSupports, j, j + arcCounts[i]);
+			j += arcCounts[i];
+			mDictionary.put(values[i], nodes.size());
+			nodes.add(new DGNode(values[i], supports[i], nodeDestinations, nodeSupports, bests[i]));
+		}
+		modelChanged();
+	}
+
 	public long size() {
 		
 		long nodeCount = 0;
 		
-		for(DGNode node : mDictionary.values()) {
+		for(DGNode node : nodes) {
 			nodeCount += 1 + node.getArcCount();
 		}
 		
@@ -144,7 +215,7 @@ public class DGPredictor extends Predictor implements Serializable {
 		
 		float size = 0f;
 		
-		for(DGNode node : mDictionary.values()) {
+		for(DGNode node : nodes) {
 			size += 4 + (8 * node.getArcCount());
 		}
 		
@@ -112,6 +112,13 @@ public class Evaluator {
 			//Creating the statsLogger
 			stats = new StatsLogger(statsColumns, predictorNames, false);
 			
+			//the hit ratio of the caches is measured per dataset
+			for(Predictor predictor : predictors) {
+				if(predictor instanceof CachedPredictor) {
+					((CachedPredictor) predictor).resetStats();
+				}
+			}
+			
 			//Saving current time for across time analysis
 			startTime = System.currentTimeMillis();
 			
@@ -143,6 +150,18 @@ public class Evaluator {
 			
 			if(showResults == true) {
 				System.out.println(stats.toString());
+				
+				//the approximate predictors report their error next to their accuracy and size
+				for(Predictor predictor : predictors) {
+					if(predictor.getErrorBounds() != null) {
+						System.out.println(predictor.getTAG() + " error bounds: " + predictor.getErrorBounds());
+					}
+					
+					//the cached predictors report how many predictions were served by their cache, see their Test Time for the savings
+					if(predictor instanceof CachedPredictor) {
+						System.out.println(predictor.getTAG() + " cache: " + ((CachedPredictor) predictor).getCacheStats());
+					}
+				}
 			}
 		}
 		
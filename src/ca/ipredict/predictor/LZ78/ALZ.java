@@ -1,203 +1,340 @@
 package ca.ipredict.predictor.LZ78;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.IntIntMap;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
 import ca.ipredict.predictor.Predictor;
 
 /**
  * Predictor based on the Active LeZi algorithm
- * 
- * K. Gopalratnam and D. J. Cook. Active Lezi: An incremental parsing algorithm for sequential prediction. 
+ *
+ * K. Gopalratnam and D. J. Cook. Active Lezi: An incremental parsing algorithm for sequential prediction.
  * In Proceedings of the Florida Artiﬁcial Intelligence Research Symposium, 2003.
- * 
- * Not implemented yet
+ *
+ * The items are parsed in LZ78 phrases, the longest phrase gives the length of a sliding window.
+ * For each item, every context of the window ending at this item is counted in a trie (see LZTrie).
+ * The contexts of the window are chained by suffix links, so they are all counted with a single walk.
+ * The model is updated item by item, it can keep learning from new sequences (see update()).
+ * A prediction blends all the orders, from the longest context to the root, with PPM-style escapes.
  */
 public class ALZ extends Predictor implements Serializable {
 
 	private static final long serialVersionUID = -5976132591876875727L;
 
 	/**
-	 * Number of nodes in the predictor
+	 * Trie of the contexts with their counts, the root counts every item
 	 */
-	private int count;
-	
-//	/**
-//	 * Max order of this predictor (defined with the training data in Preload())
-//	 */
-//	private int order;
-	
+	private LZTrie mTrie;
+
+	/**
+	 * Node of the path of each node without its first item, -1 for the root
+	 */
+	private int[] suffixLinks;
+
+	/**
+	 * True for the nodes that are LZ78 phrases
+	 */
+	private boolean[] phrases;
+
 	/**
-	 * Dictionary that maps a LZPhrase to a support
+	 * Length of the longest LZ78 phrase, which is the length of the window
 	 */
-	private HashMap<List<Integer>, LZNode> mDictionary;
-	
-	
+	private int maxPhraseLength;
+
+
 	public ALZ() {
 		TAG = "ALZ";
 	}
-	
+
 	public ALZ(String tag) {
 		TAG = tag;
 	}
-	
+
 	@Override
 	public Boolean Train(List<Sequence> trainingSequences) {
-		
-		
-		mDictionary = new HashMap<List<Integer>, LZNode>();
-
-		LinkedList<Integer> window = new LinkedList<Integer>();
-		int maxWindowLength = 0;
-		
-		
+
+		mTrie = new LZTrie();
+		suffixLinks = new int[16];
+		phrases = new boolean[16];
+		suffixLinks[LZTrie.ROOT] = -1;
+		maxPhraseLength = 0;
+
 		for(Sequence seq : trainingSequences) {
-			
-			List<Item> items = seq.getItems();
-			List<Integer> prefix = new ArrayList<Integer>();
-			List<Integer> lzPhrase = new ArrayList<Integer>();
-			
-			//for each given item in this sequence
-			for(int offset = 0; offset < items.size(); offset++) {
-				
-				
-				//generating the lzPhrase from the prefix and the current item
-				Integer cur = items.get(offset).val;
-				lzPhrase = new ArrayList<Integer>(prefix);
-				lzPhrase.add(cur);
-				
-				
-				//if the dictionary contains this phrase already
-				LZNode node = mDictionary.get(lzPhrase);
-				if(node != null) {
-					
-					//incrementing the support of this phrase
-					node.inc();
-					mDictionary.put(lzPhrase, node);
-			
-					//adding the current node as a child of the prefix
-					if(prefix.size() > 0 && mDictionary.get(prefix) != null) {
-						mDictionary.get(prefix).incChildSupport();
-					}
-					
-					//adding the current item to the prefix
-					prefix.add(cur);
-					
-				}
-				else {
-					
-					//adding the current node as a child of the prefix
-					if(prefix.size() > 0 && mDictionary.get(prefix) != null) {
-						mDictionary.get(prefix).addChild(cur);
-					}
-					
-					//Updating the max order if needed
-					maxWindowLength = (lzPhrase.size() > maxWindowLength) ? lzPhrase.size() : maxWindowLength;
-					
-					//adding this phrase in the dictionary
-					mDictionary.put(lzPhrase, new LZNode(cur));
-					prefix.clear();
-					count++;
-					
-				}
-				
-				
-				
-				//adding the current item to the window,
-				//if the window is too large, it removes the first oldest item
-				window.add(cur);
-				if(window.size() > maxWindowLength) {
-					window.remove(0);
-				}
-				updateFromWindow(window);
-				
-				
-				System.out.println(window);
-				
-			}
+			learn(seq);
 		}
-		
-		
-		
-		return null;
+
+		modelChanged();
+		return true;
 	}
-	
-	
-	private void updateFromWindow(List<Integer> window) {
-	
-		
-		int size = window.size();
-		while(size > 0) {
-			
-			addToDictionnary(window);
-			
-			window = window.subList(1, window.size());
+
+	/**
+	 * Add sequences to the trained model without training it again.
+	 * It must not be called while other threads are predicting with this model.
+	 */
+	public void update(List<Sequence> sequences) {
+
+		//nothing to update yet
+		if(mTrie == null) {
+			Train(sequences);
+			return;
+		}
+
+		for(Sequence seq : sequences) {
+			learn(seq);
 		}
-		
-		
+		modelChanged();
 	}
-	
-	
-	private void addToDictionnary(List<Integer> lzPhrase) {
-		
-		
-		Integer lastItem = lzPhrase.get(lzPhrase.size() - 1);
-		List<Integer> prefix = new LinkedList<Integer>();
-		if(lzPhrase.size() > 1) {
-			prefix = lzPhrase.subList(0, lzPhrase.size() - 1);
+
+	/**
+	 * Add a single sequence to the trained model (see update())
+	 */
+	public void observe(Sequence sequence) {
+		update(Collections.singletonList(sequence));
+	}
+
+	/**
+	 * Parse a sequence and count the contexts of its window, the phrase and the window start empty with each sequence
+	 */
+	private void learn(Sequence seq) {
+
+		int phrase = LZTrie.ROOT; //node of the current phrase
+		int phraseLength = 0;
+		int window = LZTrie.ROOT; //node of the whole window, the longest context ending at the previous item
+		int windowLength = 0;
+
+		//for each given item in this sequence
+		for(Item item : seq.getItems()) {
+
+			int cur = item.val;
+
+			//extending the current phrase if the dictionary contains it already
+			int next = mTrie.getChild(phrase, cur);
+			boolean newPhrase = (next < 0 || phrases[next] == false);
+			if(newPhrase == false) {
+				phrase = next;
+				phraseLength++;
+			}
+			else {
+				//Updating the max order if needed
+				maxPhraseLength = Math.max(maxPhraseLength, phraseLength + 1);
+			}
+
+			//adding the current item to the window,
+			//if the window is too large, it removes the first oldest item
+			if(windowLength == maxPhraseLength) {
+				window = suffixLinks[window];
+				windowLength--;
+			}
+			window = count(window, cur);
+			windowLength++;
+
+			//adding the new phrase in the dictionary, it has been counted as a context of the window
+			if(newPhrase) {
+				phrases[mTrie.getChild(phrase, cur)] = true;
+				phrase = LZTrie.ROOT;
+				phraseLength = 0;
+			}
 		}
-		
-		addToDictionnary(lzPhrase, prefix, lastItem);
 	}
-	
-	
-	private void addToDictionnary(List<Integer> lzPhrase, List<Integer> prefix, Integer lastItem) {
-		
-		
-		//update the prefix childs
-		if(prefix.size() > 0) {
-			
-			if(mDictionary.get(prefix) == null) {
-				mDictionary.put(prefix, new LZNode(prefix.subList(prefix.size() - 1, prefix.size()).get(0)));
-				count++;
+
+	/**
+	 * Count an item after every context of the window: the window followed by the item, then its suffixes down to the item alone.
+	 * The missing nodes are created with their suffix link.
+	 * @param window Node of the window without the item
+	 * @return Node of the window followed by the item
+	 */
+	private int count(int window, int item) {
+
+		int first = -1;
+		int previous = -1;
+		for(int context = window; context >= 0; context = suffixLinks[context]) {
+
+			int child = mTrie.getChild(context, item);
+			if(child < 0) {
+				child = mTrie.addChild(context, item);
+				ensureCapacity(child);
+			}
+			else {
+				mTrie.inc(child);
+			}
+			mTrie.incChildSupport(context);
+
+			//the next context is the suffix of this one
+			if(previous >= 0) {
+				suffixLinks[previous] = child;
+			}
+			else {
+				first = child;
 			}
-			
-			LZNode prefixNode = mDictionary.get(prefix);
-			prefixNode.addChild(lastItem);
+			previous = child;
 		}
-		
-		//adding this phrase in the dictionary
-		mDictionary.put(lzPhrase, new LZNode(lastItem));
+		suffixLinks[previous] = LZTrie.ROOT;
+		mTrie.inc(LZTrie.ROOT);
 
-		count++;
+		return first;
+	}
+
+	private void ensureCapacity(int node) {
+		if(node >= suffixLinks.length) {
+			suffixLinks = Arrays.copyOf(suffixLinks, suffixLinks.length * 2);
+			phrases = Arrays.copyOf(phrases, phrases.length * 2);
+		}
 	}
-	
 
 	@Override
 	public Sequence Predict(Sequence target) {
 
+		//finding the longest context that ends the target in a single pass,
+		//falling back to a shorter context through the suffix links when an item cannot extend it
+		List<Item> items = target.getItems();
+		int context = LZTrie.ROOT;
+		for(int i = Math.max(0, items.size() - maxPhraseLength + 1); i < items.size(); i++) {
+			int item = items.get(i).val;
+			int child = mTrie.getChild(context, item);
+			while(child < 0 && context != LZTrie.ROOT) {
+				context = suffixLinks[context];
+				child = mTrie.getChild(context, item);
+			}
+			context = (child >= 0) ? child : LZTrie.ROOT;
+		}
+
+		//Map each item from the alphabet to its index in scores
+		IntIntMap candidates = new IntIntMap();
+		int[] values = new int[16];
+		double[] scores = new double[16];
+
+		//blending the orders, from the longest context to the root,
+		//the probability of each order is weighted by the escapes of the longer ones
+		double weight = 1d;
+		for(; context >= 0 && weight > 0; context = suffixLinks[context]) {
+
+			int support = mTrie.getSupport(context);
+			for(int i = 0; i < mTrie.getChildCount(context); i++) {
+
+				int child = mTrie.getChildAt(context, i);
+				int value = mTrie.getValue(child);
+				int index = candidates.get(value, -1);
+				if(index < 0) {
+					index = candidates.size();
+					if(index == values.length) {
+						values = Arrays.copyOf(values, index * 2);
+						scores = Arrays.copyOf(scores, index * 2);
+					}
+					values[index] = value;
+					scores[index] = 0d;
+					candidates.put(value, index);
+				}
+				scores[index] += weight * mTrie.getSupport(child) / support;
+			}
+
+			//probability of the escape: the context was not followed by any item
+			weight *= ((double) (support - mTrie.getChildSupport(context))) / support;
+		}
+
+		//generating a prediction from the most probable item, the smallest one on ties
+		double highestScore = 0.0d;
+		int mostProbableItem = -1;
+		for(int index = 0; index < candidates.size(); index++) {
+
+			if(scores[index] > highestScore || (scores[index] == highestScore && values[index] < mostProbableItem)) {
+				highestScore = scores[index];
+				mostProbableItem = values[index];
+			}
+		}
+
+		//returns the resulting sequence, empty without a candidate
+		Sequence predicted = new Sequence(-1);
+		if(mostProbableItem >= 0) {
+			predicted.addItem(new Item(mostProbableItem));
+		}
+		return predicted;
+	}
+
+	/**
+	 * Write the trained model, the nodes of the trie are written in the order of their ids with their suffix link.
+	 */
+	@Override
+	public void writeSnapshot(SnapshotWriter out) throws IOException {
+
+		out.writeString(TAG);
+		out.writeInt(maxPhraseLength);
 
-		//TOBE FIXED: the support in the dictionary does not seems updated right in the updateFromWindow method
-		
-		
-		
-		return null;
+		int nodeCount = mTrie.nodeCount();
+		int[] values = new int[nodeCount];
+		int[] parents = new int[nodeCount];
+		int[] supports = new int[nodeCount];
+		int[] childSupports = new int[nodeCount];
+		int[] flags = new int[nodeCount];
+		for(int node = 0; node < nodeCount; node++) {
+			values[node] = mTrie.getValue(node);
+			parents[node] = mTrie.getParent(node);
+			supports[node] = mTrie.getSupport(node);
+			childSupports[node] = mTrie.getChildSupport(node);
+			flags[node] = phrases[node] ? 1 : 0;
+		}
+
+		out.writeInts(values);
+		out.writeInts(parents);
+		out.writeInts(supports);
+		out.writeInts(childSupports);
+		out.writeInts(suffixLinks, nodeCount);
+		out.writeInts(flags);
 	}
 
+	@Override
+	public void readSnapshot(SnapshotReader in) throws IOException {
+
+		TAG = in.readString();
+		maxPhraseLength = in.readInt();
+
+		int[] values = in.readInts();
+		int[] parents = in.readInts();
+		int[] supports = in.readInts();
+		int[] childSupports = in.readInts();
+		mTrie = LZTrie.build(values, parents, supports, childSupports);
+		suffixLinks = in.readInts();
+		int[] flags = in.readInts();
+		phrases = new boolean[flags.length];
+		for(int node = 0; node < flags.length; node++) {
+			phrases[node] = (flags[node] == 1);
+		}
+		modelChanged();
+	}
+
+	/**
+	 * Number of nodes in the trie, without the root
+	 */
 	@Override
 	public long size() {
-		// TODO Auto-generated method stub
-		return 0;
+		return mTrie.nodeCount() - 1;
+	}
+
+	/**
+	 * There is 4 integer per node (16 bytes) + a list of pointers to the other nodes
+	 */
+	@Override
+	public float memoryUsage() {
+
+		float size = 0f;
+
+		for(int node = 1; node < mTrie.nodeCount(); node++) {
+			size += 16 + (4 * mTrie.getChildCount(node));
+		}
+
+		return size;
 	}
 
-	
 	public static void main(String...args) {
-		
+
 		//abababcdcbdab
 		Sequence s1 = new Sequence(1);
 		s1.addItem(new Item(1));
@@ -213,18 +350,14 @@ public class ALZ extends Predictor implements Serializable {
 		s1.addItem(new Item(4));
 		s1.addItem(new Item(1));
 		s1.addItem(new Item(2));
-		
+
 		LinkedList<Sequence> training = new LinkedList<Sequence>();
 		training.add(s1);
-		
+
 		ALZ alz = new ALZ();
 		alz.Train(training);
-	}
 
-	@Override
-	public float memoryUsage() {
-		// TODO Auto-generated method stub
-		return 0;
+		System.out.println(alz.size());
+		System.out.println(alz.memoryUsage() + " bytes");
 	}
-	
 }
@@ -1,16 +1,16 @@
 package ca.ipredict.predictor.LZ78;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
-import java.util.Map.Entry;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.IntIntMap;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
 import ca.ipredict.predictor.Predictor;
 
 /**
@@ -34,9 +34,9 @@ public class LZ78Predictor extends Predictor implements Serializable {
 	private int order;
 	
 	/**
-	 * Dictionary that maps a LZPhrase to a support
+	 * Trie of the LZ phrases, a phrase is found by walking from the root
 	 */
-	private HashMap<List<Integer>, LZNode> mDictionary;
+	private LZTrie mTrie;
 	
 	
 	public LZ78Predictor() {
@@ -50,134 +50,179 @@ public class LZ78Predictor extends Predictor implements Serializable {
 	@Override
 	public Boolean Train(List<Sequence> trainingSequences) {
 		
-		//TODO: [Reduce spatial size] Implement the mDictionary with a String hash instead of a List<Integer>, see AllKOrderMarkov.
-		mDictionary = new HashMap<List<Integer>, LZNode>();
+		mTrie = new LZTrie();
+		count = 0;
 		order = 0;
 		
 		//for each training sequence
 		for(Sequence seq : trainingSequences) {
 			
-			List<Item> items = seq.getItems();
-			List<Integer> lzPhrase = new ArrayList<Integer>();
-			List<Integer> prefix = new ArrayList<Integer>();
+			//node of the current prefix, the root for an empty prefix
+			int prefix = LZTrie.ROOT;
+			int prefixLength = 0;
 			
 			//for each given item in this sequence
-			int offset = 0;
-			while(offset < items.size()) {
-				
-				//generating the lzPhrase from the prefix and the current item
-				Integer cur = items.get(offset).val;
-				lzPhrase = new ArrayList<Integer>(prefix);
-				lzPhrase.add(cur);
+			for(Item item : seq.getItems()) {
 				
+				//the phrase is the prefix followed by the current item
+				int cur = item.val;
+				int node = mTrie.getChild(prefix, cur);
 				
 				//if the dictionary contains this phrase already
-				LZNode node = mDictionary.get(lzPhrase);
-				if(node != null) {
+				if(node >= 0) {
 					
 					//incrementing the support of this phrase
-					node.inc();
-					mDictionary.put(lzPhrase, node);
+					mTrie.inc(node);
 					
 					//Updating the max order if needed
-					order = (lzPhrase.size() > order) ? lzPhrase.size() : order;
+					prefixLength++;
+					order = (prefixLength > order) ? prefixLength : order;
 					
-					//adding the current node as a child of the prefix
-					if(prefix.size() > 0 && mDictionary.get(prefix) != null) {
-						mDictionary.get(prefix).incChildSupport();
+					//counting the current node as a child of the prefix
+					if(prefix != LZTrie.ROOT) {
+						mTrie.incChildSupport(prefix);
 					}
 					
 					//adding the current item to the prefix
-					prefix.add(cur);
+					prefix = node;
 				}
 				else {
 					
-					//adding the current node as a child of the prefix
-					if(prefix.size() > 0 && mDictionary.get(prefix) != null) {
-						mDictionary.get(prefix).addChild(cur);
+					//adding this phrase in the dictionary, as a child of the prefix
+					mTrie.addChild(prefix, cur);
+					if(prefix != LZTrie.ROOT) {
+						mTrie.incChildSupport(prefix);
 					}
-					
-					//adding this phrase in the dictionary
-					mDictionary.put(lzPhrase, new LZNode(cur));
-					prefix.clear();
+					prefix = LZTrie.ROOT;
+					prefixLength = 0;
 					count++;
-					
 				}
-				
-				//incrementing the offset
-				offset++;
 			}
 		}
 		
+		modelChanged();
 		return true;
 	}
 
 	@Override
 	public Sequence Predict(Sequence target) {
 		
-		//Map each item from the alphabet to a probability
-		HashMap<Integer, Double> results = new HashMap<Integer, Double>();
+		//Map each item from the alphabet to its index in scores
+		IntIntMap candidates = new IntIntMap();
+		int[] values = new int[16];
+		double[] scores = new double[16];
 		
 		//keeping the last X items from the target sequence
 		//X being the order of this predictor.
-		List<Integer> lzPhrase = new ArrayList<Integer>();
-		List<Integer> prefix = new ArrayList<Integer>();
-		List<Item> lastItems = target.getLastItems(order, 0).getItems();
-		Collections.reverse(lastItems);
+		List<Item> items = target.getItems();
+		int length = Math.min(order, items.size());
 		
-		//for each order, starting with the highest one
-		for(Item item : lastItems) {
+		//for each order, starting with the lowest one
+		for(int k = 1; k <= length; k++) {
 			
-			//adding the current element in reverse order
-			prefix.add(0, item.val);
-			
-			LZNode parent = mDictionary.get(prefix);
+			//walking the last k items from the root
+			int parent = LZTrie.ROOT;
+			for(int i = items.size() - k; i < items.size() && parent >= 0; i++) {
+				parent = mTrie.getChild(parent, items.get(i).val);
+			}
 			
 			//Stop the prediction if the current node does not exists
 			//because if X does not exists than any node more precise than X cannot exists
-			if(parent == null) {
+			if(parent < 0) {
 				break;
 			}
 			
 			//calculating the probability of the escape
-			int escapeK = parent.getSup() - parent.getChildSup(); 
+			int parentSup = mTrie.getSupport(parent);
+			int escapeK = parentSup - mTrie.getChildSupport(parent);
 			
 			//for each child of this prefix
-			for(Integer value : parent.children) {
-				
-				lzPhrase = new ArrayList<Integer>(prefix);
-				lzPhrase.add(value);
- 				LZNode child = mDictionary.get(lzPhrase);
+			for(int i = 0; i < mTrie.getChildCount(parent); i++) {
 				
-				if(child != null) {
-					
-					//prob for this item for order k+1
-					Double probK1 = results.getOrDefault(value, 0d);
-					Double probK = ((double) child.getSup() / parent.getSup()) + (escapeK * probK1);
-					results.put(value, probK);	
+				int child = mTrie.getChildAt(parent, i);
+				int value = mTrie.getValue(child);
+				int index = candidates.get(value, -1);
+				if(index < 0) {
+					index = candidates.size();
+					if(index == values.length) {
+						values = Arrays.copyOf(values, index * 2);
+						scores = Arrays.copyOf(scores, index * 2);
+					}
+					values[index] = value;
+					scores[index] = 0d;
+					candidates.put(value, index);
 				}
+				
+				//prob for this item for order k+1
+				scores[index] = ((double) mTrie.getSupport(child) / parentSup) + (escapeK * scores[index]);
 			}
 		}
 		
 		
-		//generating a prediction from the most probable item in the dictionary
-		Double highestScore = 0.0d;
-		Integer mostProbableItem = null;
-		for(Entry<Integer, Double> entry : results.entrySet()) {
+		//generating a prediction from the most probable item, the smallest one on ties
+		double highestScore = 0.0d;
+		int mostProbableItem = -1;
+		for(int index = 0; index < candidates.size(); index++) {
 			
-			if(entry.getValue() > highestScore) {
-				highestScore = entry.getValue();
-				mostProbableItem = entry.getKey();
+			if(scores[index] > highestScore || (scores[index] == highestScore && values[index] < mostProbableItem)) {
+				highestScore = scores[index];
+				mostProbableItem = values[index];
 			}
 		}
 		
-		//returns the resulting sequence
+		//returns the resulting sequence, empty without a candidate
 		Sequence predicted = new Sequence(-1);
-		predicted.addItem(new Item(mostProbableItem));
+		if(mostProbableItem >= 0) {
+			predicted.addItem(new Item(mostProbableItem));
+		}
 		return predicted;
 	}
 
 	
+	/**
+	 * Write the trained model, the nodes of the trie are written in the order of their ids.
+	 */
+	@Override
+	public void writeSnapshot(SnapshotWriter out) throws IOException {
+		
+		out.writeString(TAG);
+		out.writeInt(count);
+		out.writeInt(order);
+		
+		int nodeCount = mTrie.nodeCount();
+		int[] values = new int[nodeCount];
+		int[] parents = new int[nodeCount];
+		int[] supports = new int[nodeCount];
+		int[] childSupports = new int[nodeCount];
+		for(int node = 0; node < nodeCount; node++) {
+			values[node] = mTrie.getValue(node);
+			parents[node] = mTrie.getParent(node);
+			supports[node] = mTrie.getSupport(node);
+			childSupports[node] = mTrie.getChildSupport(node);
+		}
+		
+		out.writeInts(values);
+		out.writeInts(parents);
+		out.writeInts(supports);
+		out.writeInts(childSupports);
+	}
+	
+	@Override
+	public void readSnapshot(SnapshotReader in) throws IOException {
+		
+		TAG = in.readString();
+		count = in.readInt();
+		order = in.readInt();
+		
+		int[] values = in.readInts();
+		int[] parents = in.readInts();
+		int[] supports = in.readInts();
+		int[] childSupports = in.readInts();
+		mTrie = LZTrie.build(values, parents, supports, childSupports);
+		modelChanged();
+	}
+
+	
 	public long size() {
 		return count;
 	}
@@ -189,8 +234,8 @@ public class LZ78Predictor extends Predictor implements Serializable {
 		
 		float size = 0f;
 		
-		for(LZNode node : mDictionary.values()) {
-			size += 12 + (4 * node.children.size());
+		for(int node = 1; node < mTrie.nodeCount(); node++) {
+			size += 12 + (4 * mTrie.getChildCount(node));
 		}
 		
 		return size; 
@@ -0,0 +1,162 @@
+package ca.ipredict.predictor.LZ78;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Trie of the LZ78 phrases with integer node ids
+ *
+ * The node of a phrase is the child of the node of the phrase without its last item, the root (ROOT) is the empty phrase.
+ * Each node has its own child table, with the items of its children sorted for a binary search,
+ * so a phrase is found by walking from the root without building it.
+ */
+public class LZTrie implements Serializable {
+
+	private static final long serialVersionUID = 6683917387605870777L;
+
+	public static final int ROOT = 0;
+
+	private int[] values; //last item of the phrase of each node
+	private int[] parents;
+	private int[] supports;
+	private int[] childSupports; //sum of the supports of the children
+
+	//child table of each node, null without children
+	private int[][] childItems;
+	private int[][] childIds;
+	private int[] childCounts;
+
+	/**
+	 * Number of nodes, including the root
+	 */
+	private int nodeCount;
+
+	public LZTrie() {
+		allocate(16);
+		nodeCount = 1;
+		parents[ROOT] = -1;
+	}
+
+	private void allocate(int capacity) {
+		values = new int[capacity];
+		parents = new int[capacity];
+		supports = new int[capacity];
+		childSupports = new int[capacity];
+		childItems = new int[capacity][];
+		childIds = new int[capacity][];
+		childCounts = new int[capacity];
+	}
+
+	/**
+	 * Return the child of a node with the given item or -1
+	 */
+	public int getChild(int node, int item) {
+		int count = childCounts[node];
+		int i = (count > 0) ? Arrays.binarySearch(childItems[node], 0, count, item) : -1;
+		return (i >= 0) ? childIds[node][i] : -1;
+	}
+
+	/**
+	 * Create the child of a node with the given item and a support of 1, the node must not have this child yet
+	 * @return the child
+	 */
+	public int addChild(int node, int item) {
+
+		if(nodeCount == values.length) {
+			int capacity = nodeCount * 2;
+			values = Arrays.copyOf(values, capacity);
+			parents = Arrays.copyOf(parents, capacity);
+			supports = Arrays.copyOf(supports, capacity);
+			childSupports = Arrays.copyOf(childSupports, capacity);
+			childItems = Arrays.copyOf(childItems, capacity);
+			childIds = Arrays.copyOf(childIds, capacity);
+			childCounts = Arrays.copyOf(childCounts, capacity);
+		}
+		int child = nodeCount++;
+		values[child] = item;
+		parents[child] = node;
+		supports[child] = 1;
+
+		//inserting the child in the table of its parent, sorted by item
+		int count = childCounts[node];
+		if(childItems[node] == null) {
+			childItems[node] = new int[2];
+			childIds[node] = new int[2];
+		}
+		else if(count == childItems[node].length) {
+			childItems[node] = Arrays.copyOf(childItems[node], count * 2);
+			childIds[node] = Arrays.copyOf(childIds[node], count * 2);
+		}
+		int i = -Arrays.binarySearch(childItems[node], 0, count, item) - 1;
+		System.arraycopy(childItems[node], i, childItems[node], i + 1, count - i);
+		System.arraycopy(childIds[node], i, childIds[node], i + 1, count - i);
+		childItems[node][i] = item;
+		childIds[node][i] = child;
+		childCounts[node]++;
+
+		return child;
+	}
+
+	/**
+	 * Increment the support of a node
+	 */
+	public void inc(int node) {
+		supports[node]++;
+	}
+
+	/**
+	 * Increment the sum of the supports of the children of a node
+	 */
+	public void incChildSupport(int node) {
+		childSupports[node]++;
+	}
+
+	public int getValue(int node) {
+		return values[node];
+	}
+
+	public int getParent(int node) {
+		return parents[node];
+	}
+
+	public int getSupport(int node) {
+		return supports[node];
+	}
+
+	public int getChildSupport(int node) {
+		return childSupports[node];
+	}
+
+	public int getChildCount(int node) {
+		return childCounts[node];
+	}
+
+	/**
+	 * Return the i-th child of a node, the children are sorted by item
+	 */
+	public int getChildAt(int node, int i) {
+		return childIds[node][i];
+	}
+
+	/**
+	 * Number of nodes, including the root
+	 */
+	public int nodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Rebuild a trie from its arrays (see LZ78Predictor.readSnapshot()), the parents have to come before their children
+	 */
+	public static LZTrie build(int[] values, int[] parents, int[] supports, int[] childSupports) {
+		LZTrie trie = new LZTrie();
+		trie.allocate(Math.max(16, values.length));
+		trie.parents[ROOT] = -1;
+		for(int node = 1; node < values.length; node++) {
+			trie.addChild(parents[node], values[node]);
+		}
+		System.arraycopy(supports, 0, trie.supports, 0, values.length);
+		System.arraycopy(childSupports, 0, trie.childSupports, 0, values.length);
+		return trie;
+	}
+}
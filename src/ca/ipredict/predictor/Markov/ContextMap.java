@@ -0,0 +1,207 @@
+package ca.ipredict.predictor.Markov;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Open addressing hash map from contexts (short sequences of items) to their Markov state.
+ *
+ * A context is identified by a 64 bits key computed from its items with extend() and key(),
+ * so that the keys of the contexts starting at a position can be computed incrementally without building them.
+ * The items of each context are kept to verify the matches, two contexts with the same key are two different entries.
+ * Lookups do not allocate.
+ */
+public class ContextMap implements Serializable {
+
+	private static final long serialVersionUID = -1846529318824047613L;
+
+	/**
+	 * Multiplier of the polynomial hash of the contexts
+	 */
+	private static final long MULTIPLIER = 0x9E3779B97F4A7C15L;
+
+	private long[] keys;
+	private int[][] contexts;
+	private MarkovState[] states; //null for a free slot
+
+	/**
+	 * Number of contexts in the map
+	 */
+	private int size;
+
+	/**
+	 * capacity - 1, the capacity is always a power of two
+	 */
+	private int mask;
+
+	public ContextMap() {
+		allocate(16);
+	}
+
+	private void allocate(int capacity) {
+		keys = new long[capacity];
+		contexts = new int[capacity][];
+		states = new MarkovState[capacity];
+		mask = capacity - 1;
+	}
+
+	/**
+	 * Hash of a context extended by one item on its right, the hash of the empty context is 0
+	 */
+	public static long extend(long hash, int item) {
+		return (hash + item) * MULTIPLIER;
+	}
+
+	/**
+	 * Key of a context from its hash and its length, the bits are mixed so that any of them can select a slot
+	 */
+	public static long key(long hash, int length) {
+		long h = hash ^ length;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	/**
+	 * Return the slot of the context items[from, from + length[ or the free slot where it should be inserted
+	 */
+	private int find(long key, int[] items, int from, int length) {
+		int slot = (int) key & mask;
+		while(states[slot] != null && (keys[slot] != key || matches(contexts[slot], items, from, length) == false)) {
+			slot = (slot + 1) & mask;
+		}
+		return slot;
+	}
+
+	private static boolean matches(int[] context, int[] items, int from, int length) {
+		if(context.length != length) {
+			return false;
+		}
+		for(int i = 0; i < length; i++) {
+			if(context[i] != items[from + i]) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Return the state of the context items[from, from + length[ or null if it is not in the map
+	 * @param key Key of the context (see key())
+	 */
+	public MarkovState get(long key, int[] items, int from, int length) {
+		return states[find(key, items, from, length)];
+	}
+
+	/**
+	 * Return the state of the context items[from, from + length[, a new state is added if it is not in the map
+	 * @param key Key of the context (see key())
+	 */
+	public MarkovState getOrAdd(long key, int[] items, int from, int length) {
+		int slot = find(key, items, from, length);
+		if(states[slot] == null) {
+			keys[slot] = key;
+			contexts[slot] = Arrays.copyOfRange(items, from, from + length);
+			states[slot] = new MarkovState();
+			size++;
+			if(size * 4 > keys.length * 3) {
+				MarkovState state = states[slot];
+				rehash(keys.length << 1);
+				return state;
+			}
+		}
+		return states[slot];
+	}
+
+	/**
+	 * Add a context and its state, the context must not be in the map already
+	 */
+	public void put(int[] context, MarkovState state) {
+		long hash = 0;
+		for(int item : context) {
+			hash = extend(hash, item);
+		}
+		long key = key(hash, context.length);
+		int slot = find(key, context, 0, context.length);
+		keys[slot] = key;
+		contexts[slot] = context;
+		states[slot] = state;
+		size++;
+		if(size * 4 > keys.length * 3) {
+			rehash(keys.length << 1);
+		}
+	}
+
+	/**
+	 * Remove the context items[from, from + length[ from the map
+	 * @return true if the context was in the map
+	 */
+	public boolean remove(long key, int[] items, int from, int length) {
+		int slot = find(key, items, from, length);
+		if(states[slot] == null) {
+			return false;
+		}
+
+		//backward shift deletion, keeps the probe sequences intact without tombstones
+		int hole = slot;
+		int cur = (hole + 1) & mask;
+		while(states[cur] != null) {
+			int home = (int) keys[cur] & mask;
+			//moving the entry in the hole if its home slot is not between the hole and its slot
+			if(((cur - home) & mask) >= ((cur - hole) & mask)) {
+				keys[hole] = keys[cur];
+				contexts[hole] = contexts[cur];
+				states[hole] = states[cur];
+				hole = cur;
+			}
+			cur = (cur + 1) & mask;
+		}
+		contexts[hole] = null;
+		states[hole] = null;
+		size--;
+		return true;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Number of slots, used to iterate over the map with stateAt() and contextAt()
+	 */
+	public int capacity() {
+		return keys.length;
+	}
+
+	/**
+	 * Return the state of a slot, null if the slot is free
+	 */
+	public MarkovState stateAt(int slot) {
+		return states[slot];
+	}
+
+	/**
+	 * Return the items of the context of a slot, they must not be modified
+	 */
+	public int[] contextAt(int slot) {
+		return contexts[slot];
+	}
+
+	private void rehash(int capacity) {
+		long[] oldKeys = keys;
+		int[][] oldContexts = contexts;
+		MarkovState[] oldStates = states;
+		allocate(capacity);
+		for(int slot = 0; slot < oldKeys.length; slot++) {
+			if(oldStates[slot] != null) {
+				int newSlot = (int) oldKeys[slot] & mask;
+				while(states[newSlot] != null) {
+					newSlot = (newSlot + 1) & mask;
+				}
+				keys[newSlot] = oldKeys[slot];
+				contexts[newSlot] = oldContexts[slot];
+				states[newSlot] = oldStates[slot];
+			}
+		}
+	}
+}
@@ -0,0 +1,334 @@
+package ca.ipredict.predictor.Markov;
+
+import java.io.IOException;
+import java.io.Serializable;
+import java.text.DecimalFormat;
+
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
+
+/**
+ * Approximate contexts of a Markov model in a fixed amount of memory
+ *
+ * All the arrays are allocated by the constructor from a memory budget and never grow:
+ *  - a count-min sketch (with conservative updates) estimates how often every context has been seen,
+ *  - a table of contexts keeps the most frequent ones, each with the Space-Saving summary of its next items.
+ * A context is identified by its 64 bits key (see ContextMap.key()), its items are not stored.
+ *
+ * The table is open addressed with at most MAX_PROBES probes. A context that finds no free slot replaces
+ * the least frequent context of its probes if the sketch estimates that it has been seen more often,
+ * otherwise its transition is dropped. Each context tracks a fixed number of next items: an untracked item
+ * replaces the one with the lowest count and inherits its count as error (Space-Saving), so the count
+ * of a next item is over-estimated by at most count(context) / successorCount.
+ */
+public class ContextSketch implements Serializable {
+
+	private static final long serialVersionUID = 6264120393536432218L;
+
+	/**
+	 * Number of rows of the count-min sketch, the probability that an estimate exceeds its bound is e^-DEPTH
+	 */
+	private static final int DEPTH = 4;
+
+	/**
+	 * Max number of slots visited to find a context
+	 */
+	private static final int MAX_PROBES = 8;
+
+	/**
+	 * Number of next items tracked per context
+	 */
+	private int successorCount;
+
+	//count-min sketch, DEPTH rows of [width] counters
+	private int[] sketch;
+	private int width;
+
+	//table of the contexts, a slot with a count of 0 is free
+	private long[] keys;
+	private int[] counts; //estimated occurrences of each context
+	private int[] successors; //[successorCount] next items per slot
+	private int[] successorCounts;
+	private int[] successorErrors;
+
+	/**
+	 * Number of transitions added, dropped because their context was not in the table,
+	 * and contexts that replaced another one
+	 */
+	private long observations;
+	private long dropped;
+	private long replaced;
+
+	/**
+	 * @param budget Memory budget in bytes, a quarter goes to the sketch and the rest to the table of contexts
+	 * @param successorCount Number of next items tracked per context
+	 */
+	public ContextSketch(long budget, int successorCount) {
+		this.successorCount = successorCount;
+
+		width = (int) Math.max(1, Math.min(Integer.MAX_VALUE / DEPTH, budget / 4 / (4L * DEPTH)));
+		sketch = new int[DEPTH * width];
+
+		int slotSize = 8 + 4 + 12 * successorCount;
+		int capacity = (int) Math.max(MAX_PROBES, Math.min(Integer.MAX_VALUE / successorCount, (budget - 4L * sketch.length) / slotSize));
+		keys = new long[capacity];
+		counts = new int[capacity];
+		successors = new int[capacity * successorCount];
+		successorCounts = new int[capacity * successorCount];
+		successorErrors = new int[capacity * successorCount];
+	}
+
+	private ContextSketch() {
+	}
+
+	/**
+	 * Counter of the context key in a row of the sketch
+	 */
+	private int cell(long key, int row) {
+		long h = key * (0x9E3779B97F4A7C15L + 2L * row);
+		return row * width + (int) (((h >>> 32) * width) >>> 32);
+	}
+
+	/**
+	 * Count one more occurrence of a context in the sketch, only its smallest counters are incremented (conservative update)
+	 * @return the new estimate of the count of the context
+	 */
+	private int increment(long key) {
+		int estimate = estimate(key) + 1;
+		for(int row = 0; row < DEPTH; row++) {
+			int cell = cell(key, row);
+			if(sketch[cell] < estimate) {
+				sketch[cell] = estimate;
+			}
+		}
+		return estimate;
+	}
+
+	/**
+	 * Estimated number of occurrences of a context, it is never below the real one
+	 */
+	public int estimate(long key) {
+		int estimate = Integer.MAX_VALUE;
+		for(int row = 0; row < DEPTH; row++) {
+			estimate = Math.min(estimate, sketch[cell(key, row)]);
+		}
+		return estimate;
+	}
+
+	/**
+	 * First slot of the probes of a context
+	 */
+	private int home(long key) {
+		return (int) (((key >>> 32) * keys.length) >>> 32);
+	}
+
+	/**
+	 * Return the slot of a context or -1 if it is not in the table
+	 */
+	public int find(long key) {
+		int slot = home(key);
+		for(int probe = 0; probe < MAX_PROBES && counts[slot] != 0; probe++) {
+			if(keys[slot] == key) {
+				return slot;
+			}
+			slot = (slot + 1 == keys.length) ? 0 : slot + 1;
+		}
+		return -1;
+	}
+
+	/**
+	 * Add a transition from a context to the item [next]
+	 * @param key Key of the context (see ContextMap.key())
+	 */
+	public void addTransition(long key, int next) {
+
+		observations++;
+		int estimate = increment(key);
+
+		//looking for the context, a free slot or the least frequent context of the probes
+		int slot = home(key);
+		int victim = -1;
+		for(int probe = 0; probe < MAX_PROBES; probe++) {
+			if(counts[slot] == 0) {
+				victim = slot;
+				break;
+			}
+			if(keys[slot] == key) {
+				counts[slot]++;
+				addSuccessor(slot, next);
+				return;
+			}
+			if(victim < 0 || counts[slot] < counts[victim]) {
+				victim = slot;
+			}
+			slot = (slot + 1 == keys.length) ? 0 : slot + 1;
+		}
+
+		//the context is added if it is more frequent than the one it replaces
+		if(counts[victim] != 0) {
+			if(estimate <= counts[victim]) {
+				dropped++;
+				return;
+			}
+			replaced++;
+		}
+		keys[victim] = key;
+		counts[victim] = estimate;
+		int first = victim * successorCount;
+		for(int i = first; i < first + successorCount; i++) {
+			successorCounts[i] = 0;
+			successorErrors[i] = 0;
+		}
+		addSuccessor(victim, next);
+	}
+
+	/**
+	 * Space-Saving update of the next items of a slot
+	 */
+	private void addSuccessor(int slot, int next) {
+		int first = slot * successorCount;
+		int min = first;
+		for(int i = first; i < first + successorCount; i++) {
+			if(successorCounts[i] == 0) {
+				successors[i] = next;
+				successorCounts[i] = 1;
+				return;
+			}
+			if(successors[i] == next) {
+				successorCounts[i]++;
+				return;
+			}
+			if(successorCounts[i] < successorCounts[min]) {
+				min = i;
+			}
+		}
+		successors[min] = next;
+		successorErrors[min] = successorCounts[min];
+		successorCounts[min]++;
+	}
+
+	/**
+	 * Return the tracked next item with the highest count from a slot (the smallest one on ties)
+	 */
+	public int getBestNextState(int slot) {
+		int first = slot * successorCount;
+		int best = first;
+		for(int i = first + 1; i < first + successorCount && successorCounts[i] != 0; i++) {
+			if(successorCounts[i] > successorCounts[best] || (successorCounts[i] == successorCounts[best] && successors[i] < successors[best])) {
+				best = i;
+			}
+		}
+		return successors[best];
+	}
+
+	/**
+	 * Number of contexts in the table
+	 */
+	public int contextCount() {
+		int contextCount = 0;
+		for(int count : counts) {
+			if(count != 0) {
+				contextCount++;
+			}
+		}
+		return contextCount;
+	}
+
+	/**
+	 * Number of next items tracked by the contexts of the table
+	 */
+	public long transitionCount() {
+		long transitionCount = 0;
+		for(int count : successorCounts) {
+			if(count != 0) {
+				transitionCount++;
+			}
+		}
+		return transitionCount;
+	}
+
+	/**
+	 * Size in bytes of the arrays, allocated once by the constructor
+	 */
+	public long memoryUsage() {
+		return 4L * sketch.length + 12L * keys.length + 12L * successors.length;
+	}
+
+	/**
+	 * Relative error of the sketch: the count of a context is over-estimated by at most epsilon() * observations()
+	 * with a probability of 1 - delta()
+	 */
+	public double epsilon() {
+		return Math.E / width;
+	}
+
+	public double delta() {
+		return Math.exp(-DEPTH);
+	}
+
+	public long observations() {
+		return observations;
+	}
+
+	/**
+	 * Largest over-estimation of a tracked next item, relative to the count of its context
+	 */
+	public double successorError() {
+		double error = 0;
+		for(int slot = 0; slot < counts.length; slot++) {
+			for(int i = slot * successorCount; i < (slot + 1) * successorCount; i++) {
+				if(successorErrors[i] != 0) {
+					error = Math.max(error, successorErrors[i] / (double) counts[slot]);
+				}
+			}
+		}
+		return error;
+	}
+
+	/**
+	 * Describe the error bounds of the model and how much of it was dropped
+	 */
+	public String getErrorBounds() {
+		DecimalFormat format = new DecimalFormat("0.#####");
+		return "context counts within +" + format.format(epsilon() * observations) + " (epsilon " + format.format(epsilon())
+			+ ", delta " + format.format(delta()) + "), next item counts within +" + format.format(100.0 / successorCount)
+			+ "% of their context (max " + format.format(100 * successorError()) + "%), "
+			+ replaced + " contexts replaced, " + dropped + " of " + observations + " transitions dropped";
+	}
+
+	/**
+	 * Write the sketch in a model snapshot (see ModelSnapshot)
+	 */
+	public void write(SnapshotWriter out) throws IOException {
+		out.writeInt(successorCount);
+		out.writeInt(width);
+		out.writeInts(sketch);
+		out.writeLongs(keys, keys.length);
+		out.writeInts(counts);
+		out.writeInts(successors);
+		out.writeInts(successorCounts);
+		out.writeInts(successorErrors);
+		out.writeLong(observations);
+		out.writeLong(dropped);
+		out.writeLong(replaced);
+	}
+
+	/**
+	 * Read a sketch written by write()
+	 */
+	public static ContextSketch read(SnapshotReader in) throws IOException {
+		ContextSketch contexts = new ContextSketch();
+		contexts.successorCount = in.readInt();
+		contexts.width = in.readInt();
+		contexts.sketch = in.readInts();
+		contexts.keys = in.readLongs();
+		contexts.counts = in.readInts();
+		contexts.successors = in.readInts();
+		contexts.successorCounts = in.readInts();
+		contexts.successorErrors = in.readInts();
+		contexts.observations = in.readLong();
+		contexts.dropped = in.readLong();
+		contexts.replaced = in.readLong();
+		return contexts;
+	}
+}
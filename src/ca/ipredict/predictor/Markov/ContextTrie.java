@@ -0,0 +1,316 @@
+package ca.ipredict.predictor.Markov;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+/**
+ * Trie of reversed contexts holding the transitions of the contexts of all the orders.
+ *
+ * The path from the root to a node spells a context from its most recent item backwards,
+ * so the node of a context of order k is a child of the node of its suffix of order k - 1.
+ * A context shares the storage of its suffixes and all the orders of a position are reached in a single walk.
+ *
+ * Since every suffix of a context is counted along with it, a node always has at least as many transitions as its descendants.
+ * The transitions are stored in each node, and their ties are broken by the smallest next item.
+ */
+public class ContextTrie implements Serializable {
+
+	private static final long serialVersionUID = 3404853917372683325L;
+
+	/**
+	 * A context of the trie with its transitions
+	 */
+	public static class Node implements Serializable {
+
+		private static final long serialVersionUID = -6101460066470599042L;
+
+		/**
+		 * Oldest item of the context of this node
+		 */
+		public final int item;
+
+		/**
+		 * Children sorted by item
+		 */
+		private int[] childItems;
+		private Node[] children;
+		private int childCount;
+
+		/**
+		 * Next items sorted by value and their support, the first [transitionCount] ones are used.
+		 * They are kept in the node instead of a MarkovState, so a context costs a few arrays and no map.
+		 */
+		private int[] values;
+		private int[] supports;
+		private int transitionCount;
+
+		/**
+		 * Index of the transition with the highest support, -1 without transitions
+		 */
+		private int best;
+
+		private Node(int item) {
+			this.item = item;
+			childCount = 0;
+			transitionCount = 0;
+			best = -1;
+		}
+
+		public int getChildCount() {
+			return childCount;
+		}
+
+		public Node getChildAt(int i) {
+			return children[i];
+		}
+
+		/**
+		 * Return the child with the given item or null
+		 */
+		public Node getChild(int childItem) {
+			int i = (childCount > 0) ? Arrays.binarySearch(childItems, 0, childCount, childItem) : -1;
+			return (i >= 0) ? children[i] : null;
+		}
+
+		/**
+		 * Return the child with the given item, it is created if needed
+		 */
+		public Node getOrAddChild(int childItem) {
+			int i = (childCount > 0) ? Arrays.binarySearch(childItems, 0, childCount, childItem) : -1;
+			if(i >= 0) {
+				return children[i];
+			}
+			i = -i - 1;
+			if(children == null) {
+				childItems = new int[2];
+				children = new Node[2];
+			}
+			else if(childCount == children.length) {
+				childItems = Arrays.copyOf(childItems, childCount * 2);
+				children = Arrays.copyOf(children, childCount * 2);
+			}
+			System.arraycopy(childItems, i, childItems, i + 1, childCount - i);
+			System.arraycopy(children, i, children, i + 1, childCount - i);
+			childItems[i] = childItem;
+			children[i] = new Node(childItem);
+			childCount++;
+			return children[i];
+		}
+
+		private void removeChild(int childItem) {
+			int i = Arrays.binarySearch(childItems, 0, childCount, childItem);
+			if(i >= 0) {
+				System.arraycopy(childItems, i + 1, childItems, i, childCount - i - 1);
+				System.arraycopy(children, i + 1, children, i, childCount - i - 1);
+				children[--childCount] = null;
+			}
+		}
+
+		/**
+		 * Number of transitions from this context - not their support
+		 */
+		public int getTransitionCount() {
+			return transitionCount;
+		}
+
+		/**
+		 * Next item of the transition at index i, the transitions are sorted by next item
+		 */
+		public int getTransitionValue(int i) {
+			return values[i];
+		}
+
+		/**
+		 * Support of the transition at index i
+		 */
+		public int getTransitionSupport(int i) {
+			return supports[i];
+		}
+
+		/**
+		 * Next item with the highest support, ties are broken by the smallest item
+		 */
+		public int getBestNextState() {
+			return values[best];
+		}
+
+		/**
+		 * Add one occurrence of the transition to the item [next]
+		 */
+		private void addTransition(int next) {
+			int i = (transitionCount > 0) ? Arrays.binarySearch(values, 0, transitionCount, next) : -1;
+			if(i < 0) {
+				i = -i - 1;
+				if(values == null) {
+					values = new int[1];
+					supports = new int[1];
+				}
+				else if(transitionCount == values.length) {
+					values = Arrays.copyOf(values, Math.max(1, transitionCount * 2));
+					supports = Arrays.copyOf(supports, Math.max(1, transitionCount * 2));
+				}
+				System.arraycopy(values, i, values, i + 1, transitionCount - i);
+				System.arraycopy(supports, i, supports, i + 1, transitionCount - i);
+				values[i] = next;
+				supports[i] = 0;
+				transitionCount++;
+				if(best >= i) {
+					best++;
+				}
+			}
+			supports[i]++;
+
+			//the incremented transition is the only one that can become the best
+			if(best < 0 || supports[i] > supports[best] || (supports[i] == supports[best] && i < best)) {
+				best = i;
+			}
+		}
+
+		/**
+		 * Remove one occurrence of the transition to the item [next], the transition is removed when its support reaches 0
+		 */
+		private void removeTransition(int next) {
+			int i = (transitionCount > 0) ? Arrays.binarySearch(values, 0, transitionCount, next) : -1;
+			if(i < 0) {
+				return;
+			}
+			if(supports[i] == 1) {
+				System.arraycopy(values, i + 1, values, i, transitionCount - i - 1);
+				System.arraycopy(supports, i + 1, supports, i, transitionCount - i - 1);
+				transitionCount--;
+				if(best > i) {
+					best--;
+					return;
+				}
+			}
+			else {
+				supports[i]--;
+			}
+
+			//only a decrement of the best transition can change the best one
+			if(i == best) {
+				best = -1;
+				for(int j = 0; j < transitionCount; j++) {
+					if(best < 0 || supports[j] > supports[best]) {
+						best = j;
+					}
+				}
+			}
+		}
+	}
+
+	private Node root;
+
+	/**
+	 * Number of nodes, excluding the root
+	 */
+	private int size;
+
+	public ContextTrie() {
+		root = new Node(0);
+		size = 0;
+	}
+
+	public Node getRoot() {
+		return root;
+	}
+
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Add a transition to the item [next] from each context ending at items[end], up to [maxOrder] items
+	 */
+	public void addTransition(int[] items, int end, int maxOrder, int next) {
+		Node node = root;
+		for(int i = end; i > end - maxOrder && i >= 0; i--) {
+			Node parent = node;
+			int childCount = parent.childCount;
+			node = parent.getOrAddChild(items[i]);
+			size += parent.childCount - childCount;
+			node.addTransition(next);
+		}
+	}
+
+	/**
+	 * Remove one occurrence of the transition to the item [next] from each context ending at items[end], up to [maxOrder] items.
+	 * A context without transitions is removed with its descendants, which have no transitions either.
+	 */
+	public void removeTransition(int[] items, int end, int maxOrder, int next) {
+		Node node = root;
+		for(int i = end; i > end - maxOrder && i >= 0; i--) {
+			Node parent = node;
+			node = parent.getChild(items[i]);
+			if(node == null) {
+				return;
+			}
+			node.removeTransition(next);
+			if(node.transitionCount == 0) {
+				parent.removeChild(node.item);
+				size -= count(node);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Return the node of the longest context ending at items[end] that has transitions, up to [maxOrder] items,
+	 * or null if even the last item is unknown. The contexts of all the orders are visited in a single walk.
+	 */
+	public Node longestMatch(int[] items, int end, int maxOrder) {
+		Node match = null;
+		Node node = root;
+		for(int i = end; i > end - maxOrder && i >= 0; i--) {
+			node = node.getChild(items[i]);
+			if(node == null || node.transitionCount == 0) {
+				break;
+			}
+			match = node;
+		}
+		return match;
+	}
+
+	/**
+	 * Add a child with known transitions to a node (see MarkovAllKPredictor.readSnapshot())
+	 * The children of a node have to be added in increasing order of item.
+	 * @param values Next items of the transitions in increasing order
+	 * @param supports Support of each transition
+	 * @return the new node
+	 */
+	public Node appendChild(Node parent, int item, int[] values, int[] supports) {
+		Node child = new Node(item);
+		child.values = values;
+		child.supports = supports;
+		child.transitionCount = values.length;
+		for(int i = 0; i < values.length; i++) {
+			if(child.best < 0 || supports[i] > supports[child.best]) {
+				child.best = i;
+			}
+		}
+		if(parent.children == null) {
+			parent.childItems = new int[2];
+			parent.children = new Node[2];
+		}
+		else if(parent.childCount == parent.children.length) {
+			parent.childItems = Arrays.copyOf(parent.childItems, parent.childCount * 2);
+			parent.children = Arrays.copyOf(parent.children, parent.childCount * 2);
+		}
+		parent.childItems[parent.childCount] = item;
+		parent.children[parent.childCount] = child;
+		parent.childCount++;
+		size++;
+		return child;
+	}
+
+	/**
+	 * Number of nodes in the subtree of a node, including the node
+	 */
+	private static int count(Node node) {
+		int count = 1;
+		for(int i = 0; i < node.childCount; i++) {
+			count += count(node.children[i]);
+		}
+		return count;
+	}
+}
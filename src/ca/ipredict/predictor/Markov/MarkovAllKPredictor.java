@@ -1,12 +1,16 @@
 package ca.ipredict.predictor.Markov;
 
+import java.io.IOException;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Collections;
 import java.util.List;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
 import ca.ipredict.predictor.Paramable;
 import ca.ipredict.predictor.Predictor;
 
@@ -22,10 +26,51 @@ public class MarkovAllKPredictor extends Predictor implements Serializable {
 	 */
 	private int K = 5;
 	
+	/**
+	 * order of the model, read from the parameters when training
+	 */
+	private int order;
+	
 	/**
 	 * contains a list of unique items (one or multiple) and their state in the Markov model
 	 */
-	private HashMap<String, MarkovState> mDictionary;
+	private ContextMap mDictionary;
+	
+	/**
+	 * Trie of the reversed contexts, used instead of mDictionary with the "contextTrie" parameter
+	 */
+	private ContextTrie trie;
+	
+	/**
+	 * Store the contexts in a trie (see ContextTrie) instead of a hash map, so that the contexts of all
+	 * the orders share their items and are reached in a single walk (default value)
+	 */
+	private boolean contextTrie = false;
+	
+	/**
+	 * Approximate contexts in a fixed amount of memory, used instead of mDictionary with the "memoryBudget" parameter
+	 */
+	private ContextSketch sketch;
+	
+	/**
+	 * Memory budget in bytes of the approximate model (see ContextSketch), 0 for an exact model (default value)
+	 */
+	private int memoryBudget = 0;
+	
+	/**
+	 * Number of next items tracked per context by the approximate model (default value)
+	 */
+	private int sketchSuccessors = 4;
+	
+	/**
+	 * Maximum number of sequences in the model, the oldest ones are evicted by update() (default value, 0 to keep them all)
+	 */
+	private int slidingWindow = 0;
+	
+	/**
+	 * Sequences of the model from the oldest to the newest, only kept with a sliding window
+	 */
+	private ArrayDeque<Sequence> window;
 	
 	public Paramable parameters;
 	
@@ -47,67 +92,220 @@ public class MarkovAllKPredictor extends Predictor implements Serializable {
 	@Override
 	public Boolean Train(List<Sequence> trainingSequences) {
 		
-		mDictionary = new HashMap<String, MarkovState>();
+		order = parameters.paramIntOrDefault("order", K);
+		mDictionary = null;
+		trie = null;
+		sketch = null;
+		int budget = parameters.paramIntOrDefault("memoryBudget", memoryBudget);
+		if(budget > 0) {
+			sketch = new ContextSketch(budget, parameters.paramIntOrDefault("sketchSuccessors", sketchSuccessors));
+		}
+		else if(parameters.paramBoolOrDefault("contextTrie", contextTrie)) {
+			trie = new ContextTrie();
+		}
+		else {
+			mDictionary = new ContextMap();
+		}
+		
+		//only the most recent sequences are kept with a sliding window
+		int windowSize = parameters.paramIntOrDefault("slidingWindow", slidingWindow);
+		window = null;
+		if(windowSize > 0 && sketch != null) {
+			throw new RuntimeException("The slidingWindow parameter of " + TAG + " cannot be used with a memoryBudget");
+		}
+		if(windowSize > 0) {
+			window = new ArrayDeque<Sequence>();
+			if(trainingSequences.size() > windowSize) {
+				trainingSequences = trainingSequences.subList(trainingSequences.size() - windowSize, trainingSequences.size());
+			}
+		}
 		
 		//for each sequence in the training set
 		for(Sequence seq : trainingSequences) {
-			
-			//for each items in this sequence, but the last one
-			List<Item> items = seq.getItems();
-			for(int i = 0 ; i < (items.size() - 1); i++) {
+			count(seq, true);
+			if(window != null) {
+				window.add(seq);
+			}
+		}
+		
+		modelChanged();
+		return true;
+	}
+	
+	/**
+	 * Add sequences to the trained model without training it again.
+	 * With the "slidingWindow" parameter, the oldest sequences are then evicted (see evict()).
+	 * It must not be called while other threads are predicting with this model.
+	 */
+	public void update(List<Sequence> sequences) {
+		
+		//nothing to update yet
+		if(mDictionary == null && trie == null && sketch == null) {
+			Train(sequences);
+			return;
+		}
+		
+		for(Sequence seq : sequences) {
+			count(seq, true);
+			if(window != null) {
+				window.add(seq);
+			}
+		}
+		
+		//evicting the oldest sequences out of the window
+		int windowSize = parameters.paramIntOrDefault("slidingWindow", slidingWindow);
+		if(window != null && window.size() > windowSize) {
+			evict(window.size() - windowSize);
+		}
+		modelChanged();
+	}
+	
+	/**
+	 * Add a single sequence to the trained model (see update())
+	 */
+	public void observe(Sequence sequence) {
+		update(Collections.singletonList(sequence));
+	}
+	
+	/**
+	 * Remove the oldest sequences from the model by decrementing their transitions,
+	 * the transitions and the states without any support are removed.
+	 * The sequences are only known when the model is trained with the "slidingWindow" parameter.
+	 * It must not be called while other threads are predicting with this model.
+	 * @param count Number of sequences to remove
+	 */
+	public void evict(int count) {
+		
+		if(window == null) {
+			throw new RuntimeException("The sequences of " + TAG + " can only be evicted with the slidingWindow parameter");
+		}
+		
+		for(int i = 0; i < count && window.isEmpty() == false; i++) {
+			count(window.poll(), false);
+		}
+		modelChanged();
+	}
+	
+	/**
+	 * Add (or remove) the transitions of a sequence to the states of the model
+	 * @param add True to add the transitions, false to remove them
+	 */
+	private void count(Sequence seq, boolean add) {
+		
+		int[] items = toArray(seq.getItems(), 0);
+		
+		//for each item but the last one, the contexts of all the orders ending at this item are walked at once
+		if(trie != null) {
+			for(int i = 0; i < (items.length - 1); i++) {
+				if(add) {
+					trie.addTransition(items, i, order, items[i + 1]);
+				}
+				else {
+					trie.removeTransition(items, i, order, items[i + 1]);
+				}
+			}
+			return;
+		}
+		
+		//for each items in this sequence, but the last one
+		for(int i = 0 ; i < (items.length - 1); i++) {
 
-				int k = parameters.paramIntOrDefault("order", K);
-				k = ( (items.size() - i) > k) ? k : (items.size() - i - 1);
+			int k = order;
+			k = ( (items.length - i) > k) ? k : (items.length - i - 1);
+			
+			//For each order (from 1 to K), the key of the context is extended by one item
+			long hash = 0;
+			for(int c = 1 ; c <= k ; c++) {
+				
+				hash = ContextMap.extend(hash, items[i + c - 1]);
+				long key = ContextMap.key(hash, c);
 				
-				//For each order (from 1 to K)
-				for(int c = 1 ; c <= k ; c++) {
+				if(sketch != null) {
 					
-					String key = "";
-					//For each items for this order
-					for(int j = 0 ; j < c; j++) {
-						key += items.get(i + j).val.toString() + "_";
-					}
-					key = key.substring(0, key.length()-1);
+					//Counting the transition in the approximate model, transitions are never removed from it
+					sketch.addTransition(key, items[i + c]);
+				}
+				else if(add) {
 					
+					//Getting or creating the state associated with this context
+					//and adding the transition to the next item
+					mDictionary.getOrAdd(key, items, i, c).addTransition(items[i + c]);
+				}
+				else {
 					
-					//Getting or creating the state associated with this item
-					MarkovState state = mDictionary.get(key);
-					if(state == null) {
-						state = new MarkovState();
+					//Removing the transition to the next item, and the state once it has no transition
+					MarkovState state = mDictionary.get(key, items, i, c);
+					if(state != null) {
+						state.removeTransition(items[i + c]);
+						if(state.getTransitionCount() == 0) {
+							mDictionary.remove(key, items, i, c);
+						}
 					}
-					
-					//Adding the transition to the next item
-					state.addTransition(items.get(i + c).val);
-					
-					//Saving the changes into the dictionary
-					mDictionary.put(key, state);
 				}
 			}
-			
 		}
-		
-		return true;
+	}
+	
+	/**
+	 * Return the values of the items from [from] as an array
+	 */
+	private static int[] toArray(List<Item> items, int from) {
+		int[] values = new int[items.size() - from];
+		for(int i = 0; i < values.length; i++) {
+			values[i] = items.get(from + i).val;
+		}
+		return values;
+	}
+
+	/**
+	 * Only the last [order] items are used by the predictions
+	 */
+	@Override
+	public Sequence normalize(Sequence target) {
+		return (target.size() > order && order > 0) ? target.getLastItems(order, 0) : target;
 	}
 
 	@Override
 	public Sequence Predict(Sequence target) {
 		
-		int k = parameters.paramIntOrDefault("order", K);
+		int k = order;
 		k = (target.size() >= k) ? k : (target.size());
 		
+		//the last k items of the target
+		int[] items = toArray(target.getItems(), target.size() - k);
+		
+		//the longest context with transitions is found in a single walk of the trie
+		if(trie != null) {
+			ContextTrie.Node match = trie.longestMatch(items, k - 1, k);
+			Sequence predicted = new Sequence(-1);
+			if(match != null) {
+				predicted.addItem(new Item(match.getBestNextState()));
+			}
+			return predicted;
+		}
 		
 		//for each order (from K to 1) or until we have a match
 		for(int i = k; i > 0 ; i--) {
 			
 			//Building the key from the last i items of the target
-			String key = "";
-			for(int j = (target.size() - i) ; j < target.size(); j++) {
-				key += target.get(j) + "_";
+			long hash = 0;
+			for(int j = k - i; j < k; j++) {
+				hash = ContextMap.extend(hash, items[j]);
+			}
+			
+			//Getting the best next item of the context from the approximate model
+			if(sketch != null) {
+				int slot = sketch.find(ContextMap.key(hash, i));
+				if(slot >= 0) {
+					Sequence predicted = new Sequence(-1);
+					predicted.addItem(new Item(sketch.getBestNextState(slot)));
+					return predicted;
+				}
+				continue;
 			}
-			key = key.substring(0, key.length()-1);
 			
 			//Getting the associated state
-			MarkovState state = mDictionary.get(key);
+			MarkovState state = mDictionary.get(ContextMap.key(hash, i), items, k - i, i);
 			
 			//if the state is in the dictionary
 			if(state != null) {
@@ -128,12 +326,154 @@ public class MarkovAllKPredictor extends Predictor implements Serializable {
 		return new Sequence(-1);
 	}
 	
+	/**
+	 * Write the trained model: the states with their transitions and the sequences of the sliding window
+	 */
+	@Override
+	public void writeSnapshot(SnapshotWriter out) throws IOException {
+		
+		out.writeString(TAG);
+		parameters.write(out);
+		out.writeInt(order);
+		
+		//backing of the contexts: 0 for the hash map, 1 for the trie and 2 for the sketch
+		out.writeInt((trie != null) ? 1 : (sketch != null) ? 2 : 0);
+		if(trie != null) {
+			writeNode(out, trie.getRoot());
+		}
+		else if(sketch != null) {
+			sketch.write(out);
+		}
+		else {
+			out.writeInt(mDictionary.size());
+			for(int slot = 0; slot < mDictionary.capacity(); slot++) {
+				if(mDictionary.stateAt(slot) != null) {
+					out.writeInts(mDictionary.contextAt(slot));
+					mDictionary.stateAt(slot).write(out);
+				}
+			}
+		}
+		
+		out.writeInt((window != null) ? window.size() : -1);
+		if(window != null) {
+			for(Sequence seq : window) {
+				int[] items = new int[seq.size()];
+				for(int i = 0; i < items.length; i++) {
+					items[i] = seq.get(i).val;
+				}
+				out.writeInt(seq.getId());
+				out.writeInts(items);
+			}
+		}
+	}
+	
+	@Override
+	public void readSnapshot(SnapshotReader in) throws IOException {
+		
+		TAG = in.readString();
+		parameters.read(in);
+		order = in.readInt();
+		
+		mDictionary = null;
+		trie = null;
+		sketch = null;
+		int backing = in.readInt();
+		if(backing == 1) {
+			trie = new ContextTrie();
+			readNode(in, trie.getRoot());
+		}
+		else if(backing == 2) {
+			sketch = ContextSketch.read(in);
+		}
+		else {
+			int stateCount = in.readInt();
+			mDictionary = new ContextMap();
+			for(int i = 0; i < stateCount; i++) {
+				mDictionary.put(in.readInts(), MarkovState.read(in));
+			}
+		}
+		
+		int windowCount = in.readInt();
+		window = (windowCount >= 0) ? new ArrayDeque<Sequence>() : null;
+		for(int i = 0; i < windowCount; i++) {
+			Sequence seq = new Sequence(in.readInt());
+			for(int item : in.readInts()) {
+				seq.addItem(new Item(item));
+			}
+			window.add(seq);
+		}
+		modelChanged();
+	}
+	
+	/**
+	 * Write the children of a node of the trie in preorder: their count, then for each child its item,
+	 * the next items and the supports of its transitions, and its children
+	 */
+	private static void writeNode(SnapshotWriter out, ContextTrie.Node node) throws IOException {
+		out.writeInt(node.getChildCount());
+		for(int i = 0; i < node.getChildCount(); i++) {
+			ContextTrie.Node child = node.getChildAt(i);
+			int[] values = new int[child.getTransitionCount()];
+			int[] supports = new int[values.length];
+			for(int j = 0; j < values.length; j++) {
+				values[j] = child.getTransitionValue(j);
+				supports[j] = child.getTransitionSupport(j);
+			}
+			out.writeInt(child.item);
+			out.writeInts(values);
+			out.writeInts(supports);
+			writeNode(out, child);
+		}
+	}
+	
+	/**
+	 * Read the children of a node of the trie written by writeNode()
+	 */
+	private void readNode(SnapshotReader in, ContextTrie.Node node) throws IOException {
+		int childCount = in.readInt();
+		for(int i = 0; i < childCount; i++) {
+			int item = in.readInt();
+			int[] values = in.readInts();
+			readNode(in, trie.appendChild(node, item, values, in.readInts()));
+		}
+	}
+	
+	/**
+	 * Total number of transitions of the states below a node of the trie
+	 */
+	private static long transitionCount(ContextTrie.Node node) {
+		long count = 0;
+		for(int i = 0; i < node.getChildCount(); i++) {
+			ContextTrie.Node child = node.getChildAt(i);
+			count += child.getTransitionCount() + transitionCount(child);
+		}
+		return count;
+	}
+	
+	/**
+	 * Error bounds of the approximate model (see ContextSketch), null for an exact model
+	 */
+	@Override
+	public String getErrorBounds() {
+		return (sketch != null) ? sketch.getErrorBounds() : null;
+	}
+	
 	public long size() {
 		
+		if(trie != null) {
+			return trie.size() + transitionCount(trie.getRoot());
+		}
+		if(sketch != null) {
+			return sketch.contextCount() + sketch.transitionCount();
+		}
+		
 		long nodeCount = 0;
 		
-		for(MarkovState state : mDictionary.values()) {
-			nodeCount += 1 + state.getTransitionCount();
+		for(int slot = 0; slot < mDictionary.capacity(); slot++) {
+			MarkovState state = mDictionary.stateAt(slot);
+			if(state != null) {
+				nodeCount += 1 + state.getTransitionCount();
+			}
 		}
 		
 		return nodeCount;
@@ -142,12 +482,23 @@ public class MarkovAllKPredictor extends Predictor implements Serializable {
 	/**
 	 * Each node on the first level is an int (4 bytes)
 	 * For each of these nodes, each child is two ints (8 bytes), one for the value/id and the other for its support 
+	 * The approximate model uses the arrays allocated from its memory budget
 	 */
 	public float memoryUsage() {
 		float size = 0f;
 		
-		for(MarkovState state : mDictionary.values()) {
-			size += 4 + (8 * state.getTransitionCount());
+		if(trie != null) {
+			return 4f * trie.size() + 8f * transitionCount(trie.getRoot());
+		}
+		if(sketch != null) {
+			return sketch.memoryUsage();
+		}
+		
+		for(int slot = 0; slot < mDictionary.capacity(); slot++) {
+			MarkovState state = mDictionary.stateAt(slot);
+			if(state != null) {
+				size += 4 + (8 * state.getTransitionCount());
+			}
 		}
 		
 		return size;
@@ -1,11 +1,14 @@
 package ca.ipredict.predictor.Markov;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.List;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
 import ca.ipredict.predictor.Paramable;
 import ca.ipredict.predictor.Predictor;
 
@@ -21,9 +24,9 @@ public class MarkovFirstOrderPredictor extends Predictor implements Serializable
 	private static final long serialVersionUID = -4801796583385392872L;
 
 	/**
-	 * List of unique items and their state in the Markov model
+	 * Transitions of each unique item, frozen after the training
 	 */
-	private HashMap<Integer, MarkovState> mDictionary;
+	private TransitionMatrix mDictionary;
 	
 
 	public Paramable parameters;
@@ -45,7 +48,7 @@ public class MarkovFirstOrderPredictor extends Predictor implements Serializable
 
 	@Override
 	public Boolean Train(List<Sequence> trainingSequences) {
-		mDictionary = new HashMap<Integer, MarkovState>();
+		HashMap<Integer, MarkovState> states = new HashMap<Integer, MarkovState>();
 		
 		//for each sequence in the training set
 		for(Sequence seq : trainingSequences) {
@@ -55,7 +58,7 @@ public class MarkovFirstOrderPredictor extends Predictor implements Serializable
 			for(int i = 0 ; i < (items.size() - 1); i++) {
 				
 				//Getting or creating the state associated with this item
-				MarkovState state = mDictionary.get(items.get(i).val);
+				MarkovState state = states.get(items.get(i).val);
 				if(state == null) {
 					state = new MarkovState();
 				}
@@ -64,14 +67,26 @@ public class MarkovFirstOrderPredictor extends Predictor implements Serializable
 				state.addTransition(items.get(i + 1).val);
 				
 				//Saving the changes into the dictionary
-				mDictionary.put(items.get(i).val, state);
+				states.put(items.get(i).val, state);
 			}
 			
 		}
+		
+		//the states are only needed to count the transitions
+		mDictionary = TransitionMatrix.build(states);
 
+		modelChanged();
 		return true;
 	}
 
+	/**
+	 * Only the last item is used by the predictions
+	 */
+	@Override
+	public Sequence normalize(Sequence target) {
+		return (target.size() > 1) ? target.getLastItems(1, 0) : target;
+	}
+	
 	@Override
 	public Sequence Predict(Sequence target) {
 		
@@ -79,12 +94,12 @@ public class MarkovFirstOrderPredictor extends Predictor implements Serializable
 		Item lastItem = target.get(target.size() - 1);
 		
 		
-		MarkovState state = mDictionary.get(lastItem.val);
-		if(state == null) {
+		int row = mDictionary.row(lastItem.val);
+		if(row < 0) {
 			return new Sequence(-1);
 		}
 
-		Integer nextState = state.getBestNextState();
+		Integer nextState = mDictionary.getBestNextState(row);
 		Sequence predicted = new Sequence(-1);
 		predicted.addItem(new Item(nextState));
 
@@ -92,15 +107,35 @@ public class MarkovFirstOrderPredictor extends Predictor implements Serializable
 	}
 
 	
-	public long size() {
+	/**
+	 * Write the trained model, the arrays of its transition matrix
+	 */
+	@Override
+	public void writeSnapshot(SnapshotWriter out) throws IOException {
 		
-		long nodeCount = 0;
+		out.writeString(TAG);
+		parameters.write(out);
 		
-		for(MarkovState state : mDictionary.values()) {
-			nodeCount += 1 + state.getTransitionCount();
-		}
+		mDictionary.write(out);
+	}
+	
+	/**
+	 * Read a model written by writeSnapshot(), its transition matrix stays memory mapped (see TransitionMatrix.map())
+	 */
+	@Override
+	public void readSnapshot(SnapshotReader in) throws IOException {
+		
+		TAG = in.readString();
+		parameters.read(in);
+		
+		mDictionary = TransitionMatrix.map(in);
+		modelChanged();
+	}
+
+	
+	public long size() {
 		
-		return nodeCount;
+		return (long) mDictionary.rowCount() + mDictionary.transitionCount();
 	}
 
 	/**
@@ -108,12 +143,6 @@ public class MarkovFirstOrderPredictor extends Predictor implements Serializable
 	 * For each of these nodes, each child is two ints (8 bytes), one for the value/id and the other for its support 
 	 */
 	public float memoryUsage() {
-		float size = 0f;
-		
-		for(MarkovState state : mDictionary.values()) {
-			size += 4 + (8 * state.getTransitionCount());
-		}
-		
-		return size;
+		return 4f * mDictionary.rowCount() + 8f * mDictionary.transitionCount();
 	}
 }
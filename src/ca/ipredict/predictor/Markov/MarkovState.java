@@ -1,10 +1,20 @@
 package ca.ipredict.predictor.Markov;
 
+import java.io.IOException;
 import java.io.Serializable;
-import java.util.HashMap;
-import java.util.Iterator;
-import java.util.Map.Entry;
+import java.util.Arrays;
 
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
+
+/**
+ * State of a Markov model with the transitions to its next states
+ *
+ * The transitions are kept in parallel arrays sorted by value. The supports are stored on 16 bits
+ * and widened to 32 bits once one of them does not fit anymore.
+ * The best transition is updated along with the supports, so getBestNextState() does not iterate over the transitions.
+ * Ties are broken by the smallest value.
+ */
 public class MarkovState implements Serializable {
 
 	private static final long serialVersionUID = -8819363846752644204L;
@@ -12,78 +22,217 @@ public class MarkovState implements Serializable {
 	/**
 	 * Number of transitions for this state
 	 */
-	private Integer count;
-	
+	private int count;
+
+	/**
+	 * Outgoing states sorted by value, the first [count] ones are used
+	 */
+	private int[] values;
+
+	/**
+	 * Support of each transition, in smallSupports while they all fit on 16 bits, in supports afterwards
+	 */
+	private char[] smallSupports;
+	private int[] supports;
+
 	/**
-	 * Hashmap of each transition and their respective support
+	 * Index of the transition with the highest support, -1 without transitions
 	 */
-	private HashMap<Integer, Integer> transitions; //outgoing states and their count
-	
-	
+	private int best;
+
+
 	public MarkovState() {
 		count = 0;
-		transitions = new HashMap<Integer, Integer>();
+		values = new int[2];
+		smallSupports = new char[2];
+		supports = null;
+		best = -1;
 	}
-	
+
 	/**
 	 * Returns the number of transition for this state - not the support
 	 */
 	public int getTransitionCount() {
 		return count;
 	}
-	
+
+	/**
+	 * Returns the value of the transition at index i, the transitions are sorted by value
+	 */
+	public int getValueAt(int i) {
+		return values[i];
+	}
+
+	/**
+	 * Returns the support of the transition at index i
+	 */
+	public int getSupportAt(int i) {
+		return support(i);
+	}
+
+	private int support(int i) {
+		return (supports != null) ? supports[i] : smallSupports[i];
+	}
+
+	private void setSupport(int i, int support) {
+		if(supports == null && support > Character.MAX_VALUE) {
+			//widening the supports
+			supports = new int[values.length];
+			for(int j = 0; j < count; j++) {
+				supports[j] = smallSupports[j];
+			}
+			smallSupports = null;
+		}
+		if(supports != null) {
+			supports[i] = support;
+		}
+		else {
+			smallSupports[i] = (char) support;
+		}
+	}
+
 	/**
 	 * Adds or update a transition from this state
 	 * @param val Value of the new state
 	 */
-	public void addTransition(Integer val) {
-		
-		//Getting the current value or creating it
-		Integer support = transitions.get(val);
-		if(support == null) {
-			support = 0;
-			count += 1;
-		}
-		
+	public void addTransition(int val) {
+
+		//Getting the current transition or inserting it
+		int i = Arrays.binarySearch(values, 0, count, val);
+		if(i < 0) {
+			i = -i - 1;
+			insert(i, val);
+			if(best >= i) {
+				best++;
+			}
+		}
+
 		//updating value
-		support++;
-		
-		//pushing value back to the transitions map
-		transitions.put(val, support);
-		
+		setSupport(i, support(i) + 1);
+
+		//the incremented transition is the only one that can become the best
+		if(best < 0 || support(i) > support(best) || (support(i) == support(best) && i < best)) {
+			best = i;
+		}
 	}
-	
-	
-	public Integer getBestNextState() {
-		Integer highestCount = 0;
-		Integer highestValue = null;
-		
-		Iterator<Entry<Integer, Integer>> it = transitions.entrySet().iterator();
-		while(it.hasNext()) {
-			
-			Entry<Integer, Integer> pairs = it.next();
-			
-			if((pairs.getValue()) > highestCount) {
-				highestCount = (pairs.getValue());
-				highestValue = (pairs.getKey());
+
+	/**
+	 * Inserts a transition without support at index i
+	 */
+	private void insert(int i, int val) {
+		if(count == values.length) {
+			int capacity = count * 2;
+			values = Arrays.copyOf(values, capacity);
+			if(supports != null) {
+				supports = Arrays.copyOf(supports, capacity);
+			}
+			else {
+				smallSupports = Arrays.copyOf(smallSupports, capacity);
+			}
+		}
+		System.arraycopy(values, i, values, i + 1, count - i);
+		if(supports != null) {
+			System.arraycopy(supports, i, supports, i + 1, count - i);
+		}
+		else {
+			System.arraycopy(smallSupports, i, smallSupports, i + 1, count - i);
+		}
+		values[i] = val;
+		setSupport(i, 0);
+		count++;
+	}
+
+
+	/**
+	 * Removes one occurrence of a transition from this state, the transition is removed when its support reaches 0
+	 * @param val Value of the next state
+	 */
+	public void removeTransition(int val) {
+
+		int i = Arrays.binarySearch(values, 0, count, val);
+		if(i < 0) {
+			return;
+		}
+
+		if(support(i) == 1) {
+			System.arraycopy(values, i + 1, values, i, count - i - 1);
+			if(supports != null) {
+				System.arraycopy(supports, i + 1, supports, i, count - i - 1);
+			}
+			else {
+				System.arraycopy(smallSupports, i + 1, smallSupports, i, count - i - 1);
+			}
+			count -= 1;
+			if(best > i) {
+				best--;
+				return;
+			}
+		}
+		else {
+			setSupport(i, support(i) - 1);
+		}
+
+		//the best transition lost some support, it is searched again
+		if(best == i) {
+			findBest();
+		}
+	}
+
+	private void findBest() {
+		best = -1;
+		for(int i = 0; i < count; i++) {
+			if(best < 0 || support(i) > support(best)) {
+				best = i;
 			}
-			
 		}
-		
-		return highestValue;
 	}
-	
-	
+
+
+	/**
+	 * Returns the next state with the highest support, null without transitions
+	 */
+	public Integer getBestNextState() {
+		return (best >= 0) ? values[best] : null;
+	}
+
+	/**
+	 * Write this state in a model snapshot (see ModelSnapshot)
+	 */
+	public void write(SnapshotWriter out) throws IOException {
+		int[] counts = new int[count];
+		for(int i = 0; i < count; i++) {
+			counts[i] = support(i);
+		}
+		out.writeInts(values, count);
+		out.writeInts(counts);
+	}
+
+	/**
+	 * Read a state written by write()
+	 */
+	public static MarkovState read(SnapshotReader in) throws IOException {
+		MarkovState state = new MarkovState();
+		int[] values = in.readInts();
+		int[] supports = in.readInts();
+		state.count = values.length;
+		state.values = (values.length > 0) ? values : state.values;
+		state.smallSupports = new char[state.values.length];
+		for(int i = 0; i < values.length; i++) {
+			state.setSupport(i, supports[i]);
+		}
+		state.findBest();
+		return state;
+	}
+
+
 	public String toString() {
 		String output = "";
-		Iterator<Entry<Integer, Integer>> it = transitions.entrySet().iterator();
-		while(it.hasNext()) {
-			Entry<Integer, Integer> pairs = it.next();
-			output += pairs.getKey() + "("+ pairs.getValue() + ") ";
+		for(int i = 0; i < count; i++) {
+			output += values[i] + "("+ support(i) + ") ";
 		}
 		return output;
 	}
-	
+
 }
 
 
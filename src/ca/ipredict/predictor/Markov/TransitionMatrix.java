@@ -0,0 +1,203 @@
+package ca.ipredict.predictor.Markov;
+
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
+
+/**
+ * Frozen first order transitions, stored as a sparse matrix in CSR format
+ *
+ * Each item with transitions is a row, the rows are sorted by item. The transitions of row r are
+ * targets[offsets[r], offsets[r + 1][ with their counts, and best[r] is the target with the highest count
+ * (the smallest one on ties, like MarkovState.getBestNextState()).
+ * When the items are dense enough, rowOf gives the row of an item directly, so a prediction is two array reads.
+ * Otherwise the row is found by a binary search in items.
+ *
+ * The arrays are IntBuffers so that a matrix loaded from a snapshot can stay memory mapped (see map()).
+ * They are serialized as int arrays, a deserialized matrix is on the heap.
+ */
+public class TransitionMatrix implements Serializable {
+
+	private static final long serialVersionUID = 2903741560329318571L;
+
+	/**
+	 * Max number of entries of rowOf per row, above it the rows are found by binary search
+	 */
+	private static final int MAX_DIRECT_RATIO = 4;
+
+	private transient IntBuffer items; //item of each row, sorted
+	private transient IntBuffer rowOf; //row of each item value or -1, empty if the items are too sparse
+	private transient IntBuffer offsets; //first transition of each row, plus the number of transitions
+	private transient IntBuffer targets;
+	private transient IntBuffer counts;
+	private transient IntBuffer best; //best target of each row
+
+	private TransitionMatrix() {
+	}
+
+	/**
+	 * Build the matrix from the states of each item
+	 */
+	public static TransitionMatrix build(Map<Integer, MarkovState> states) {
+
+		int[] items = new int[states.size()];
+		int i = 0;
+		int transitionCount = 0;
+		for(Map.Entry<Integer, MarkovState> entry : states.entrySet()) {
+			items[i++] = entry.getKey();
+			transitionCount += entry.getValue().getTransitionCount();
+		}
+		Arrays.sort(items);
+
+		int[] offsets = new int[items.length + 1];
+		int[] targets = new int[transitionCount];
+		int[] counts = new int[transitionCount];
+		int[] best = new int[items.length];
+		int pos = 0;
+		for(int row = 0; row < items.length; row++) {
+			MarkovState state = states.get(items[row]);
+			offsets[row] = pos;
+			for(int j = 0; j < state.getTransitionCount(); j++) {
+				targets[pos] = state.getValueAt(j);
+				counts[pos] = state.getSupportAt(j);
+				pos++;
+			}
+			best[row] = state.getBestNextState();
+		}
+		offsets[items.length] = pos;
+
+		TransitionMatrix matrix = new TransitionMatrix();
+		matrix.items = IntBuffer.wrap(items);
+		matrix.rowOf = IntBuffer.wrap(directIndex(items));
+		matrix.offsets = IntBuffer.wrap(offsets);
+		matrix.targets = IntBuffer.wrap(targets);
+		matrix.counts = IntBuffer.wrap(counts);
+		matrix.best = IntBuffer.wrap(best);
+		return matrix;
+	}
+
+	/**
+	 * Return the row of each item value from 0 to the largest item, or an empty array if the items
+	 * are negative or too sparse for it
+	 */
+	private static int[] directIndex(int[] items) {
+		if(items.length == 0 || items[0] < 0 || items[items.length - 1] >= (long) MAX_DIRECT_RATIO * items.length + 1024) {
+			return new int[0];
+		}
+		int[] rowOf = new int[items[items.length - 1] + 1];
+		Arrays.fill(rowOf, -1);
+		for(int row = 0; row < items.length; row++) {
+			rowOf[items[row]] = row;
+		}
+		return rowOf;
+	}
+
+	/**
+	 * Return the row of an item or -1 if it has no transitions
+	 */
+	public int row(int item) {
+		if(rowOf.capacity() > 0) {
+			return (item >= 0 && item < rowOf.capacity()) ? rowOf.get(item) : -1;
+		}
+
+		int low = 0;
+		int high = items.capacity() - 1;
+		while(low <= high) {
+			int mid = (low + high) >>> 1;
+			int value = items.get(mid);
+			if(value < item) {
+				low = mid + 1;
+			}
+			else if(value > item) {
+				high = mid - 1;
+			}
+			else {
+				return mid;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Return the next item with the highest count from a row
+	 */
+	public int getBestNextState(int row) {
+		return best.get(row);
+	}
+
+	public int rowCount() {
+		return items.capacity();
+	}
+
+	/**
+	 * Number of distinct transitions of the matrix
+	 */
+	public int transitionCount() {
+		return targets.capacity();
+	}
+
+	/**
+	 * Write the matrix in a model snapshot (see ModelSnapshot)
+	 */
+	public void write(SnapshotWriter out) throws IOException {
+		out.writeInts(items);
+		out.writeInts(rowOf);
+		out.writeInts(offsets);
+		out.writeInts(targets);
+		out.writeInts(counts);
+		out.writeInts(best);
+	}
+
+	private void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
+		out.writeObject(toArray(items));
+		out.writeObject(toArray(rowOf));
+		out.writeObject(toArray(offsets));
+		out.writeObject(toArray(targets));
+		out.writeObject(toArray(counts));
+		out.writeObject(toArray(best));
+	}
+
+	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
+		in.defaultReadObject();
+		items = IntBuffer.wrap((int[]) in.readObject());
+		rowOf = IntBuffer.wrap((int[]) in.readObject());
+		offsets = IntBuffer.wrap((int[]) in.readObject());
+		targets = IntBuffer.wrap((int[]) in.readObject());
+		counts = IntBuffer.wrap((int[]) in.readObject());
+		best = IntBuffer.wrap((int[]) in.readObject());
+	}
+
+	/**
+	 * Copy the content of a buffer, which can be memory mapped
+	 */
+	private static int[] toArray(IntBuffer buffer) {
+		int[] values = new int[buffer.capacity()];
+		IntBuffer copy = buffer.duplicate();
+		copy.clear();
+		copy.get(values);
+		return values;
+	}
+
+	/**
+	 * Load a matrix written by write() without copying it: the arrays stay memory mapped,
+	 * so the matrix takes almost no heap and its pages are shared by the processes loading the same snapshot
+	 */
+	public static TransitionMatrix map(SnapshotReader in) throws IOException {
+		TransitionMatrix matrix = new TransitionMatrix();
+		matrix.items = in.mapInts();
+		matrix.rowOf = in.mapInts();
+		matrix.offsets = in.mapInts();
+		matrix.targets = in.mapInts();
+		matrix.counts = in.mapInts();
+		matrix.best = in.mapInts();
+		return matrix;
+	}
+}
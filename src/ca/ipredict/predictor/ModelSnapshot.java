@@ -0,0 +1,67 @@
+package ca.ipredict.predictor;
+
+import java.io.IOException;
+
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
+
+/**
+ * Versioned binary snapshot of a trained predictor
+ *
+ * A snapshot starts with a header (magic number, format version and class of the predictor),
+ * followed by the model written by Predictor.writeSnapshot(). Loading a snapshot memory maps the file
+ * (see SnapshotReader) and rebuilds the model with Predictor.readSnapshot(), the loaded predictor
+ * gives the same predictions as the saved one without being trained again and without the profile.
+ */
+public class ModelSnapshot {
+
+	/**
+	 * "IPRD" in little endian
+	 */
+	public static final int MAGIC = 0x44525049;
+
+	/**
+	 * Version of the format, to increment when the layout of a predictor changes
+	 */
+	public static final int FORMAT_VERSION = 10;
+
+	/**
+	 * Save a trained predictor to disk
+	 */
+	public static void save(String filepath, Predictor predictor) throws IOException {
+		try(SnapshotWriter out = new SnapshotWriter(filepath)) {
+			out.writeInt(MAGIC);
+			out.writeInt(FORMAT_VERSION);
+			out.writeString(predictor.getClass().getName());
+			predictor.writeSnapshot(out);
+		}
+	}
+
+	/**
+	 * Load a predictor saved by save()
+	 * @return the predictor, ready to predict
+	 */
+	public static Predictor load(String filepath) throws IOException {
+		try(SnapshotReader in = new SnapshotReader(filepath)) {
+			if(in.readInt() != MAGIC) {
+				throw new IOException(filepath + " is not a model snapshot");
+			}
+			int version = in.readInt();
+			if(version != FORMAT_VERSION) {
+				throw new IOException("Unsupported snapshot version " + version + ", expected " + FORMAT_VERSION);
+			}
+
+			//the predictor is created empty and filled by its own reader
+			String className = in.readString();
+			Predictor predictor;
+			try {
+				predictor = Class.forName(className).asSubclass(Predictor.class).getDeclaredConstructor().newInstance();
+			} catch (ReflectiveOperationException | ClassCastException e) {
+				throw new IOException("Cannot create the predictor " + className, e);
+			}
+			predictor.readSnapshot(in);
+
+			return predictor;
+		}
+	}
+}
@@ -1,8 +1,12 @@
 package ca.ipredict.predictor;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.HashMap;
+import java.util.Map.Entry;
 
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
 import ca.ipredict.predictor.profile.Profile;
 
 public class Paramable implements Serializable {
@@ -88,4 +92,26 @@ public class Paramable implements Serializable {
 		Boolean param = paramBool(paramName);
 		return (param != null) ? param : defaultValue;
 	}
+	
+	/**
+	 * Write the parameters in a model snapshot (see ModelSnapshot)
+	 */
+	public void write(SnapshotWriter out) throws IOException {
+		out.writeInt(parameters.size());
+		for(Entry<String, String> param : parameters.entrySet()) {
+			out.writeString(param.getKey());
+			out.writeString(param.getValue());
+		}
+	}
+	
+	/**
+	 * Replace the parameters by the ones written by write()
+	 */
+	public void read(SnapshotReader in) throws IOException {
+		parameters.clear();
+		int count = in.readInt();
+		for(int i = 0; i < count; i++) {
+			parameters.put(in.readString(), in.readString());
+		}
+	}
 }
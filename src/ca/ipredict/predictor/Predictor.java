@@ -1,10 +1,20 @@
 package ca.ipredict.predictor;
+import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ForkJoinPool;
 
 import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
 
 /**
  * Interface for all the predictors
+ * 
+ * A trained predictor is immutable: Predict() does not modify the model nor the given sequence,
+ * so a single model can be shared by many threads calling Predict() at the same time.
+ * The model must not be trained again while it is used, and it has to be published safely 
+ * to the other threads (e.g. by an ExecutorService or a final field) once Train() has returned.
  */
 public abstract class Predictor {
 
@@ -14,6 +24,11 @@ public abstract class Predictor {
 	 */
 	protected String TAG;
 	
+	/**
+	 * Incremented whenever the trained model changes (see modelChanged())
+	 */
+	private volatile long modelVersion;
+	
 	public Predictor(){
 	}
 	
@@ -29,11 +44,72 @@ public abstract class Predictor {
 	public abstract Boolean Train(List<Sequence> trainingSequences);
 	
 	/**
-	 * Predict the next element in the given sequence
-	 * @param sequence to predict
+	 * Predict the next element in the given sequence, it is safe to call it from several threads at once
+	 * @param sequence to predict, it is not modified
 	 */
 	public abstract Sequence Predict(Sequence target);
 	
+	/**
+	 * Return the part of a sequence that its prediction depends on, so that the sequences with the same 
+	 * normalized sequence get the same prediction (see CachedPredictor). By default the sequence itself.
+	 * @param target sequence to predict, it is not modified
+	 */
+	public Sequence normalize(Sequence target) {
+		return target;
+	}
+	
+	/**
+	 * Predict the next element of each sequence of a batch, the predictions are spread over the common ForkJoinPool
+	 * @param targets sequences to predict, they are not modified
+	 * @return the predictions, in the same order as the targets
+	 */
+	public List<Sequence> predictBatch(List<Sequence> targets) {
+		return predictBatch(targets, null, null);
+	}
+	
+	/**
+	 * Predict the next element of each sequence of a batch, the predictions are spread over a ForkJoinPool
+	 * @param targets sequences to predict, they are not modified
+	 * @param pool pool running the predictions, the common pool if null
+	 * @param latencies receives the duration of each prediction in nanoseconds (see LatencyStats), null to not measure them
+	 * @return the predictions, in the same order as the targets
+	 */
+	public List<Sequence> predictBatch(List<Sequence> targets, ForkJoinPool pool, long[] latencies) {
+		Sequence[] predictions = new Sequence[targets.size()];
+		BatchPrediction.run(predictions.length, pool, latencies, i -> predictions[i] = Predict(targets.get(i)));
+		return Arrays.asList(predictions);
+	}
+	
+	/**
+	 * Write the trained model in a snapshot (see ModelSnapshot), it is not modified
+	 */
+	public void writeSnapshot(SnapshotWriter out) throws IOException {
+		throw new RuntimeException(getTAG() + " does not support snapshots");
+	}
+	
+	/**
+	 * Replace the model of this predictor by the one written by writeSnapshot() (see ModelSnapshot)
+	 */
+	public void readSnapshot(SnapshotReader in) throws IOException {
+		throw new RuntimeException(getTAG() + " does not support snapshots");
+	}
+	
+	/**
+	 * Version of the trained model, it changes whenever the model is trained, read from a snapshot or updated
+	 * so that the results computed from a previous model can be dropped (see CachedPredictor)
+	 */
+	public long getModelVersion() {
+		return modelVersion;
+	}
+	
+	/**
+	 * To be called by every predictor once its model has changed: at the end of Train() and readSnapshot(),
+	 * and of any other method that modifies the model (e.g. update())
+	 */
+	protected void modelChanged() {
+		modelVersion++;
+	}
+	
 	/**
 	 * Get the predictor's TAG (unique string identifier)
 	 */
@@ -41,6 +117,13 @@ public abstract class Predictor {
 		return TAG;
 	}
 	
+	/**
+	 * Describe the error bounds of an approximate model, null for an exact one
+	 */
+	public String getErrorBounds() {
+		return null;
+	}
+	
 	/**
 	 * Get the size of the predictor after training where the unit is an arbitrary value such as number of nodes (for graph and trees)
 	 */
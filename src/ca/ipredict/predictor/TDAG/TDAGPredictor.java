@@ -1,13 +1,14 @@
 package ca.ipredict.predictor.TDAG;
 
+import java.io.IOException;
 import java.io.Serializable;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map.Entry;
 
 import ca.ipredict.database.Item;
 import ca.ipredict.database.Sequence;
+import ca.ipredict.helpers.SnapshotReader;
+import ca.ipredict.helpers.SnapshotWriter;
 import ca.ipredict.predictor.Predictor;
 
 /**
@@ -25,14 +26,9 @@ public class TDAGPredictor extends Predictor implements Serializable{
 	private static final long serialVersionUID = -2326834780277423168L;
 
 	/**
-	 * FIFO used during training to remember the last Node inserted in the tree
+	 * Nodes of the tree
 	 */
-	private List<TDAGNode> state;
-	
-	/**
-	 * Root of the tree
-	 */
-	private TDAGNode root;
+	private TDAGTree tree;
 	
 	/**
 	 * Number of nodes in the tree
@@ -45,12 +41,6 @@ public class TDAGPredictor extends Predictor implements Serializable{
 	 */
 	private final Integer maxTreeHeight = 6;
 	
-	/**
-	 * Map a list of symbol to a specific node in the tree
-	 * It is used to lookup specific nodes in the prediction method.
-	 */
-	private HashMap<List<Integer>, TDAGNode> mDictionary;
-	
 	
 	public TDAGPredictor() {
 		TAG = "TDAG";
@@ -64,50 +54,48 @@ public class TDAGPredictor extends Predictor implements Serializable{
 	public Boolean Train(List<Sequence> trainingSequences) {
 		
 		//reset
-		root = new TDAGNode(0, new ArrayList<Integer>());
+		tree = new TDAGTree();
 		size = 1;
-		state = new ArrayList<TDAGNode>();
-		mDictionary = new HashMap<List<Integer>, TDAGNode>();
 		
+		//State: the last nodes inserted in the tree, state[j] is at depth j (the root is at depth 0)
+		int[] state = new int[maxTreeHeight + 1];
+		int[] newState = new int[maxTreeHeight + 1];
 		
 		//for each training sequence
 		for(Sequence seq : trainingSequences) {
 			
 			//resetting the states
-			state.clear();
-			state.add(root);
+			int stateSize = 1;
+			state[0] = TDAGTree.ROOT;
 			
 			//For each item in the current sequence
 			for(Item item : seq.getItems()) {
 				
 				//Initiating the newState
-				List<TDAGNode> newState = new ArrayList<TDAGNode>();
-				newState.add(root);
+				int newStateSize = 1;
+				newState[0] = TDAGTree.ROOT;
 				
 				//Adding a child with this item to each of the nodes in State
-				for(TDAGNode node : state) {
+				//if the node has not the maximal allowed height
+				for(int j = 0; j < stateSize && j < maxTreeHeight; j++) {
 					
-					//if the node has not the maximal allowed height
-					if(node.pathFromRoot.size() <= maxTreeHeight) {
-						
-						//Create and insert the node
-						TDAGNode child = node.addChild(item.val);
-						size++;
-						mDictionary.put(child.pathFromRoot, child);
-						
-						//Pushing the new child in the next state
-						newState.add(child);
-					}
+					//Create and insert the node, then push it in the next state
+					//its path without its first symbol is the previous node of the next state
+					newState[newStateSize] = tree.addChild(state[j], item.val);
+					tree.setSuffixLink(newState[newStateSize], newState[newStateSize - 1]);
+					newStateSize++;
+					size++;
 				}
 				
 				//Overwriting State with the newState
+				int[] swap = state;
 				state = newState;
+				newState = swap;
+				stateSize = newStateSize;
 			}
 		}
 		
-		//Free memory since this is only used in the training process
-		state.clear();
-		
+		modelChanged();
 		return true;
 	}
 
@@ -115,52 +103,35 @@ public class TDAGPredictor extends Predictor implements Serializable{
 	public Sequence Predict(Sequence target) {
 		Sequence predicted = new Sequence(-1);
 		
-		//Converting the target sequence into a list of symbol
-		List<Integer> symbols = new ArrayList<Integer>();
-		symbols.add(0);
-		for(Item item : target.getItems()) {
-			symbols.add(item.val);
+		//Looking for the node of the longest suffix of the target in a single pass over its symbols:
+		//when the current context cannot be extended by a symbol, the less relevant symbols are
+		//removed by following the suffix links. Only the last maxTreeHeight - 1 symbols are used
+		//since the nodes of longer paths have no children.
+		List<Item> items = target.getItems();
+		int context = TDAGTree.ROOT;
+		for(int i = Math.max(0, items.size() - (maxTreeHeight - 1)); i < items.size(); i++) {
+			int symbol = items.get(i).val;
+			int child = tree.getChild(context, symbol);
+			while(child < 0 && context != TDAGTree.ROOT) {
+				context = tree.getSuffixLink(context);
+				child = tree.getChild(context, symbol);
+			}
+			context = (child >= 0) ? child : TDAGTree.ROOT;
 		}
 		
-		//Looking for a Node in the tree that contains the same symbols as a 
-		//path from the root.
-		TDAGNode context = mDictionary.get(symbols);
-		while(context == null && symbols.size() > 0) {
-			
-			//removing the less relevant symbol from the symbols
-			symbols.remove(0);
-			
-			//Attempting to extract the right node
-			context = mDictionary.get(symbols);
+		//Falling back to shorter contexts until one has been followed by a symbol
+		while(context != TDAGTree.ROOT && tree.getOutCount(context) == 0) {
+			context = tree.getSuffixLink(context);
 		}
 		
 		
-		if(context != null) {
-			TDAGNode candidate1 = null; //Best candidate
-			TDAGNode candidate2 = null; //Second best candidate
+		if(context != TDAGTree.ROOT) {
 			
-			//For each child of this context, we calculate the score (probability of appearance given the context)
-			for(Entry<Integer, TDAGNode> entry : context.children.entrySet()) {
-				
-				double score = ((double) entry.getValue().inCount / context.outCount);
-				entry.getValue().score = score;
-				
-				if(candidate1 == null || candidate1.score < score) {
-					candidate2 = candidate1;
-					candidate1 = entry.getValue();
-				}
-				else if(candidate2 == null || candidate2.score < score) {
-					candidate2 = entry.getValue();
-				}
-			}
-			
-			
-			//Generating a prediction with candidate1 only if
-			//candidate1 has a higher score than candidate2 
-			Double treshold = 0.0;
-			if(candidate1 != null && 
-					(candidate2 == null || candidate1.score - candidate2.score > treshold)) {
-				predicted.addItem(new Item(candidate1.symbol));
+			//The score of a child is its probability of appearance given the context (inCount / outCount of the context),
+			//the child with the highest score is predicted only if its score is higher than the one of every other child
+			int candidate = tree.getBestChild(context);
+			if(candidate >= 0) {
+				predicted.addItem(new Item(tree.getSymbol(candidate)));
 			}
 		}
 		
@@ -168,6 +139,51 @@ public class TDAGPredictor extends Predictor implements Serializable{
 	}
 
 
+	/**
+	 * Write the trained model, the nodes are written in the order of their ids as five arrays (symbol, parent, counts and suffix link).
+	 */
+	@Override
+	public void writeSnapshot(SnapshotWriter out) throws IOException {
+		
+		out.writeString(TAG);
+		out.writeInt(size);
+		
+		int[] symbols = new int[tree.nodeCount()];
+		int[] parents = new int[symbols.length];
+		int[] inCounts = new int[symbols.length];
+		int[] outCounts = new int[symbols.length];
+		int[] suffixLinks = new int[symbols.length];
+		for(int node = 0; node < symbols.length; node++) {
+			symbols[node] = tree.getSymbol(node);
+			parents[node] = tree.getParent(node);
+			inCounts[node] = tree.getInCount(node);
+			outCounts[node] = tree.getOutCount(node);
+			suffixLinks[node] = tree.getSuffixLink(node);
+		}
+		out.writeInts(symbols);
+		out.writeInts(parents);
+		out.writeInts(inCounts);
+		out.writeInts(outCounts);
+		out.writeInts(suffixLinks);
+	}
+	
+	@Override
+	public void readSnapshot(SnapshotReader in) throws IOException {
+		
+		TAG = in.readString();
+		size = in.readInt();
+		
+		//the parents come before their children
+		int[] symbols = in.readInts();
+		int[] parents = in.readInts();
+		int[] inCounts = in.readInts();
+		int[] outCounts = in.readInts();
+		int[] suffixLinks = in.readInts();
+		tree = TDAGTree.build(symbols, parents, inCounts, outCounts, suffixLinks);
+		modelChanged();
+	}
+	
+
 	public long size() {
 		return size;
 	}
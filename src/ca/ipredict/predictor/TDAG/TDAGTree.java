@@ -0,0 +1,200 @@
+package ca.ipredict.predictor.TDAG;
+
+import java.io.Serializable;
+import java.util.Arrays;
+
+import ca.ipredict.helpers.LongIntMap;
+
+/**
+ * Nodes of a TDAG stored in primitive arrays
+ *
+ * A node is an id, the root is ROOT. The children of all the nodes are in a single map keyed by
+ * (parent id, symbol), so a node does not store its path: a context is found by walking from the root.
+ * Each node keeps the inCount of its best child and the highest inCount of its other children,
+ * so the prediction of a node does not iterate over its children.
+ *
+ * The suffix link of a node is the node of its path without its first symbol. Every suffix of a path
+ * is also a path of the tree, so the links let a context fall back to a shorter one in a single hop.
+ */
+public class TDAGTree implements Serializable {
+
+	private static final long serialVersionUID = -3367728092022370936L;
+
+	public static final int ROOT = 0;
+
+	/**
+	 * Symbol of the root
+	 */
+	public static final int ROOT_SYMBOL = 0;
+
+	private int[] symbols;
+	private int[] parents;
+	private int[] inCounts; //incoming weight
+	private int[] outCounts; //outgoing weight
+	private int[] suffixLinks; //-1 for the root
+
+	//best child of each node (the one with the highest inCount), its inCount and the highest inCount of the other children
+	private int[] bestChildren;
+	private int[] bestCounts;
+	private int[] secondCounts;
+
+	/**
+	 * (parent id, symbol) -> child id
+	 */
+	private LongIntMap children;
+
+	/**
+	 * Number of nodes, including the root
+	 */
+	private int nodeCount;
+
+	public TDAGTree() {
+		allocate(16);
+		children = new LongIntMap();
+		nodeCount = 0;
+		newNode(-1, ROOT_SYMBOL);
+	}
+
+	private void allocate(int capacity) {
+		symbols = new int[capacity];
+		parents = new int[capacity];
+		inCounts = new int[capacity];
+		outCounts = new int[capacity];
+		suffixLinks = new int[capacity];
+		bestChildren = new int[capacity];
+		bestCounts = new int[capacity];
+		secondCounts = new int[capacity];
+	}
+
+	private int newNode(int parent, int symbol) {
+		if(nodeCount == symbols.length) {
+			int capacity = nodeCount * 2;
+			symbols = Arrays.copyOf(symbols, capacity);
+			parents = Arrays.copyOf(parents, capacity);
+			inCounts = Arrays.copyOf(inCounts, capacity);
+			outCounts = Arrays.copyOf(outCounts, capacity);
+			suffixLinks = Arrays.copyOf(suffixLinks, capacity);
+			bestChildren = Arrays.copyOf(bestChildren, capacity);
+			bestCounts = Arrays.copyOf(bestCounts, capacity);
+			secondCounts = Arrays.copyOf(secondCounts, capacity);
+		}
+		int node = nodeCount++;
+		symbols[node] = symbol;
+		parents[node] = parent;
+		suffixLinks[node] = -1;
+		bestChildren[node] = -1;
+		if(parent >= 0) {
+			children.put(key(parent, symbol), node);
+		}
+		return node;
+	}
+
+	private static long key(int parent, int symbol) {
+		return ((long) parent << 32) | (symbol & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * Return the child of a node with the given symbol or -1
+	 */
+	public int getChild(int node, int symbol) {
+		return children.get(key(node, symbol), -1);
+	}
+
+	/**
+	 * Create the child of a node with the given symbol if needed, and count the transition from the node to this child.
+	 * @return the child
+	 */
+	public int addChild(int node, int symbol) {
+
+		//If necessary: create the child
+		int child = getChild(node, symbol);
+		if(child < 0) {
+			child = newNode(node, symbol);
+		}
+
+		//increments this node's outCount and the child inCount
+		outCounts[node]++;
+		inCounts[child]++;
+		updateBest(node, child);
+
+		return child;
+	}
+
+	/**
+	 * Update the best child of a node after the inCount of one of its children has increased
+	 */
+	private void updateBest(int node, int child) {
+		if(bestChildren[node] == child) {
+			bestCounts[node] = inCounts[child];
+		}
+		else if(inCounts[child] > bestCounts[node]) {
+			secondCounts[node] = bestCounts[node];
+			bestChildren[node] = child;
+			bestCounts[node] = inCounts[child];
+		}
+		else if(inCounts[child] > secondCounts[node]) {
+			secondCounts[node] = inCounts[child];
+		}
+	}
+
+	/**
+	 * Return the child of a node with the highest inCount, or -1 if the node has no children or if several children have the highest inCount
+	 */
+	public int getBestChild(int node) {
+		return (bestCounts[node] > secondCounts[node]) ? bestChildren[node] : -1;
+	}
+
+	public int getSymbol(int node) {
+		return symbols[node];
+	}
+
+	public int getParent(int node) {
+		return parents[node];
+	}
+
+	public int getInCount(int node) {
+		return inCounts[node];
+	}
+
+	public int getOutCount(int node) {
+		return outCounts[node];
+	}
+
+	/**
+	 * Return the node of the path of a node without its first symbol, -1 for the root
+	 */
+	public int getSuffixLink(int node) {
+		return suffixLinks[node];
+	}
+
+	public void setSuffixLink(int node, int link) {
+		suffixLinks[node] = link;
+	}
+
+	/**
+	 * Number of nodes, including the root
+	 */
+	public int nodeCount() {
+		return nodeCount;
+	}
+
+	/**
+	 * Rebuild a tree from its arrays (see TDAGPredictor.readSnapshot()), the parents have to come before their children
+	 */
+	public static TDAGTree build(int[] symbols, int[] parents, int[] inCounts, int[] outCounts, int[] suffixLinks) {
+		TDAGTree tree = new TDAGTree();
+		tree.allocate(Math.max(16, symbols.length));
+		tree.children = new LongIntMap(symbols.length);
+		tree.nodeCount = 0;
+		for(int node = 0; node < symbols.length; node++) {
+			tree.newNode(parents[node], symbols[node]);
+			tree.inCounts[node] = inCounts[node];
+			tree.outCounts[node] = outCounts[node];
+			tree.suffixLinks[node] = suffixLinks[node];
+			if(parents[node] >= 0) {
+				tree.updateBest(parents[node], node);
+			}
+		}
+		return tree;
+	}
+}
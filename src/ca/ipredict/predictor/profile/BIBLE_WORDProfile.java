@@ -1,9 +1,11 @@
 package ca.ipredict.predictor.profile;
 
+import java.util.Map;
+
 public class BIBLE_WORDProfile extends Profile {
 
 	@Override
-	public void Apply() {
+	protected void fill(Map<String, String> parameters) {
 
 		//Global parameters
 		//Pre-processing
@@ -1,10 +1,12 @@
 package ca.ipredict.predictor.profile;
 
+import java.util.Map;
+
 
 public class DefaultProfile extends Profile {
 
 	@Override
-	public void Apply() {
+	protected void fill(Map<String, String> parameters) {
 		
 		//Global parameters
 		//Pre-processing
@@ -1,43 +1,53 @@
 package ca.ipredict.predictor.profile;
 
-import java.util.HashMap;
+import java.util.Map;
 import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
 
 
 /**
  * Interface to load a parameters profile.
+ * 
+ * The predictors only read the profile while training, the parameters they need to 
+ * predict are copied at the end of the training. So applying a profile does not change
+ * the predictions of a trained model and it can be done while other threads are predicting.
+ * A profile is filled in its own map, which replaces the parameters at once (see Apply()), 
+ * so a reader sees either the previous profile or the new one in full.
  */
 public class Profile {
 	
 	//Contains the parameter as strings
-	public static HashMap<String, String> parameters;
-	
-	public Profile() {
-		parameters = new HashMap<String, String>();
-	}
+	public static volatile Map<String, String> parameters = new ConcurrentHashMap<String, String>();
 	
 	public static Double paramDouble(String name) {
-		Object value = parameters.get(name);
-		return (value == null) ? null : Double.valueOf(parameters.get(name));
+		String value = parameters.get(name);
+		return (value == null) ? null : Double.valueOf(value);
 	}
 	
 	public static Integer paramInt(String name) {
-		Object value = parameters.get(name);
-		return (value == null) ? null : Integer.valueOf(parameters.get(name));	
+		String value = parameters.get(name);
+		return (value == null) ? null : Integer.valueOf(value);	
 	}
 	
 	public static Float paramFloat(String name) {
-		Object value = parameters.get(name);
-		return (value == null) ? null : Float.valueOf(parameters.get(name));	
+		String value = parameters.get(name);
+		return (value == null) ? null : Float.valueOf(value);	
 	}
 	
 	public static Boolean paramBool(String name) {
-		Object value = parameters.get(name);
-		return (value == null) ? null : Boolean.valueOf(parameters.get(name));	
+		String value = parameters.get(name);
+		return (value == null) ? null : Boolean.valueOf(value);	
+	}
+	
+	//Applies the parameters: they are filled in a new map which is published with a single assignment
+	public void Apply() {
+		Map<String, String> profile = new ConcurrentHashMap<String, String>();
+		fill(profile);
+		parameters = profile;
 	}
 	
-	//Applies the parameters 
-	public void Apply(){}
+	//Fills the parameters of this profile
+	protected void fill(Map<String, String> parameters) {}
 	
 
 	public static String tostring() {
@@ -45,6 +55,7 @@ public class Profile {
 		String output = "---Global Parameters---" + nl;
 		
 		
+		Map<String, String> parameters = Profile.parameters;
 		for(Entry<String, String> param : parameters.entrySet()) {
 			output += param.getKey() + "\t" + param.getValue() + nl;
 		}